@@ -4,21 +4,30 @@ import java.util.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Several aggregates, grouped by any number of columns, can be computed
+ * together in one pass over the child; output tuples then hold the group-by
+ * values followed by the aggregate values. A single aggregate over at most
+ * one group-by column uses an {@link IntegerAggregator} or
+ * {@link StringAggregator}, anything else a {@link MultiAggregator}.
+ * <p>
+ * SUM_COUNT and SC_AVG let aggregates be computed in two phases: partial
+ * aggregates over parts of the input (SUM_COUNT in place of AVG), then a
+ * final Aggregate over the partial ones (SUM in place of COUNT, SC_AVG in
+ * place of AVG).
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
     private OpIterator child;
-    private int afield;
-    private int gfield;
-    private Aggregator.Op aop;
+    private int[] afields;
+    private int[] gfields;
+    private Aggregator.Op[] aops;
     private Aggregator aggregator;
     private OpIterator aggregateIterator;
-    private Type gbfieldtype;
-    private Type afieldtype;
+    private Type[] gbfieldtypes;
+    private Type[] afieldtypes;
+    private long memoryBudget = Aggregator.DEFAULT_MEMORY_BUDGET;
 
     /**
      * Constructor.
@@ -40,16 +49,69 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
 	// some code goes here
+        this(child, new int[] { afield },
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+                new Aggregator.Op[] { aop });
+    }
+
+    /**
+     * Constructor for several aggregates over several group-by columns.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afields
+     *            The column of each aggregate.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     * @throws IllegalArgumentException
+     *             if afields and aops differ in length, or there are no
+     *             aggregates
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator per aggregate");
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
-        this.gbfieldtype = child.getTupleDesc().getFieldType(gfield);
-        this.afieldtype = child.getTupleDesc().getFieldType(afield);
-        if (afieldtype == Type.INT_TYPE)
-            this.aggregator = new IntegerAggregator(gfield, gbfieldtype, afield, aop);
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        TupleDesc td = child.getTupleDesc();
+        this.gbfieldtypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++)
+            gbfieldtypes[i] = td.getFieldType(gfields[i]);
+        this.afieldtypes = new Type[afields.length];
+        for (int i = 0; i < afields.length; i++)
+            afieldtypes[i] = td.getFieldType(afields[i]);
+    }
+
+    private Aggregator newAggregator() {
+        Aggregator agg;
+        if (afields.length > 1 || gfields.length > 1 || aops[0] == Aggregator.Op.SUM_COUNT
+                || aops[0] == Aggregator.Op.SC_AVG)
+            agg = new MultiAggregator(gfields, gbfieldtypes, afields, afieldtypes, aops);
+        else if (afieldtypes[0] == Type.INT_TYPE)
+            agg = new IntegerAggregator(groupField(),
+                    gfields.length == 0 ? null : gbfieldtypes[0], afields[0], aops[0]);
         else
-            this.aggregator = new StringAggregator(gfield, gbfieldtype, afield, aop);
+            agg = new StringAggregator(groupField(),
+                    gfields.length == 0 ? null : gbfieldtypes[0], afields[0], aops[0]);
+        agg.setMemoryBudget(memoryBudget);
+        return agg;
+    }
+
+    /**
+     * Set the number of bytes of groups to keep in memory; beyond that the
+     * input of further groups is spilled to disk. Takes effect at the next
+     * open().
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
     }
 
     /**
@@ -59,7 +121,12 @@ public class Aggregate extends Operator {
      * */
     public int groupField() {
 	// some code goes here
-	return gfield;
+	return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /** @return the group-by fields in the <b>INPUT</b> tuples; empty if there is no grouping */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
@@ -69,9 +136,9 @@ public class Aggregate extends Operator {
      * */
     public String groupFieldName() {
 	// some code goes here
-        if (gfield == Aggregator.NO_GROUPING)
+        if (gfields.length == 0)
             return null;
-        return child.getTupleDesc().getFieldName(gfield);
+        return child.getTupleDesc().getFieldName(gfields[0]);
     }
 
     /**
@@ -79,7 +146,12 @@ public class Aggregate extends Operator {
      * */
     public int aggregateField() {
 	// some code goes here
-	    return afield;
+	    return afields[0];
+    }
+
+    /** @return the field of each aggregate in the <b>INPUT</b> tuples */
+    public int[] aggregateFields() {
+        return afields.clone();
     }
 
     /**
@@ -88,7 +160,7 @@ public class Aggregate extends Operator {
      * */
     public String aggregateFieldName() {
 	// some code goes here
-        return child.getTupleDesc().getFieldName(afield);
+        return child.getTupleDesc().getFieldName(afields[0]);
     }
 
     /**
@@ -96,7 +168,12 @@ public class Aggregate extends Operator {
      * */
     public Aggregator.Op aggregateOp() {
 	// some code goes here
-        return aop;
+        return aops[0];
+    }
+
+    /** @return the operator of each aggregate */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -108,6 +185,9 @@ public class Aggregate extends Operator {
 	// some code goes here
         super.open();
         child.open();
+        if (aggregator != null)
+            aggregator.close();
+        aggregator = newAggregator();
         while (child.hasNext())
             aggregator.mergeTupleIntoGroup(child.next());
         this.aggregateIterator = aggregator.iterator();
@@ -119,7 +199,9 @@ public class Aggregate extends Operator {
      * field is the field by which we are grouping, and the second field is the
      * result of computing the aggregate. If there is no group by field, then
      * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * aggregate. With several group by fields or aggregates, all the group by
+     * values come first, followed by all the aggregate values. Should return
+     * null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// some code goes here
@@ -137,7 +219,9 @@ public class Aggregate extends Operator {
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
      * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * the aggregate value column. In general there is one field per group by
+     * field followed by one per aggregate, except for SUM_COUNT which has two:
+     * the sum, then the count.
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -146,24 +230,39 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
 	// some code goes here
-        String afieldname = String.format("aggName(%s) ()", aop.toString(), child.getTupleDesc().getFieldName(afield));
-        if (gfield != Aggregator.NO_GROUPING) {
-            Type[] typeAr = {gbfieldtype, afieldtype};
-            String[] fieldAr = {groupFieldName(), afieldname};
-            return new TupleDesc(typeAr, fieldAr);
+        TupleDesc td = child.getTupleDesc();
+        ArrayList<Type> typeAr = new ArrayList<Type>();
+        ArrayList<String> fieldAr = new ArrayList<String>();
+        for (int i = 0; i < gfields.length; i++) {
+            typeAr.add(gbfieldtypes[i]);
+            fieldAr.add(td.getFieldName(gfields[i]));
         }
-        else {
-            Type[] typeAr = {afieldtype};
-            String[] fieldAr = {afieldname};
-            return new TupleDesc(typeAr, fieldAr);
+        for (int i = 0; i < afields.length; i++) {
+            // every aggregate, COUNT of a string too, is an integer
+            String fieldName = td.getFieldName(afields[i]);
+            if (aops[i] == Aggregator.Op.SUM_COUNT) {
+                typeAr.add(Type.INT_TYPE);
+                fieldAr.add(String.format("aggName(%s) (%s)", Aggregator.Op.SUM, fieldName));
+                typeAr.add(Type.INT_TYPE);
+                fieldAr.add(String.format("aggName(%s) (%s)", Aggregator.Op.COUNT, fieldName));
+            } else {
+                typeAr.add(Type.INT_TYPE);
+                fieldAr.add(String.format("aggName(%s) (%s)", aops[i], fieldName));
+            }
         }
+        return new TupleDesc(typeAr.toArray(new Type[0]), fieldAr.toArray(new String[0]));
     }
 
     public void close() {
 	// some code goes here
         super.close();
         child.close();
+        if (this.aggregateIterator != null)
+            this.aggregateIterator.close();
         this.aggregateIterator = null;
+        if (this.aggregator != null)
+            this.aggregator.close();
+        this.aggregator = null;
     }
 
     @Override
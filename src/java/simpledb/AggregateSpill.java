@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+
+/**
+ * The input tuples of the groups an aggregator had no memory left for.
+ * Tuples are hash partitioned on their group-by fields into
+ * {@link #FANOUT} {@link TupleSpillFile}s, so every group ends up in one
+ * partition. Afterwards each partition is aggregated on its own by a fresh
+ * aggregator, which may spill again at the next level if the partition
+ * still has too many groups. Groups whose hashes collide are never split
+ * up, so a partition at {@link #MAX_DEPTH} is aggregated in memory
+ * whatever the budget.
+ * <p>
+ * Tuples cannot be added once the spilled groups have been iterated over.
+ */
+public class AggregateSpill {
+
+    public static final int FANOUT = HashEquiJoin.FANOUT;
+    /** Levels of partitioning after which aggregators stop spilling. */
+    public static final int MAX_DEPTH = HashEquiJoin.MAX_DEPTH;
+
+    private final int[] gbfields;
+    private final int level;
+    private final TupleSpillFile[] partitions = new TupleSpillFile[FANOUT];
+    private boolean reading = false;
+
+    /**
+     * @param gbfield the group-by field of the tuples
+     * @param level how many times the tuples have been partitioned before;
+     *            each level hashes differently
+     */
+    public AggregateSpill(int gbfield, int level) {
+        this(new int[] { gbfield }, level);
+    }
+
+    /**
+     * @param gbfields the group-by fields of the tuples
+     * @param level how many times the tuples have been partitioned before;
+     *            each level hashes differently
+     */
+    public AggregateSpill(int[] gbfields, int level) {
+        this.gbfields = gbfields.clone();
+        this.level = level;
+    }
+
+    /** Add the tuple to the partition of its group. */
+    public void add(Tuple t) throws DbException {
+        if (reading)
+            throw new IllegalStateException("groups were spilled after they were read");
+        int h = 0;
+        for (int f : gbfields)
+            h = 31 * h + t.getField(f).hashCode();
+        int p = HashEquiJoin.partition(h, level);
+        if (partitions[p] == null)
+            partitions[p] = new TupleSpillFile(t.getTupleDesc());
+        partitions[p].add(t);
+    }
+
+    /**
+     * @param aggregators creates the aggregator for a partition, given the
+     *            level to spill at if it has to
+     * @param td the schema of the aggregate tuples
+     * @return an iterator over the aggregates of the spilled groups
+     */
+    public OpIterator iterator(final IntFunction<Aggregator> aggregators, final TupleDesc td) {
+        reading = true;
+        return new OpIterator() {
+            private static final long serialVersionUID = 1L;
+            private int p;
+            /** The aggregator of the current partition and its groups. */
+            private Aggregator agg;
+            private OpIterator groups;
+            private boolean open = false;
+
+            private void closeGroups() {
+                if (groups != null)
+                    groups.close();
+                if (agg != null)
+                    agg.close();
+                groups = null;
+                agg = null;
+            }
+
+            public void open() {
+                closeGroups();
+                open = true;
+                p = -1;
+            }
+
+            /** Aggregate the next non-empty partition. */
+            private boolean nextPartition() throws DbException, TransactionAbortedException {
+                closeGroups();
+                while (++p < FANOUT) {
+                    if (partitions[p] == null)
+                        continue;
+                    agg = aggregators.apply(level + 1);
+                    DbFileIterator it = partitions[p].iterator();
+                    it.open();
+                    while (it.hasNext())
+                        agg.mergeTupleIntoGroup(it.next());
+                    it.close();
+                    groups = agg.iterator();
+                    groups.open();
+                    return true;
+                }
+                return false;
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (!open)
+                    return false;
+                while (groups == null || !groups.hasNext())
+                    if (!nextPartition())
+                        return false;
+                return true;
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return groups.next();
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+                closeGroups();
+                open = false;
+            }
+        };
+    }
+
+    /** Remove the partition files. */
+    public void delete() {
+        for (int p = 0; p < FANOUT; p++) {
+            if (partitions[p] != null)
+                partitions[p].delete();
+            partitions[p] = null;
+        }
+    }
+}
@@ -81,5 +81,20 @@ public interface Aggregator extends Serializable {
      * @see simpledb.TupleIterator for a possible helper
      */
     public OpIterator iterator();
-    
+
+    /** Default number of bytes of groups an aggregator keeps in memory. */
+    static final long DEFAULT_MEMORY_BUDGET = 8L << 20;
+
+    /**
+     * Set the number of bytes of groups to keep in memory. Tuples of groups
+     * beyond that are spilled to disk and aggregated when the iterator gets
+     * to them. Aggregators that cannot spill ignore the budget.
+     */
+    public default void setMemoryBudget(long bytes) {
+    }
+
+    /** Remove the tuples spilled to disk, if any. */
+    public default void close() {
+    }
+
 }
@@ -17,6 +17,7 @@ public class BTreeScan implements OpIterator {
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
+	private int keyField;
 
 	/**
 	 * Creates a B+ tree scan over the specified table as a part of the
@@ -76,6 +77,8 @@ public class BTreeScan implements OpIterator {
 		this.isOpen=false;
 		this.alias = tableAlias;
 		this.tablename = Database.getCatalog().getTableName(tableid);
+		DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+		this.keyField = f instanceof BTreeFile ? ((BTreeFile) f).keyField() : -1;
 		if(ipred == null) {
 			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 		}
@@ -95,6 +98,15 @@ public class BTreeScan implements OpIterator {
 		myTd = new TupleDesc(newTypes, newNames);
 	}
 
+	/**
+	 * @return the field the B+ tree is keyed on, which the scan returns
+	 *         tuples in ascending order of, or -1 if the table is not a
+	 *         B+ tree
+	 */
+	public int keyField() {
+		return this.keyField;
+	}
+
 	public BTreeScan(TransactionId tid, int tableid, IndexPredicate ipred) {
 		this(tid, tableid, Database.getCatalog().getTableName(tableid), ipred);
 	}
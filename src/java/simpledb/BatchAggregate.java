@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate}: MIN, MAX, SUM,
+ * COUNT and AVG over an INT_TYPE column, or COUNT over a STRING_TYPE
+ * column, optionally grouped by one column. Rows are folded into the
+ * accumulators straight from the column arrays. Like {@link IntegerAggregator}
+ * AVG is the integer quotient of sum and count, and an aggregate over no
+ * rows has no result.
+ */
+public class BatchAggregate implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchOpIterator child;
+    private int afield;
+    private int gfield;
+    private Aggregator.Op aop;
+    private TupleDesc td;
+
+    /** Results as (group, accumulator) pairs, the group null without grouping. */
+    private transient ArrayList<Map.Entry<Object, long[]>> results;
+    private transient int pos;
+    private transient ColumnBatch out;
+
+    /**
+     * @param child the operator that is feeding us rows
+     * @param afield the column over which we are computing an aggregate
+     * @param gfield the column over which we are grouping the result, or
+     *            {@link Aggregator#NO_GROUPING}
+     * @param aop the aggregation operator to use
+     */
+    public BatchAggregate(BatchOpIterator child, int afield, int gfield,
+            Aggregator.Op aop) {
+        TupleDesc childTd = child.getTupleDesc();
+        Type atype = childTd.getFieldType(afield);
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG
+                || (atype == Type.STRING_TYPE && aop != Aggregator.Op.COUNT))
+            throw new IllegalArgumentException("unsupported aggregate " + aop
+                    + " over " + atype);
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        String aname = "aggName(" + aop + ") (" + childTd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aname });
+        else
+            td = new TupleDesc(new Type[] { childTd.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { childTd.getFieldName(gfield), aname });
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        aggregate();
+        out = new ColumnBatch(td);
+    }
+
+    private void aggregate() throws DbException, TransactionAbortedException {
+        HashMap<Object, long[]> groups = new HashMap<Object, long[]>();
+        boolean intAgg = child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE;
+        ColumnBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            int n = batch.numRows();
+            int[] values = intAgg ? batch.ints(afield) : null;
+            for (int i = 0; i < n; i++) {
+                int row = batch.row(i);
+                Object group = gfield == Aggregator.NO_GROUPING ? null
+                        : batch.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE
+                                ? (Object) batch.ints(gfield)[row]
+                                : batch.strings(gfield)[row];
+                long[] acc = groups.get(group);
+                // acc[0] is the running value, acc[1] the number of rows
+                if (acc == null) {
+                    acc = new long[] { aop == Aggregator.Op.MIN ? Long.MAX_VALUE
+                            : aop == Aggregator.Op.MAX ? Long.MIN_VALUE : 0, 0 };
+                    groups.put(group, acc);
+                }
+                acc[1]++;
+                if (!intAgg)
+                    continue;
+                int v = values[row];
+                switch (aop) {
+                case MIN:
+                    acc[0] = Math.min(acc[0], v);
+                    break;
+                case MAX:
+                    acc[0] = Math.max(acc[0], v);
+                    break;
+                case SUM:
+                case AVG:
+                    acc[0] += v;
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+        results = new ArrayList<Map.Entry<Object, long[]>>(groups.entrySet());
+        pos = 0;
+    }
+
+    private int value(long[] acc) {
+        switch (aop) {
+        case COUNT:
+            return (int) acc[1];
+        case AVG:
+            return (int) (acc[0] / acc[1]);
+        default:
+            return (int) acc[0];
+        }
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("Operator not yet open");
+        out.clear();
+        int aggCol = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        int size = 0;
+        while (size < out.capacity() && pos < results.size()) {
+            Map.Entry<Object, long[]> e = results.get(pos++);
+            if (aggCol == 1) {
+                if (td.getFieldType(0) == Type.INT_TYPE)
+                    out.ints(0)[size] = (Integer) e.getKey();
+                else
+                    out.strings(0)[size] = (String) e.getKey();
+            }
+            out.ints(aggCol)[size] = value(e.getValue());
+            size++;
+        }
+        out.setSize(size);
+        return size > 0 ? out : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+    }
+
+    public void close() {
+        child.close();
+        results = null;
+        out = null;
+    }
+}
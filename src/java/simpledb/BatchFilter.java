@@ -0,0 +1,118 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}. It does not copy rows:
+ * it narrows the selection vector of each child batch down to the rows that
+ * pass the predicate. Comparisons of an INT_TYPE column against an IntField
+ * run over the raw int column, one loop per operator.
+ */
+public class BatchFilter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private Predicate predicate;
+    private BatchOpIterator child;
+
+    /**
+     * @param p the predicate to filter rows with
+     * @param child the child operator
+     */
+    public BatchFilter(Predicate p, BatchOpIterator child) {
+        this.predicate = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            filter(batch);
+            if (batch.numRows() > 0)
+                return batch;
+        }
+        return null;
+    }
+
+    private void filter(ColumnBatch batch) {
+        int field = predicate.getField();
+        Field operand = predicate.getOperand();
+        int n = batch.numRows();
+        int[] sel = batch.selectionVector();
+        int out = 0;
+        if (operand instanceof IntField) {
+            int[] col = batch.ints(field);
+            int v = ((IntField) operand).getValue();
+            // one loop per operator keeps the comparison out of the loop
+            switch (predicate.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (col[row] == v)
+                        sel[out++] = row;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (col[row] != v)
+                        sel[out++] = row;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (col[row] > v)
+                        sel[out++] = row;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (col[row] >= v)
+                        sel[out++] = row;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (col[row] < v)
+                        sel[out++] = row;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int row = batch.row(i);
+                    if (col[row] <= v)
+                        sel[out++] = row;
+                }
+                break;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int row = batch.row(i);
+                if (batch.getField(row, field).compare(predicate.getOp(), operand))
+                    sel[out++] = row;
+            }
+        }
+        batch.select(out);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
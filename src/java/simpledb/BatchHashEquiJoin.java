@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * BatchHashEquiJoin is the batch version of {@link HashEquiJoin}. The rows
+ * of child1 are copied into one growing {@link ColumnBatch} and chained by
+ * join key (a map from key to the first row, and an int[] linking each row
+ * to the next one with the same key); the batches of child2 then probe the
+ * table. Output rows are the columns of child1 followed by those of child2.
+ */
+public class BatchHashEquiJoin implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private static final int NONE = -1;
+
+    private JoinPredicate pred;
+    private BatchOpIterator child1, child2;
+    private TupleDesc comboTD;
+
+    private transient ColumnBatch build;
+    private transient HashMap<Object, Integer> heads;
+    private transient int[] next;
+    private transient ColumnBatch out;
+    /** Probe batch being joined, the live row reached, and its next match. */
+    private transient ColumnBatch probe;
+    private transient int probeIdx;
+    private transient int match;
+
+    /**
+     * @param p the predicate to join on; must be an equality
+     * @param child1 the build side
+     * @param child2 the probe side
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchOpIterator child1,
+            BatchOpIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("BatchHashEquiJoin only supports equality");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        out = new ColumnBatch(comboTD);
+        buildTable();
+        probe = null;
+    }
+
+    private void buildTable() throws DbException, TransactionAbortedException {
+        build = new ColumnBatch(child1.getTupleDesc());
+        heads = new HashMap<Object, Integer>();
+        next = new int[build.capacity()];
+        int field = pred.getField1();
+        ColumnBatch batch;
+        while ((batch = child1.nextBatch()) != null) {
+            int n = batch.numRows();
+            build.ensureCapacity(build.size() + n);
+            if (next.length < build.capacity())
+                next = Arrays.copyOf(next, build.capacity());
+            for (int i = 0; i < n; i++) {
+                int row = build.size();
+                build.appendRow(batch, batch.row(i));
+                Integer head = heads.put(key(build, field, row), row);
+                next[row] = head == null ? NONE : head;
+            }
+        }
+    }
+
+    private static Object key(ColumnBatch batch, int field, int row) {
+        if (batch.getTupleDesc().getFieldType(field) == Type.INT_TYPE)
+            return batch.ints(field)[row];
+        return batch.strings(field)[row];
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("Operator not yet open");
+        out.clear();
+        int field = pred.getField2();
+        int width1 = child1.getTupleDesc().numFields();
+        int size = 0;
+        while (size < out.capacity()) {
+            if (probe == null || probeIdx >= probe.numRows()) {
+                probe = child2.nextBatch();
+                probeIdx = 0;
+                match = NONE;
+                if (probe == null)
+                    break;
+            }
+            int row = probe.row(probeIdx);
+            if (match == NONE) {
+                Integer head = heads.get(key(probe, field, row));
+                if (head == null) {
+                    probeIdx++;
+                    continue;
+                }
+                match = head;
+            }
+            out.copyRow(build, match, 0, size);
+            out.copyRow(probe, row, width1, size);
+            size++;
+            match = next[match];
+            if (match == NONE)
+                probeIdx++;
+        }
+        out.setSize(size);
+        return size > 0 ? out : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child2.rewind();
+        probe = null;
+    }
+
+    public void close() {
+        child2.close();
+        child1.close();
+        build = null;
+        heads = null;
+        next = null;
+        out = null;
+        probe = null;
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchOpIterator is the batch-at-a-time counterpart of {@link OpIterator}.
+ * Instead of one Tuple per call, an operator returns a {@link ColumnBatch}
+ * of up to {@link ColumnBatch#DEFAULT_CAPACITY} rows stored column by
+ * column, so the per-row cost of virtual calls and Tuple objects is paid
+ * once per batch.
+ * <p>
+ * A batch returned by nextBatch is only valid until the next call on the
+ * same iterator: operators reuse their output batches.
+ * <p>
+ * {@link TupleToBatchIterator} and {@link BatchToTupleIterator} convert
+ * between the two models, so batch operators can be placed anywhere in an
+ * existing plan.
+ */
+public interface BatchOpIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows.
+     *
+     * @return a batch with at least one selected row, or null if there are
+     *         no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of this iterator's batches.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * BatchProject is the batch version of {@link Project}. The batches it
+ * returns share the columns of the child's batches, so projecting copies
+ * no values.
+ */
+public class BatchProject implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchOpIterator child;
+    private TupleDesc td;
+    private int[] outFieldIds;
+
+    /**
+     * @param fieldList the ids of the fields of child's TupleDesc to project
+     *            out
+     * @param types the types of the fields in the final projection
+     * @param child the child operator
+     */
+    public BatchProject(ArrayList<Integer> fieldList, Type[] types,
+            BatchOpIterator child) {
+        this.child = child;
+        outFieldIds = new int[fieldList.size()];
+        String[] fieldAr = new String[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        for (int i = 0; i < fieldAr.length; i++) {
+            outFieldIds[i] = fieldList.get(i);
+            fieldAr[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        td = new TupleDesc(types, fieldAr);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        ColumnBatch batch = child.nextBatch();
+        return batch == null ? null : batch.project(td, outFieldIds);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A bounded, lock-free queue of tuple batches between the threads of an
+ * {@link Exchange}. It is a ring buffer in which every slot carries a
+ * sequence number telling producers and consumers whose turn it is, so any
+ * number of threads can offer and poll concurrently with one compare-and-set
+ * each and no locks.
+ * <p>
+ * A thread that has to wait for room or for a batch spins briefly, then
+ * parks for increasing intervals inside {@link ForkJoinPool#managedBlock},
+ * so that a waiting pool worker does not keep the pool from running the
+ * tasks it waits for.
+ *
+ * @Threadsafe
+ */
+public class BatchQueue {
+
+    /** Times to retry before parking. */
+    private static final int SPINS = 64;
+    private static final long MIN_PARK_NANOS = 1000;
+    private static final long MAX_PARK_NANOS = 1000000;
+
+    private final AtomicReferenceArray<List<Tuple>> batches;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    /** The next position to poll from and to offer at. */
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+
+    /**
+     * @param capacity the most batches the queue holds, rounded up to a
+     *            power of two
+     */
+    public BatchQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        batches = new AtomicReferenceArray<List<Tuple>>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        mask = size - 1;
+    }
+
+    /**
+     * Add a batch if there is room.
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(List<Tuple> batch) {
+        long pos = tail.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long diff = sequences.get(i) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    batches.set(i, batch);
+                    sequences.set(i, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // the slot still holds the batch from a lap ago
+                return false;
+            }
+            pos = tail.get();
+        }
+    }
+
+    /**
+     * Remove the oldest batch, if any.
+     *
+     * @return the batch, or null if the queue is empty
+     */
+    public List<Tuple> poll() {
+        long pos = head.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long diff = sequences.get(i) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    List<Tuple> batch = batches.get(i);
+                    batches.set(i, null);
+                    sequences.set(i, pos + mask + 1);
+                    return batch;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+            pos = head.get();
+        }
+    }
+
+    /**
+     * Add a batch, waiting for room unless the consumer has gone away.
+     * Interrupts do not stop the wait, since the consumer may count on the
+     * batch; the interrupt status is kept.
+     *
+     * @param batch the batch to add
+     * @param gone tells whether nobody will poll the batch any more
+     * @return false if the batch was dropped because of gone
+     */
+    public boolean put(final List<Tuple> batch, final BooleanSupplier gone) {
+        final boolean[] added = new boolean[1];
+        boolean interrupted = false;
+        while (true) {
+            try {
+                await(() -> (added[0] = offer(batch)) || gone.getAsBoolean());
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return added[0];
+    }
+
+    /**
+     * Remove the oldest batch, waiting for one if the queue is empty.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public List<Tuple> take() throws InterruptedException {
+        @SuppressWarnings("unchecked")
+        final List<Tuple>[] taken = new List[1];
+        await(() -> (taken[0] = poll()) != null);
+        return taken[0];
+    }
+
+    /** Wait until done holds, spinning, then parking. */
+    private static void await(final BooleanSupplier done) throws InterruptedException {
+        for (int i = 0; i < SPINS; i++) {
+            if (done.getAsBoolean())
+                return;
+            Thread.yield();
+        }
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private long park = MIN_PARK_NANOS;
+            private boolean released = false;
+
+            public boolean isReleasable() {
+                return released || (released = done.getAsBoolean());
+            }
+
+            public boolean block() throws InterruptedException {
+                LockSupport.parkNanos(this, park);
+                park = Math.min(MAX_PARK_NANOS, park * 2);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                return isReleasable();
+            }
+        });
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the batch version of {@link SeqScan}. Over a HeapFile it
+ * decodes each page straight into the columns of a {@link ColumnBatch}
+ * ({@link HeapPage#fillBatch}); other files are scanned a tuple at a time
+ * through a {@link TupleToBatchIterator}.
+ * <p>
+ * Rows of the batches carry no RecordId, so a batch scan cannot feed a
+ * Delete.
+ */
+public class BatchSeqScan implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final TupleDesc td;
+    private transient ColumnBatch batch;
+    private transient BatchOpIterator fallback;
+    private transient ReadAhead readAhead;
+    private transient HeapPage page;
+    private int pageNo;
+    private int slot;
+    private int numPages;
+    private boolean open = false;
+
+    /**
+     * Creates a batch scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid the transaction this scan is running as a part of
+     * @param tableid the table to scan
+     * @param tableAlias the alias of this table, used as for SeqScan to
+     *            prefix the field names
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.td = SeqScan.getTupleDesc(tableid, tableAlias);
+    }
+
+    public BatchSeqScan(TransactionId tid, int tableid) {
+        this(tid, tableid, Database.getCatalog().getTableName(tableid));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof HeapFile) {
+            batch = new ColumnBatch(td);
+            numPages = ((HeapFile) file).numPages();
+            readAhead = new ReadAhead(tableid, numPages);
+            rewindPages();
+        } else {
+            fallback = new TupleToBatchIterator(new SeqScan(tid, tableid, null));
+            fallback.open();
+        }
+        open = true;
+    }
+
+    private void rewindPages() {
+        pageNo = 0;
+        slot = 0;
+        page = null;
+        readAhead.reset();
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!open)
+            throw new IllegalStateException("Operator not yet open");
+        if (fallback != null) {
+            ColumnBatch b = fallback.nextBatch();
+            // same columns under this scan's field names
+            return b == null ? null : b.project(td, identity(td.numFields()));
+        }
+        batch.clear();
+        while (!batch.isFull() && pageNo < numPages) {
+            if (page == null) {
+                readAhead.pageAccessed(pageNo);
+                page = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(tableid, pageNo), Permissions.READ_ONLY);
+                slot = 0;
+            }
+            slot = page.fillBatch(slot, batch);
+            if (slot >= page.numSlots) {
+                page = null;
+                pageNo++;
+            }
+        }
+        return batch.numRows() > 0 ? batch : null;
+    }
+
+    private static int[] identity(int n) {
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++)
+            ids[i] = i;
+        return ids;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (fallback != null)
+            fallback.rewind();
+        else
+            rewindPages();
+    }
+
+    public void close() {
+        if (fallback != null)
+            fallback.close();
+        fallback = null;
+        batch = null;
+        page = null;
+        open = false;
+    }
+}
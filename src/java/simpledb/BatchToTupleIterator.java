@@ -0,0 +1,63 @@
+package simpledb;
+
+/**
+ * BatchToTupleIterator returns the live rows of a {@link BatchOpIterator}
+ * as tuples, so batch operators can feed the rest of a plan. The tuples
+ * have no RecordId.
+ */
+public class BatchToTupleIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchOpIterator child;
+    private transient ColumnBatch batch;
+    private transient int i;
+
+    /**
+     * @param child the batch operator whose rows to return
+     */
+    public BatchToTupleIterator(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || i >= batch.numRows()) {
+            batch = child.nextBatch();
+            i = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.row(i++));
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        // the child is not an OpIterator; this operator is a leaf of the
+        // tuple plan
+        return new OpIterator[] {};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -2,7 +2,12 @@ package simpledb;
 
 import java.io.*;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -12,6 +17,12 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is split into shards keyed by PageId hash. Each shard has
+ * its own eviction policy and latch, so getPage calls on different shards
+ * proceed in parallel; only the total number of resident pages is shared.
+ * A shard latch only guards the page table and the eviction policy: pages
+ * are read from disk outside it, so a miss never holds up hits on its shard.
  * 
  * @Threadsafe, all fields are final
  */
@@ -26,18 +37,119 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private int numPages;
-    private ConcurrentHashMap<PageId, Page> pageMap;
+    /** Upper bound on the number of shards a default BufferPool is split into. */
+    public static final int DEFAULT_SHARDS = 16;
+
+    /** A default BufferPool gives every shard at least this many pages. */
+    private static final int MIN_PAGES_PER_SHARD = 8;
+
+    /**
+     * One partition of the page table. Each shard has its own map, its own
+     * replacement state and its own latch (the shard's monitor), so threads
+     * working on pages of different shards never contend.
+     */
+    private static class Shard {
+        final ConcurrentHashMap<PageId, Page> pages = new ConcurrentHashMap<>();
+        /**
+         * Pages being read from disk, each by the thread that put it here;
+         * other threads asking for the page wait for that read instead of
+         * issuing their own. Guarded by the shard latch.
+         */
+        final HashMap<PageId, CompletableFuture<Page>> loading = new HashMap<>();
+        final EvictionPolicy evictionPolicy;
+
+        Shard(EvictionPolicy evictionPolicy) {
+            this.evictionPolicy = evictionPolicy;
+        }
+    }
+
+    private final int numPages;
+    private final Shard[] shards;
+    /** Pages resident or reserved for a page being read, across all shards. */
+    private final AtomicInteger residentPages;
+    private final LockManager lockManager = new LockManager();
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
+     * <p>
+     * The pool is split into up to {@link #DEFAULT_SHARDS} shards. The
+     * replacement policy is chosen with the system property
+     * simpledb.EvictionPolicy, which may be "clock", "lruk" or "2q"
+     * (the default).
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // some code goes here
+        this(numPages, defaultShards(numPages), System.getProperty("simpledb.EvictionPolicy"));
+    }
+
+    /**
+     * Creates a single-shard BufferPool that caches up to numPages pages and
+     * uses the given policy to pick pages to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param evictionPolicy the page-replacement policy of this buffer pool.
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy) {
+        this.numPages = numPages;
+        this.shards = new Shard[] { new Shard(evictionPolicy) };
+        this.residentPages = new AtomicInteger(0);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into
+     * numShards shards that each run their own eviction policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numShards the number of shards the page table is split into.
+     * @param evictionPolicy the name of the page-replacement policy, see
+     *            {@link #newEvictionPolicy}
+     */
+    public BufferPool(int numPages, int numShards, String evictionPolicy) {
+        if (numShards < 1)
+            throw new IllegalArgumentException("a buffer pool needs at least one shard");
         this.numPages = numPages;
-        this.pageMap = new ConcurrentHashMap<>();
+        this.shards = new Shard[numShards];
+        int pagesPerShard = Math.max(1, numPages / numShards);
+        for (int i = 0; i < numShards; i++)
+            shards[i] = new Shard(newEvictionPolicy(evictionPolicy, pagesPerShard));
+        this.residentPages = new AtomicInteger(0);
+    }
+
+    private static int defaultShards(int numPages) {
+        return Math.max(1, Math.min(DEFAULT_SHARDS, numPages / MIN_PAGES_PER_SHARD));
+    }
+
+    /**
+     * Creates the eviction policy with the given name.
+     *
+     * @param name "clock", "lruk" or "2q"; null selects 2q
+     * @param numPages the size of the buffer pool the policy serves
+     * @throws IllegalArgumentException if the name is not recognised
+     */
+    public static EvictionPolicy newEvictionPolicy(String name, int numPages) {
+        if (name == null || name.equalsIgnoreCase("2q"))
+            return new TwoQEvictionPolicy(numPages);
+        if (name.equalsIgnoreCase("clock"))
+            return new ClockEvictionPolicy(numPages);
+        if (name.equalsIgnoreCase("lruk"))
+            return new LRUKEvictionPolicy(numPages);
+        throw new IllegalArgumentException("unknown eviction policy " + name);
+    }
+
+    /** @return the number of shards the page table is split into */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    private int shardIndex(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return Math.floorMod(h, shards.length);
+    }
+
+    private Shard shardFor(PageId pid) {
+        return shards[shardIndex(pid)];
     }
     
     public static int getPageSize() {
@@ -72,16 +184,143 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        Page page = pageMap.get(pid);
-        if (page != null)
+        // a cancelled query stops at its next page, however busy its operators
+        if (Thread.currentThread().isInterrupted())
+            throw new TransactionAbortedException();
+        lockManager.acquire(tid, pid, perm == Permissions.READ_WRITE);
+
+        int index = shardIndex(pid);
+        Shard shard = shards[index];
+        Page page = shard.pages.get(pid);
+        if (page != null) {
+            synchronized (shard) {
+                shard.evictionPolicy.pageAccessed(pid);
+            }
+            return page;
+        }
+
+        // reserve a slot before taking the shard latch; evicting may have to
+        // visit other shards and must not happen while holding this one
+        while (!reservePage())
+            evictPage(index);
+        return load(shard, pid, false);
+    }
+
+    /**
+     * Read a page into the buffer pool ahead of its use, without locking it.
+     * Pages are only ever modified while resident and under an exclusive
+     * lock, so the copy on disk of a page that is not resident is the
+     * committed one, and loading it needs no lock. Prefetching never waits
+     * for room: if the pool is full and no clean page can be evicted, the
+     * page is skipped.
+     *
+     * @param pid the ID of the page to read
+     * @return true if the page was read from disk, false if it was already
+     *         resident or there was no room for it
+     */
+    public boolean prefetchPage(PageId pid) {
+        int index = shardIndex(pid);
+        Shard shard = shards[index];
+        if (shard.pages.containsKey(pid))
+            return false;
+        while (!reservePage()) {
+            try {
+                evictPage(index);
+            } catch (DbException e) {
+                return false;
+            }
+        }
+        return load(shard, pid, true) != null;
+    }
+
+    /**
+     * Make a page resident, reading it from disk unless it already is or
+     * another thread is reading it. The caller has reserved a slot for the
+     * page, which is given back if the page is not added. The disk read
+     * happens outside the shard latch.
+     *
+     * @param prefetch true to return null, rather than the page, if the page
+     *            was resident or being read already
+     * @return the page
+     */
+    private Page load(Shard shard, PageId pid, boolean prefetch) {
+        CompletableFuture<Page> reading = new CompletableFuture<Page>();
+        CompletableFuture<Page> other;
+        synchronized (shard) {
+            Page page = shard.pages.get(pid);
+            if (page != null) {
+                // another thread read the page while we were making room
+                residentPages.decrementAndGet();
+                if (prefetch)
+                    return null;
+                shard.evictionPolicy.pageAccessed(pid);
+                return page;
+            }
+            other = shard.loading.putIfAbsent(pid, reading);
+        }
+        if (other != null) {
+            residentPages.decrementAndGet();
+            if (prefetch)
+                return null;
+            Page page;
+            try {
+                page = other.join();
+            } catch (CompletionException e) {
+                // the read failed: fail as it would have here
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw (RuntimeException) e.getCause();
+            }
+            synchronized (shard) {
+                if (shard.pages.get(pid) == page)
+                    shard.evictionPolicy.pageAccessed(pid);
+            }
             return page;
-        if (pageMap.size() == numPages)
-            throw new DbException("oh shit");
-        page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        pageMap.put(pid, page);
+        }
+
+        Page page;
+        try {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        } catch (RuntimeException | Error e) {
+            synchronized (shard) {
+                shard.loading.remove(pid);
+            }
+            residentPages.decrementAndGet();
+            reading.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (shard) {
+            shard.loading.remove(pid);
+            Page cached = shard.pages.putIfAbsent(pid, page);
+            if (cached == null) {
+                shard.evictionPolicy.pageAdded(pid);
+            } else {
+                // a modified copy was cached while we read: it wins
+                residentPages.decrementAndGet();
+                shard.evictionPolicy.pageAccessed(pid);
+                page = cached;
+            }
+        }
+        reading.complete(page);
         return page;
     }
 
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** Claim room for one more resident page, if the pool is not full. */
+    private boolean reservePage() {
+        while (true) {
+            int resident = residentPages.get();
+            if (resident >= numPages)
+                return false;
+            if (residentPages.compareAndSet(resident, resident + 1))
+                return true;
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -94,6 +333,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -104,13 +344,14 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -124,6 +365,27 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        try {
+            if (commit) {
+                flushPages(tid);
+                for (PageId pid : lockManager.pagesLockedBy(tid)) {
+                    Page page = shardFor(pid).pages.get(pid);
+                    if (page != null)
+                        page.setBeforeImage();
+                }
+            } else {
+                // NO STEAL: the disk still holds the state before tid, so
+                // dropping the pages it dirtied rolls them back
+                for (Shard shard : shards) {
+                    for (Page page : shard.pages.values()) {
+                        if (tid.equals(page.isDirty()))
+                            discardPage(page.getId());
+                    }
+                }
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -145,6 +407,24 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtyPages(tid, file.insertTuple(tid, t));
+    }
+
+    /**
+     * Add a batch of tuples to the specified table on behalf of transaction
+     * tid. The table fills its pages in bulk (see {@link DbFile#insertTuples}),
+     * and each modified page is marked dirty and cached once however many
+     * tuples it received, so it is also logged once when it is flushed.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtyPages(tid, file.insertTuples(tid, tuples));
     }
 
     /**
@@ -165,9 +445,49 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         RecordId rid = t.getRecordId();
-        PageId pid = rid.getPageId();
-        HeapPage page = (HeapPage)Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        page.deleteTuple(t);
+        if (rid == null)
+            throw new DbException("tuple has no record id");
+        DbFile file = Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+        cacheDirtyPages(tid, file.deleteTuple(tid, t));
+    }
+
+    /** Mark pages modified by tid dirty and make them the cached versions. */
+    private void cacheDirtyPages(TransactionId tid, Iterable<Page> pages) throws DbException {
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            cachePage(page);
+        }
+    }
+
+    /**
+     * Make a page that was just modified the cached version of that page,
+     * replacing any other copy. Files normally modify pages they got from
+     * getPage, which are already cached.
+     */
+    private void cachePage(Page page) throws DbException {
+        PageId pid = page.getId();
+        int index = shardIndex(pid);
+        Shard shard = shards[index];
+        if (shard.pages.get(pid) == page)
+            return;
+        boolean reserved = false;
+        if (!shard.pages.containsKey(pid)) {
+            while (!reservePage())
+                evictPage(index);
+            reserved = true;
+        }
+        synchronized (shard) {
+            Page old = shard.pages.put(pid, page);
+            if (old == null) {
+                if (!reserved)
+                    residentPages.incrementAndGet();
+                shard.evictionPolicy.pageAdded(pid);
+            } else {
+                if (reserved)
+                    residentPages.decrementAndGet();
+                shard.evictionPolicy.pageAccessed(pid);
+            }
+        }
     }
 
     /**
@@ -175,10 +495,13 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        for (Shard shard : shards) {
+            for (PageId pid : shard.pages.keySet())
+                flushPage(pid);
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -189,34 +512,88 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        Shard shard = shardFor(pid);
+        synchronized (shard) {
+            discardPage(shard, pid);
+        }
+    }
+
+    /** Drop a page from a shard whose latch the caller holds. */
+    private void discardPage(Shard shard, PageId pid) {
+        if (shard.pages.remove(pid) != null) {
+            shard.evictionPolicy.pageRemoved(pid);
+            residentPages.decrementAndGet();
+        }
     }
 
     /**
      * Flushes a certain page to disk
+     * <p>
+     * No shard latch is held while the page is logged and written: a dirty
+     * page cannot be evicted, so it stays resident until markDirty(false),
+     * and the latch order stays LogFile before shard, as in LogFile's
+     * checkpoint and recovery paths.
+     *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        Page page = shardFor(pid).pages.get(pid);
+        if (page == null)
+            return;
+        TransactionId dirtier = page.isDirty();
+        if (dirtier != null) {
+            Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+            Database.getLogFile().force();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            page.markDirty(false, null);
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        for (Shard shard : shards) {
+            for (Page page : shard.pages.values()) {
+                if (tid.equals(page.isDirty()))
+                    flushPage(page.getId());
+            }
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is chosen by the eviction policy of the shard that needs
+     * room; if every page there is dirty the other shards are tried in turn.
+     * Dirty pages are never evicted (NO STEAL), so the victim is always clean
+     * and nothing needs to be written back.
+     *
+     * @param first the index of the shard that needs room
+     * @throws DbException if every page in the buffer pool is dirty
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage(int first) throws DbException {
         // some code goes here
         // not necessary for lab1
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[(first + i) % shards.length];
+            synchronized (shard) {
+                PageId victim = shard.evictionPolicy.chooseVictim(pid -> {
+                    Page page = shard.pages.get(pid);
+                    return page != null && page.isDirty() == null;
+                });
+                if (victim != null) {
+                    discardPage(shard, victim);
+                    return;
+                }
+            }
+        }
+        throw new DbException("cannot evict a page: all pages in the buffer pool are dirty");
     }
 
 }
@@ -66,6 +66,24 @@ public class Catalog {
         tableHashMap.put(file.getId(), newTable);
     }
 
+    /**
+     * Add a new table to the catalog, choosing how its pages are read.
+     * @param file the contents of the table to add
+     * @param name the name of the table, as for {@link #addTable(DbFile, String, String)}
+     * @param pkeyField the name of the primary key field
+     * @param memoryMapped if true, read the table's pages through a memory
+     *    mapping of its file; only heap files support this
+     * @throws IllegalArgumentException if memoryMapped is set for a file
+     *    that is not a HeapFile
+     */
+    public void addTable(DbFile file, String name, String pkeyField, boolean memoryMapped) {
+        if (file instanceof HeapFile)
+            ((HeapFile) file).setMemoryMapped(memoryMapped);
+        else if (memoryMapped)
+            throw new IllegalArgumentException("only heap files can be memory mapped");
+        addTable(file, name, pkeyField);
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -170,6 +188,8 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form <code>name (field type [pk], ...) [mmap]</code>;
+     * the optional <code>mmap</code> option reads the table through a memory mapping.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -207,11 +227,19 @@ public class Catalog {
                         }
                     }
                 }
+                boolean memoryMapped = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.equals("mmap"))
+                    memoryMapped = true;
+                else if (!options.isEmpty()) {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                addTable(tabHf,name,primaryKey,memoryMapped);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ClockEvictionPolicy implements the CLOCK (second chance) approximation of
+ * LRU. Resident pages sit in a circular array of frames, each with a
+ * reference bit that is set on every access. To find a victim the clock hand
+ * sweeps the frames, clearing set reference bits, and stops at the first
+ * evictable page whose bit is already clear.
+ *
+ * @see EvictionPolicy
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private final HashMap<PageId, Integer> frameOf;
+    private final ArrayDeque<Integer> freeFrames;
+    private int hand;
+
+    /**
+     * Creates a CLOCK policy for a buffer pool of the given size.
+     *
+     * @param numPages the expected number of resident pages
+     */
+    public ClockEvictionPolicy(int numPages) {
+        int capacity = Math.max(1, numPages);
+        this.frames = new PageId[capacity];
+        this.referenced = new boolean[capacity];
+        this.frameOf = new HashMap<>();
+        this.freeFrames = new ArrayDeque<>();
+        for (int i = 0; i < capacity; i++)
+            freeFrames.add(i);
+        this.hand = 0;
+    }
+
+    public void pageAdded(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame == null) {
+            if (freeFrames.isEmpty())
+                grow();
+            frame = freeFrames.poll();
+            frames[frame] = pid;
+            frameOf.put(pid, frame);
+        }
+        referenced[frame] = true;
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null)
+            referenced[frame] = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame == null)
+            return;
+        frames[frame] = null;
+        referenced[frame] = false;
+        freeFrames.add(frame);
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        // two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[frame];
+            if (pid == null)
+                continue;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            if (evictable.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    /**
+     * The buffer pool may briefly hold more pages than it was sized for
+     * (e.g. pages handed back by DbFile.insertTuple), so the frame array
+     * grows instead of failing.
+     */
+    private void grow() {
+        int oldLength = frames.length;
+        frames = Arrays.copyOf(frames, oldLength * 2);
+        referenced = Arrays.copyOf(referenced, oldLength * 2);
+        for (int i = oldLength; i < frames.length; i++)
+            freeFrames.add(i);
+    }
+}
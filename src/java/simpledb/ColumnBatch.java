@@ -0,0 +1,236 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * ColumnBatch holds a batch of rows column by column: an int[] for every
+ * INT_TYPE field and a String[] for every STRING_TYPE field. Rows 0 to
+ * size()-1 are stored; a selection vector may narrow them down to the rows
+ * that are still live (e.g. after a filter), without moving any data.
+ * Operators iterate over the live rows with
+ * <pre>
+ *     for (int i = 0; i &lt; batch.numRows(); i++) {
+ *         int row = batch.row(i);
+ *         ...
+ *     }
+ * </pre>
+ *
+ * @see BatchOpIterator
+ */
+public class ColumnBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of rows in a batch unless asked otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private Object[] columns;
+    private int capacity;
+    private int size;
+    private int[] selection;
+    private boolean selected;
+    private int numSelected;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the rows
+     * @param capacity the number of rows the batch can hold
+     */
+    public ColumnBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.columns = new Object[td.numFields()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = newColumn(td.getFieldType(i), capacity);
+    }
+
+    public ColumnBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    private ColumnBatch(TupleDesc td, Object[] columns, int capacity) {
+        this.td = td;
+        this.columns = columns;
+        this.capacity = capacity;
+    }
+
+    private static Object newColumn(Type type, int capacity) {
+        return type == Type.INT_TYPE ? new int[capacity] : new String[capacity];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows the batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of stored rows, live or not */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Set the number of stored rows after writing them into the columns
+     * directly. All of them are live.
+     */
+    public void setSize(int size) {
+        this.size = size;
+        this.selected = false;
+    }
+
+    /** Remove all rows. */
+    public void clear() {
+        setSize(0);
+    }
+
+    /** @return the values of an INT_TYPE column */
+    public int[] ints(int col) {
+        return (int[]) columns[col];
+    }
+
+    /** @return the values of a STRING_TYPE column */
+    public String[] strings(int col) {
+        return (String[]) columns[col];
+    }
+
+    /** @return the number of live rows */
+    public int numRows() {
+        return selected ? numSelected : size;
+    }
+
+    /** @return the index in the columns of the i-th live row */
+    public int row(int i) {
+        return selected ? selection[i] : i;
+    }
+
+    /**
+     * @return the array backing the selection vector. A filter may compact
+     *         the live rows into it in place, since the i-th live row is
+     *         never written before it is read, and then call
+     *         {@link #select}.
+     */
+    public int[] selectionVector() {
+        if (selection == null)
+            selection = new int[capacity];
+        return selection;
+    }
+
+    /**
+     * Make the first n entries of the selection vector the live rows.
+     */
+    public void select(int n) {
+        selectionVector();
+        this.selected = true;
+        this.numSelected = n;
+    }
+
+    /**
+     * Grow the batch so it can hold at least n rows, keeping its contents.
+     * Used by operators that accumulate rows, such as a hash join's build
+     * side.
+     */
+    public void ensureCapacity(int n) {
+        if (n <= capacity)
+            return;
+        int newCapacity = Math.max(n, capacity * 2);
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] instanceof int[])
+                columns[i] = Arrays.copyOf((int[]) columns[i], newCapacity);
+            else
+                columns[i] = Arrays.copyOf((String[]) columns[i], newCapacity);
+        }
+        if (selection != null)
+            selection = Arrays.copyOf(selection, newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Append a row. The batch must not be full and have no selection.
+     *
+     * @param t a tuple with the schema of this batch
+     */
+    public void appendTuple(Tuple t) {
+        int row = size;
+        for (int i = 0; i < columns.length; i++) {
+            Field f = t.getField(i);
+            if (columns[i] instanceof int[])
+                ((int[]) columns[i])[row] = ((IntField) f).getValue();
+            else
+                ((String[]) columns[i])[row] = ((StringField) f).getValue();
+        }
+        size = row + 1;
+    }
+
+    /**
+     * Append one row of another batch with the same column types.
+     *
+     * @param from the batch to copy from
+     * @param row the index of the row in from's columns
+     */
+    public void appendRow(ColumnBatch from, int row) {
+        int to = size;
+        copyRow(from, row, 0, to);
+        size = to + 1;
+    }
+
+    /**
+     * Copy the columns of a row of another batch into this batch.
+     *
+     * @param from the batch to copy from
+     * @param fromRow the index of the row in from's columns
+     * @param firstCol the column of this batch that receives from's column 0
+     * @param toRow the index of the row in this batch's columns
+     */
+    public void copyRow(ColumnBatch from, int fromRow, int firstCol, int toRow) {
+        for (int i = 0; i < from.columns.length; i++) {
+            Object src = from.columns[i];
+            Object dst = columns[firstCol + i];
+            if (src instanceof int[])
+                ((int[]) dst)[toRow] = ((int[]) src)[fromRow];
+            else
+                ((String[]) dst)[toRow] = ((String[]) src)[fromRow];
+        }
+    }
+
+    /** @return the value of a stored row as a Field */
+    public Field getField(int row, int col) {
+        if (columns[col] instanceof int[])
+            return new IntField(((int[]) columns[col])[row]);
+        return new StringField(((String[]) columns[col])[row], Type.STRING_LEN);
+    }
+
+    /** @return a stored row as a Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++)
+            t.setField(i, getField(row, i));
+        return t;
+    }
+
+    /**
+     * @return a batch that shares this batch's storage and selection but only
+     *         has the given columns, in the given order
+     */
+    public ColumnBatch project(TupleDesc outTd, int[] fieldIds) {
+        Object[] cols = new Object[fieldIds.length];
+        for (int i = 0; i < fieldIds.length; i++)
+            cols[i] = columns[fieldIds[i]];
+        ColumnBatch view = new ColumnBatch(outTd, cols, capacity);
+        view.size = size;
+        view.selection = selection;
+        view.selected = selected;
+        view.numSelected = numSelected;
+        return view;
+    }
+}
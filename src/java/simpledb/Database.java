@@ -55,11 +55,23 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that uses the given eviction policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy evictionPolicy) {
+        return resetBufferPool(new BufferPool(pages, evictionPolicy));
+    }
+
+    private static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -43,6 +43,35 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts a batch of tuples to the file on behalf of a transaction.
+     * Implementations should fill pages in bulk, so that each page is
+     * located, locked and returned once however many tuples it receives;
+     * the default inserts the tuples one at a time. A page must be marked
+     * dirty by tid as soon as it is changed, not once the batch is done, so
+     * that if the batch fails partway the abort of tid still rolls it back.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add. Each tuple is updated to reflect that
+     *          it is now stored in this file.
+     * @return An ArrayList containing the pages that were modified, each once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public default ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> modified = new LinkedHashMap<PageId, Page>();
+        while (tuples.hasNext()) {
+            for (Page p : insertTuple(tid, tuples.next())) {
+                // dirty right away, so that an abort later in the batch
+                // still rolls this page back
+                p.markDirty(true, tid);
+                modified.put(p.getId(), p);
+            }
+        }
+        return new ArrayList<Page>(modified.values());
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -0,0 +1,60 @@
+package simpledb;
+
+/**
+ * EvictionPolicy is the page-replacement strategy consulted by the
+ * BufferPool when it has to make room for a page that is not resident.
+ * <p>
+ * The BufferPool tells the policy about every page that becomes resident,
+ * every hit on a resident page and every page that leaves the pool; the
+ * policy only keeps its own bookkeeping and never touches pages itself.
+ * Callers are responsible for synchronization: a policy instance is only
+ * ever used while the BufferPool holds the latch that protects it.
+ *
+ * @see BufferPool
+ * @see ClockEvictionPolicy
+ * @see LRUKEvictionPolicy
+ * @see TwoQEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Callback used by {@link #chooseVictim} to ask whether a candidate page
+     * may leave the buffer pool. The BufferPool answers false for dirty pages
+     * (NO STEAL) and for any other page it wants to keep pinned.
+     */
+    public interface Evictable {
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Record that the page was read into the buffer pool.
+     *
+     * @param pid the id of the page that just became resident
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Record a hit on a page that was already resident.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Record that the page is no longer resident, either because it was
+     * evicted or because the BufferPool discarded it.
+     *
+     * @param pid the id of the page that left the buffer pool
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next. The page is not removed from
+     * the policy's bookkeeping; the BufferPool calls {@link #pageRemoved}
+     * once it has actually dropped the page.
+     *
+     * @param evictable tells the policy which resident pages may be evicted
+     * @return the id of the victim, or null if no resident page may be evicted
+     */
+    public PageId chooseVictim(Evictable evictable);
+}
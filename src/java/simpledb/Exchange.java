@@ -0,0 +1,298 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exchange operators move tuples between threads, so that parts of a plan
+ * can run in parallel. Every input of an exchange is drained by a producer
+ * task on the shared {@link #WORKERS} pool, which sends the tuples in
+ * batches through {@link BatchQueue}s to one or more outputs; each output
+ * is an Exchange operator, read by whichever thread consumes it.
+ * <p>
+ * The producers start when the first output is opened, and are stopped
+ * once every output has been closed. An output that is closed early stops
+ * receiving tuples without holding up the others. A failure in a producer
+ * is rethrown by every output that reads to the end.
+ *
+ * @see Gather
+ * @see Repartition
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The threads that the producers of every exchange run on. */
+    public static final ForkJoinPool WORKERS = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors());
+
+    /** Number of tuples sent to an output at a time. */
+    public static final int BATCH_SIZE = 256;
+
+    /** Batches per input that may wait in the queue of an output. */
+    private static final int QUEUED_BATCHES = 4;
+
+    /** Marks the end of the tuples of one producer. */
+    private static final List<Tuple> DONE = Collections.emptyList();
+
+    /** How the producers spread the tuples of their inputs over the outputs. */
+    enum Routing {
+        /** every tuple to the single output */
+        GATHER,
+        /** every tuple to the output chosen by the hash of a field */
+        HASH,
+        /** every tuple to every output */
+        BROADCAST
+    }
+
+    /**
+     * The producers of an exchange: one task per input, sending to the
+     * queue of every output. Shared by the outputs of the exchange.
+     */
+    static final class Producers {
+        private OpIterator[] inputs;
+        private final Routing routing;
+        private final int field;
+        private final int numOutputs;
+
+        private BatchQueue[] queues;
+        private AtomicIntegerArray closed;
+        private int numClosed;
+        private volatile boolean cancelled;
+        private AtomicReference<Throwable> error;
+        private CountDownLatch finished;
+
+        Producers(OpIterator[] inputs, Routing routing, int field, int numOutputs) {
+            if (inputs.length == 0 || numOutputs <= 0)
+                throw new IllegalArgumentException("need at least one input and output");
+            for (OpIterator in : inputs)
+                if (!in.getTupleDesc().equals(inputs[0].getTupleDesc()))
+                    throw new IllegalArgumentException("inputs differ in schema");
+            this.inputs = inputs.clone();
+            this.routing = routing;
+            this.field = field;
+            this.numOutputs = numOutputs;
+        }
+
+        int numInputs() {
+            return inputs.length;
+        }
+
+        int numOutputs() {
+            return numOutputs;
+        }
+
+        OpIterator[] inputs() {
+            return inputs.clone();
+        }
+
+        synchronized void setInputs(OpIterator[] inputs) {
+            if (finished != null)
+                throw new IllegalStateException("cannot change the inputs of a running exchange");
+            this.inputs = inputs.clone();
+        }
+
+        /**
+         * Open an output, starting the producers if none are running.
+         *
+         * @return the queue the output reads
+         */
+        synchronized BatchQueue open(int output) {
+            if (finished == null) {
+                queues = new BatchQueue[numOutputs];
+                for (int i = 0; i < numOutputs; i++)
+                    queues[i] = new BatchQueue(QUEUED_BATCHES * inputs.length);
+                closed = new AtomicIntegerArray(numOutputs);
+                numClosed = 0;
+                cancelled = false;
+                error = new AtomicReference<Throwable>();
+                finished = new CountDownLatch(inputs.length);
+                for (final OpIterator in : inputs)
+                    WORKERS.execute(() -> produce(in));
+            }
+            return queues[output];
+        }
+
+        /**
+         * Close an output. Once all are closed, stop the producers and wait
+         * for them, so none touches a page after this returns.
+         */
+        synchronized void close(int output) {
+            if (finished == null || closed.getAndSet(output, 1) == 1)
+                return;
+            if (++numClosed < numOutputs)
+                return;
+            cancelled = true;
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            finished = null;
+            queues = null;
+        }
+
+        /** Rethrow the first failure of a producer. */
+        void checkError() throws DbException, TransactionAbortedException {
+            Throwable e = error.get();
+            if (e == null)
+                return;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e instanceof Error)
+                throw (Error) e;
+            throw new RuntimeException(e);
+        }
+
+        /** @return the output of a tuple whose field has the given hash code */
+        static int route(int hashCode, int numOutputs) {
+            // mixed with other constants than HashEquiJoin.partition, so a
+            // join of one output still spreads its keys over its partitions
+            int h = hashCode * 0x61C88647;
+            h ^= h >>> 15;
+            h *= 0x2C1B3C6D;
+            h ^= h >>> 12;
+            return (h & 0x7fffffff) % numOutputs;
+        }
+
+        private void send(final int output, List<Tuple> batch) {
+            queues[output].put(batch, () -> closed.get(output) == 1);
+        }
+
+        /** Drain an input, sending its tuples on in batches. */
+        private void produce(OpIterator in) {
+            @SuppressWarnings("unchecked")
+            List<Tuple>[] out = new List[routing == Routing.HASH ? numOutputs : 1];
+            for (int i = 0; i < out.length; i++)
+                out[i] = new ArrayList<Tuple>(BATCH_SIZE);
+            try {
+                in.open();
+                while (!cancelled && in.hasNext()) {
+                    Tuple t = in.next();
+                    int o = routing == Routing.HASH
+                            ? route(t.getField(field).hashCode(), numOutputs) : 0;
+                    out[o].add(t);
+                    if (out[o].size() == BATCH_SIZE) {
+                        flush(o, out[o]);
+                        out[o] = new ArrayList<Tuple>(BATCH_SIZE);
+                    }
+                }
+                for (int o = 0; o < out.length && !cancelled; o++)
+                    if (!out[o].isEmpty())
+                        flush(o, out[o]);
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            } finally {
+                in.close();
+                for (int o = 0; o < numOutputs; o++)
+                    send(o, DONE);
+                finished.countDown();
+            }
+        }
+
+        private void flush(int o, List<Tuple> batch) {
+            if (routing == Routing.BROADCAST) {
+                // the outputs only read the tuples, so they can share the batch
+                for (int i = 0; i < numOutputs; i++)
+                    send(i, batch);
+            } else {
+                send(o, batch);
+            }
+        }
+    }
+
+    private final Producers producers;
+    private final int output;
+
+    private transient BatchQueue queue;
+    /** Producers that have not sent DONE yet. */
+    private transient int running;
+    private transient List<Tuple> batch;
+    private transient int pos;
+
+    /**
+     * @param producers the producers of this exchange
+     * @param output which of their outputs this operator is
+     */
+    Exchange(Producers producers, int output) {
+        this.producers = producers;
+        this.output = output;
+    }
+
+    /** @return a short description of this exchange, to explain plans */
+    public abstract String getName();
+
+    public TupleDesc getTupleDesc() {
+        return producers.inputs[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        queue = producers.open(output);
+        running = producers.numInputs();
+        batch = DONE;
+        pos = 0;
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (pos == batch.size()) {
+            if (running == 0)
+                return null;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            }
+            pos = 0;
+            if (batch == DONE) {
+                running--;
+                producers.checkError();
+            }
+        }
+        return batch.get(pos++);
+    }
+
+    public void close() {
+        super.close();
+        if (queue != null)
+            producers.close(output);
+        queue = null;
+        batch = DONE;
+    }
+
+    /**
+     * Runs the producers again. Only an exchange with a single output can
+     * be rewound, since the producers feed all outputs at once.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (producers.numOutputs() > 1)
+            throw new DbException("cannot rewind one output of " + getName());
+        close();
+        open();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return producers.inputs();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        producers.setInputs(children);
+    }
+}
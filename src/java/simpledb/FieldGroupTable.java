@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * GroupTable for group-by fields of any type and number, used for
+ * STRING_TYPE and for several fields: a HashMap from the group-by Field
+ * itself, or the list of the group-by Fields, to its group.
+ */
+public class FieldGroupTable implements GroupTable {
+
+    /** Estimated heap bytes of a HashMap entry with its boxed value. */
+    private static final int ENTRY_OVERHEAD = 48;
+    /** Estimated heap bytes of a Field object beyond its data. */
+    private static final int FIELD_OVERHEAD = 40;
+
+    private final int[] gbfields;
+    private final HashMap<Object, Integer> groups = new HashMap<Object, Integer>();
+    /** The group-by values of every group, gbfields.length per group. */
+    private final ArrayList<Field> keys = new ArrayList<Field>();
+    private long keyBytes;
+
+    /**
+     * @param gbfield the group-by field
+     */
+    public FieldGroupTable(int gbfield) {
+        this(new int[] { gbfield });
+    }
+
+    /**
+     * @param gbfields the group-by fields
+     */
+    public FieldGroupTable(int[] gbfields) {
+        this.gbfields = gbfields.clone();
+    }
+
+    /** @return the key of the tuple's group in the HashMap */
+    private Object key(Tuple t) {
+        if (gbfields.length == 1)
+            return t.getField(gbfields[0]);
+        Field[] key = new Field[gbfields.length];
+        for (int i = 0; i < key.length; i++)
+            key[i] = t.getField(gbfields[i]);
+        return Arrays.asList(key);
+    }
+
+    public int groupOf(Tuple t) {
+        Object key = key(t);
+        Integer group = groups.get(key);
+        if (group != null)
+            return group;
+        int n = size();
+        groups.put(key, n);
+        for (int f : gbfields) {
+            Field value = t.getField(f);
+            keys.add(value);
+            keyBytes += value.getType().getLen() + FIELD_OVERHEAD;
+        }
+        return n;
+    }
+
+    public int find(Tuple t) {
+        Integer group = groups.get(key(t));
+        return group == null ? NONE : group;
+    }
+
+    public int size() {
+        return keys.size() / gbfields.length;
+    }
+
+    public Field getKey(int group, int i) {
+        return keys.get(group * gbfields.length + i);
+    }
+
+    public long memoryUsed() {
+        return keyBytes + (long) size() * (ENTRY_OVERHEAD + 8 * gbfields.length);
+    }
+}
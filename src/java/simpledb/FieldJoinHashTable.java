@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * JoinHashTable for join keys of any type, used for STRING_TYPE keys: a
+ * HashMap from the key Field to the last row added with it, the rows
+ * themselves as Tuples, and an int[] linking every row to the previous one
+ * with the same key.
+ */
+public class FieldJoinHashTable implements JoinHashTable {
+
+    /** Estimated heap bytes of a Tuple beyond its field data. */
+    static final int TUPLE_OVERHEAD = 64;
+    /** Estimated heap bytes of a HashMap entry with its boxed value. */
+    private static final int ENTRY_OVERHEAD = 48;
+
+    private final TupleDesc td;
+    private final int keyField;
+    private final ArrayList<Tuple> rows = new ArrayList<Tuple>();
+    private final HashMap<Field, Integer> heads = new HashMap<Field, Integer>();
+    private int[] next = new int[16];
+
+    /**
+     * @param td the schema of the rows
+     * @param keyField the join key
+     */
+    public FieldJoinHashTable(TupleDesc td, int keyField) {
+        this.td = td;
+        this.keyField = keyField;
+    }
+
+    public void add(Tuple t) {
+        int row = rows.size();
+        if (row == next.length)
+            next = Arrays.copyOf(next, row * 2);
+        rows.add(t);
+        Integer head = heads.put(t.getField(keyField), row);
+        next[row] = head == null ? NONE : head;
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public int first(Field key) {
+        Integer head = heads.get(key);
+        return head == null ? NONE : head;
+    }
+
+    public int next(int row) {
+        return next[row];
+    }
+
+    public Field getField(int row, int field) {
+        return rows.get(row).getField(field);
+    }
+
+    public Tuple getTuple(int row) {
+        return rows.get(row);
+    }
+
+    public long memoryUsed() {
+        return (long) rows.size() * (td.getSize() + TUPLE_OVERHEAD)
+                + (long) heads.size() * ENTRY_OVERHEAD + 4L * next.length;
+    }
+}
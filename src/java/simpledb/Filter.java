@@ -40,6 +40,10 @@ public class Filter extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
+        // let a scan test the predicate before it materializes tuples; rows
+        // it returns are still checked in fetchNext
+        if (child instanceof SeqScan)
+            ((SeqScan) child).setPredicate(predicate);
         child.open();
     }
 
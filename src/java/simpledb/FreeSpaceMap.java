@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile have at least one empty
+ * slot, so that inserts find room without visiting every page. It is kept
+ * in a side file next to the table (<code>table.dat.fsm</code>) holding the
+ * length of the table file when the map was last written, followed by one
+ * bit per page.
+ * <p>
+ * The map is a hint that errs on the side of "free": pages it has no entry
+ * for are assumed to have room, and callers check the page itself before
+ * using it, clearing the bit when it turns out to be full. Bits are set
+ * again whenever a page with room is read or written (including by
+ * recovery, which writes pages through {@link HeapFile#writePage}) and
+ * when a tuple is deleted. If the table file was changed behind the map's
+ * back, which shows as a length that does not match, the map is thrown
+ * away and rebuilt as inserts probe the pages.
+ *
+ * @Threadsafe
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    private static final int HEADER_SIZE = 8;
+
+    private final File tableFile;
+    private final PageFileChannel channel;
+    private BitSet free;
+    /** Number of pages the map has an entry for; later pages count as free. */
+    private int coverage;
+    /** Table length recorded in the side file. */
+    private long storedLength;
+    /** No page before this one has its bit set. */
+    private int lowestFree;
+
+    /**
+     * @param tableFile the file of the HeapFile this map describes
+     */
+    public FreeSpaceMap(File tableFile) {
+        this.tableFile = tableFile;
+        this.channel = new PageFileChannel(sideFile(tableFile));
+    }
+
+    /** @return the side file that stores the map of the given table file */
+    public static File sideFile(File tableFile) {
+        return new File(tableFile.getPath() + ".fsm");
+    }
+
+    private void load() throws IOException {
+        if (free != null)
+            return;
+        free = new BitSet();
+        coverage = 0;
+        lowestFree = 0;
+        storedLength = -1;
+        long size = channel.size();
+        if (size < HEADER_SIZE)
+            return;
+        byte[] buf = new byte[(int) size];
+        channel.read(0, buf);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buf));
+        long length = dis.readLong();
+        if (length != tableFile.length()) {
+            // stale: start over
+            channel.truncate(0);
+            return;
+        }
+        storedLength = length;
+        free = BitSet.valueOf(java.util.Arrays.copyOfRange(buf, HEADER_SIZE, buf.length));
+        coverage = (buf.length - HEADER_SIZE) * 8;
+        int first = free.nextSetBit(0);
+        lowestFree = first < 0 ? coverage : first;
+    }
+
+    /**
+     * Find a page that may have an empty slot.
+     *
+     * @param from the first page to consider
+     * @param numPages the number of pages in the table
+     * @return the lowest page number no smaller than from that may have
+     *         room, or -1 if every page up to numPages is known to be full
+     */
+    public synchronized int nextFree(int from, int numPages) throws IOException {
+        load();
+        int start = Math.max(from, lowestFree);
+        int i = free.nextSetBit(start);
+        if (i < 0 || i >= coverage)
+            i = Math.max(start, coverage);
+        if (from <= lowestFree)
+            lowestFree = i;
+        return i < numPages ? i : -1;
+    }
+
+    /**
+     * Record whether a page has an empty slot.
+     *
+     * @param pageNo the page
+     * @param hasFree whether the page has at least one empty slot
+     */
+    public synchronized void update(int pageNo, boolean hasFree) throws IOException {
+        load();
+        long length = tableFile.length();
+        if (pageNo >= coverage) {
+            if (hasFree && length == storedLength)
+                return; // pages past the map already count as free
+            // grow the map one byte at a time; unknown pages count as free
+            int newCoverage = (pageNo / 8 + 1) * 8;
+            free.set(coverage, newCoverage);
+            int first = coverage / 8;
+            coverage = newCoverage;
+            free.set(pageNo, hasFree);
+            write(first, coverage / 8, length);
+        } else if (free.get(pageNo) != hasFree || length != storedLength) {
+            free.set(pageNo, hasFree);
+            write(pageNo / 8, pageNo / 8 + 1, length);
+        }
+        if (hasFree)
+            lowestFree = Math.min(lowestFree, pageNo);
+    }
+
+    /**
+     * Record that a page that was just read has an empty slot. Cheaper than
+     * {@link #update}: nothing is written unless the map had the page as full.
+     */
+    public synchronized void pageHasRoom(int pageNo) throws IOException {
+        load();
+        if (pageNo < coverage && !free.get(pageNo))
+            update(pageNo, true);
+    }
+
+    /** Persist bytes [from, to) of the bitmap and the table length. */
+    private void write(int from, int to, long length) throws IOException {
+        // same bit order as BitSet.valueOf(byte[]) in load()
+        byte[] out = new byte[to - from];
+        for (int i = from * 8; i < to * 8; i++) {
+            if (free.get(i))
+                out[i / 8 - from] |= 1 << (i % 8);
+        }
+        channel.write(HEADER_SIZE + from, out);
+        if (length != storedLength) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(HEADER_SIZE);
+            new DataOutputStream(baos).writeLong(length);
+            channel.write(0, baos.toByteArray());
+            storedLength = length;
+        }
+    }
+}
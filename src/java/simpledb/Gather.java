@@ -0,0 +1,23 @@
+package simpledb;
+
+/**
+ * Gather is an exchange that runs each of its inputs on its own worker
+ * thread and returns all their tuples, in no particular order. It is how the
+ * results of parallel parts of a plan come back together on one thread.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param inputs the operators to run in parallel; all must have the
+     *            same TupleDesc
+     */
+    public Gather(OpIterator... inputs) {
+        super(new Producers(inputs, Routing.GATHER, -1, 1), 0);
+    }
+
+    public String getName() {
+        return "gather(" + getChildren().length + ")";
+    }
+}
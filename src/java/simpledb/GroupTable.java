@@ -0,0 +1,60 @@
+package simpledb;
+
+/**
+ * The hash table an {@link Aggregator} keeps its groups in: it maps each
+ * distinct value of the group-by fields to a group number. Groups are
+ * numbered 0, 1, 2, ... in the order they were first seen, so an
+ * aggregator can keep its accumulators in arrays indexed by group.
+ */
+public interface GroupTable {
+    static final int NONE = -1;
+
+    /**
+     * Create the table that suits the type of the group-by field: an
+     * {@link IntGroupTable} for INT_TYPE, a {@link FieldGroupTable}
+     * otherwise.
+     *
+     * @param gbfieldtype the type of the group-by field
+     * @param gbfield the group-by field
+     */
+    public static GroupTable create(Type gbfieldtype, int gbfield) {
+        return create(new Type[] { gbfieldtype }, new int[] { gbfield });
+    }
+
+    /**
+     * Create the table that suits the group-by fields: an
+     * {@link IntGroupTable} for a single INT_TYPE field, a
+     * {@link FieldGroupTable} otherwise.
+     *
+     * @param gbfieldtypes the types of the group-by fields
+     * @param gbfields the group-by fields
+     */
+    public static GroupTable create(Type[] gbfieldtypes, int[] gbfields) {
+        if (gbfields.length == 1 && gbfieldtypes[0] == Type.INT_TYPE)
+            return new IntGroupTable(gbfields[0]);
+        return new FieldGroupTable(gbfields);
+    }
+
+    /**
+     * @return the group of the tuple's group-by value, a new group if the
+     *         value has not been seen before
+     */
+    public int groupOf(Tuple t);
+
+    /** @return the group of the tuple's group-by value, or NONE if it is new */
+    public int find(Tuple t);
+
+    /** @return the number of groups */
+    public int size();
+
+    /** @return the value of the i-th group-by field of a group */
+    public Field getKey(int group, int i);
+
+    /** @return the value of the first group-by field of a group */
+    public default Field getKey(int group) {
+        return getKey(group, 0);
+    }
+
+    /** @return an estimate of the bytes of heap the table takes */
+    public long memoryUsed();
+}
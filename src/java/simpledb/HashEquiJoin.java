@@ -4,6 +4,18 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. The tuples of child1 (the build side)
+ * are loaded into a {@link JoinHashTable} keyed by the join field (int
+ * arrays with no per-row objects for INT_TYPE keys), and the tuples of
+ * child2 probe it. If the build side is larger than the memory budget,
+ * both inputs are split into {@link #FANOUT} partitions by hash of the join
+ * key: as many partitions as fit in the budget stay in memory and are
+ * joined as child2 streams by, the others are written to
+ * {@link TupleSpillFile}s and joined afterwards, one pair at a time, by the
+ * same algorithm with a different hash function. A partition that is still
+ * too large after {@link #MAX_DEPTH} levels (its key is skewed) is joined
+ * in budget-sized chunks, scanning its probe side once per chunk.
  */
 public class HashEquiJoin extends Operator {
 
@@ -11,9 +23,17 @@ public class HashEquiJoin extends Operator {
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
-    transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    /** Bytes of build tuples kept in memory unless set otherwise. */
+    public static final long DEFAULT_MEMORY_BUDGET = 8L << 20;
+    /** Number of partitions an input is split into when it does not fit. */
+    public static final int FANOUT = 16;
+    /** Levels of partitioning before a partition is joined in chunks. */
+    public static final int MAX_DEPTH = 4;
+
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -32,6 +52,31 @@ public class HashEquiJoin extends Operator {
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
+    /**
+     * Build a join that runs as n independent HashEquiJoins, one per hash
+     * partition of the join key, in parallel. Both children are
+     * repartitioned on their join field by {@link Repartition#hash}, so
+     * matching tuples meet in the same partition, and the results are
+     * gathered by a {@link Gather}.
+     *
+     * @param p the join predicate, which must be an equality
+     * @param child1 the build side
+     * @param child2 the probe side
+     * @param n the number of partitions joined in parallel
+     * @return the Gather returning the tuples of the join
+     */
+    public static Gather partitioned(JoinPredicate p, OpIterator child1, OpIterator child2,
+            int n) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("only equality joins can be partitioned");
+        Repartition[] build = Repartition.hash(new OpIterator[] { child1 }, p.getField1(), n);
+        Repartition[] probe = Repartition.hash(new OpIterator[] { child2 }, p.getField2(), n);
+        OpIterator[] joins = new OpIterator[n];
+        for (int i = 0; i < n; i++)
+            joins[i] = new HashEquiJoin(p, build[i], probe[i]);
+        return new Gather(joins);
+    }
+
     public JoinPredicate getJoinPredicate() {
         return pred;
     }
@@ -49,52 +94,304 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
-
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+
+    /**
+     * Set the number of bytes of build tuples to hold in memory. Takes effect
+     * on the next open or rewind.
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * A pair of inputs to join: the children, or the two halves of a
+     * partition spilled by an earlier pass.
+     */
+    private static class Pass {
+        final DbFileIterator build, probe;
+        final TupleSpillFile buildFile, probeFile;
+        final int level;
+
+        Pass(DbFileIterator build, DbFileIterator probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.buildFile = null;
+            this.probeFile = null;
+            this.level = level;
+        }
+
+        Pass(TupleSpillFile buildFile, TupleSpillFile probeFile, int level) {
+            this.build = buildFile.iterator();
+            this.probe = probeFile.iterator();
+            this.buildFile = buildFile;
+            this.probeFile = probeFile;
+            this.level = level;
+        }
+
+        void close() {
+            build.close();
+            probe.close();
+            if (buildFile != null) {
+                buildFile.delete();
+                probeFile.delete();
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
         }
-        return cnt > 0;
+    }
 
+    /** Lets a pass read a child without opening or closing it. */
+    private static DbFileIterator asFileIterator(final OpIterator child) {
+        return new DbFileIterator() {
+            public void open() {
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                return child.hasNext();
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException {
+                return child.next();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                child.rewind();
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Hash tables over the resident build tuples of the current pass, one
+     * per partition (a spilled partition has none), or a single one when
+     * the build side was not partitioned.
+     */
+    transient private JoinHashTable[] tables;
+    /** Passes still to run; the current pass, and its spilled partitions. */
+    transient private ArrayDeque<Pass> passes;
+    transient private Pass pass;
+    transient private TupleSpillFile[] buildSpills, probeSpills;
+    /** The current pass joins the build side a chunk at a time. */
+    transient private boolean chunked;
+    /** The tables hold all of child1, so a rewind only needs to rewind child2. */
+    transient private boolean tablesHoldChild1;
+
+    private JoinHashTable newTable() {
+        return JoinHashTable.create(child1.getTupleDesc(), pred.getField1());
+    }
+
+    /** @return the partition of a join key at the given level */
+    static int partition(Field key, int level) {
+        return partition(key.hashCode(), level);
+    }
+
+    /** @return the partition of a key with the given hash code at the given level */
+    static int partition(int hashCode, int level) {
+        // a different seed per level, so a partition splits again
+        int h = hashCode ^ (level * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % FANOUT;
+    }
+
+    /**
+     * Start a pass: read its build side into a hash table, partitioning and
+     * spilling if it does not fit.
+     */
+    private void startPass(Pass p) throws DbException, TransactionAbortedException {
+        pass = p;
+        tables = null;
+        buildSpills = null;
+        probeSpills = null;
+        chunked = false;
+        tablesHoldChild1 = false;
+        p.build.open();
+        p.probe.open();
+        if (p.level >= MAX_DEPTH) {
+            chunked = true;
+            loadChunk();
+            return;
+        }
+
+        JoinHashTable table = newTable();
+        while (p.build.hasNext()) {
+            table.add(p.build.next());
+            if (table.memoryUsed() > memoryBudget) {
+                partitionBuild(table);
+                return;
+            }
+        }
+        tables = new JoinHashTable[] { table };
+        tablesHoldChild1 = p.level == 0;
+    }
+
+    /**
+     * The build side of the current pass does not fit: split what was read
+     * so far and the rest of it into partitions, spilling the largest
+     * resident partition whenever the budget is exceeded.
+     */
+    private void partitionBuild(JoinHashTable read) throws DbException,
+            TransactionAbortedException {
+        int level = pass.level;
+        int field = pred.getField1();
+        tables = new JoinHashTable[FANOUT];
+        for (int i = 0; i < FANOUT; i++)
+            tables[i] = newTable();
+        // as in loadChunk, charge each partition only for its rows
+        long empty = tables[0].memoryUsed();
+        long[] partBytes = new long[FANOUT];
+        buildSpills = new TupleSpillFile[FANOUT];
+        probeSpills = new TupleSpillFile[FANOUT];
+        long used = 0;
+        int next = 0;
+        while (true) {
+            Tuple t;
+            if (read != null && next < read.size()) {
+                t = read.getTuple(next++);
+                if (next == read.size())
+                    read = null; // let the unpartitioned table go
+            } else if (pass.build.hasNext()) {
+                t = pass.build.next();
+            } else {
+                break;
+            }
+            int p = partition(t.getField(field), level);
+            if (buildSpills[p] != null) {
+                buildSpills[p].add(t);
+                continue;
+            }
+            tables[p].add(t);
+            long bytes = tables[p].memoryUsed() - empty;
+            used += bytes - partBytes[p];
+            partBytes[p] = bytes;
+            while (used > memoryBudget) {
+                int victim = 0;
+                for (int i = 1; i < FANOUT; i++)
+                    if (partBytes[i] > partBytes[victim])
+                        victim = i;
+                buildSpills[victim] = new TupleSpillFile(child1.getTupleDesc());
+                probeSpills[victim] = new TupleSpillFile(child2.getTupleDesc());
+                for (int row = 0; row < tables[victim].size(); row++)
+                    buildSpills[victim].add(tables[victim].getTuple(row));
+                tables[victim] = null;
+                used -= partBytes[victim];
+                partBytes[victim] = 0;
+            }
+        }
+    }
+
+    /**
+     * Load the next budget-sized chunk of a build side that could not be
+     * partitioned any further.
+     */
+    private void loadChunk() throws DbException, TransactionAbortedException {
+        JoinHashTable table = newTable();
+        // charge the rows only, and take at least one so the pass moves on
+        long empty = table.memoryUsed();
+        do {
+            table.add(pass.build.next());
+        } while (table.memoryUsed() - empty < memoryBudget && pass.build.hasNext());
+        tables = new JoinHashTable[] { table };
+    }
+
+    /**
+     * The probe side of the current pass is exhausted: queue the spilled
+     * partitions that can produce matches and release the pass.
+     */
+    private void finishPass() {
+        if (buildSpills != null) {
+            for (int i = 0; i < FANOUT; i++) {
+                if (buildSpills[i] == null)
+                    continue;
+                if (buildSpills[i].numTuples() > 0 && probeSpills[i].numTuples() > 0) {
+                    passes.push(new Pass(buildSpills[i], probeSpills[i], pass.level + 1));
+                } else {
+                    buildSpills[i].delete();
+                    probeSpills[i].delete();
+                }
+            }
+        }
+        buildSpills = null;
+        probeSpills = null;
+        pass.close();
+        pass = null;
+        if (!tablesHoldChild1)
+            tables = null;
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        passes = new ArrayDeque<Pass>();
+        match = JoinHashTable.NONE;
+        startPass(new Pass(asFileIterator(child1), asFileIterator(child2), 0));
+    }
+
+    /** Release every pass and delete the spill files. */
+    private void discardPasses() {
+        if (pass != null) {
+            if (buildSpills != null) {
+                for (int i = 0; i < FANOUT; i++) {
+                    if (buildSpills[i] != null) {
+                        buildSpills[i].delete();
+                        probeSpills[i].delete();
+                    }
+                }
+            }
+            pass.close();
+            pass = null;
+        }
+        buildSpills = null;
+        probeSpills = null;
+        if (passes != null) {
+            for (Pass p : passes)
+                p.close();
+            passes.clear();
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        start();
         super.open();
     }
 
     public void close() {
         super.close();
+        discardPasses();
         child2.close();
         child1.close();
-        this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        this.match=JoinHashTable.NONE;
+        this.tables = null;
+        this.tablesHoldChild1 = false;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        if (tablesHoldChild1) {
+            // child1 fit in memory: probe the same table again
+            discardPasses();
+            child2.rewind();
+            match = JoinHashTable.NONE;
+            pass = new Pass(asFileIterator(child1), asFileIterator(child2), 0);
+            return;
+        }
+        discardPasses();
         child1.rewind();
         child2.rewind();
+        start();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /** The table and row of the next build tuple that matches t2. */
+    transient private JoinHashTable matchTable;
+    transient private int match = JoinHashTable.NONE;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -115,12 +412,14 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+        int row = match;
+        match = matchTable.next(row);
 
-        int td1n = t1.getTupleDesc().numFields();
+        int td1n = child1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
 
         // set fields in combined tuple
+        Tuple t1 = matchTable.getTuple(row);
         Tuple t = new Tuple(comboTD);
         for (int i = 0; i < td1n; i++)
             t.setField(i, t1.getField(i));
@@ -131,32 +430,41 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
+        while (true) {
+            if (match != JoinHashTable.NONE)
+                return processList();
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+            if (pass == null) {
+                if (passes.isEmpty())
+                    return null;
+                startPass(passes.pop());
                 continue;
-            listIt = l.iterator();
-
-            return processList();
+            }
 
-        }
+            // loop around the probe side
+            if (pass.probe.hasNext()) {
+                t2 = pass.probe.next();
+                Field key = t2.getField(pred.getField2());
+                if (probeSpills != null) {
+                    int p = partition(key, pass.level);
+                    if (probeSpills[p] != null) {
+                        probeSpills[p].add(t2);
+                        continue;
+                    }
+                }
+                matchTable = tables[tables.length == 1 ? 0 : partition(key, pass.level)];
+                match = matchTable.first(key);
+                continue;
+            }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            // probe side is done: next chunk of the build side, or next pass
+            if (chunked && pass.build.hasNext()) {
+                loadChunk();
+                pass.probe.rewind();
+                continue;
+            }
+            finishPass();
         }
-
-        return null;
     }
 
     @Override
@@ -25,11 +25,43 @@ public class HeapFile implements DbFile {
 
     private File f;
     private TupleDesc td;
+    private final PageFileChannel channel;
+    private final FreeSpaceMap freeSpace;
+    private volatile boolean memoryMapped;
 
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.channel = new PageFileChannel(f);
+        this.freeSpace = new FreeSpaceMap(f);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * reading its pages through a memory mapping.
+     *
+     * @see #setMemoryMapped
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td);
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Serve readPage from a read-only memory mapping of the file rather than
+     * with a read system call. This suits large, mostly read-only tables:
+     * the mapped pages live in the OS page cache and are only copied once,
+     * into the page handed to the BufferPool. Writes still go through the
+     * file channel, and the mapping is extended as the file grows.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /** @return true if pages are read through a memory mapping */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
     }
 
     /**
@@ -73,23 +105,22 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        BufferedInputStream bis = null;
         try {
-            bis = new BufferedInputStream(new FileInputStream(f));
             int pageSize = pageSize();
             byte pageBuf[] = new byte[pageSize];
-            bis.skip(pid.getPageNumber()  * pageSize);
-            bis.read(pageBuf, 0, pageSize);
-            return new HeapPage((HeapPageId)pid, pageBuf);
+            long offset = (long) pid.getPageNumber() * pageSize;
+            int read = memoryMapped ? channel.readMapped(offset, pageBuf)
+                    : channel.read(offset, pageBuf);
+            if (read < pageSize)
+                throw new IllegalArgumentException("Read past end of table");
+            HeapPage page = new HeapPage((HeapPageId)pid, pageBuf);
+            // the page may have lost tuples through an abort since the map
+            // last saw it
+            if (page.getNumEmptySlots() > 0)
+                freeSpace.pageHasRoom(pid.getPageNumber());
+            return page;
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-            try {
-                if (bis != null)
-                    bis.close();
-            } catch (IOException ioe) {
-                // Ignore failures closing the file
-            }
         }
     }
 
@@ -97,26 +128,9 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        RandomAccessFile ras = null;
-        try {
-
-            ras = new RandomAccessFile(f, "rw");
-            int pageSize = pageSize();
-            byte pageData[] = page.getPageData();
-            int offset = page.getId().getPageNumber() * pageSize;
-            ras.seek(offset);
-            ras.write(pageData, 0, pageSize);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        } finally {
-            try {
-                if (ras != null)
-                    ras.close();
-            } catch (IOException ioe) {
-                // Ignore failures closing the file
-            }
-
-        }
+        long offset = (long) page.getId().getPageNumber() * pageSize();
+        channel.write(offset, page.getPageData());
+        freeSpace.update(page.getId().getPageNumber(), ((HeapPage) page).getNumEmptySlots() > 0);
     }
 
     /**
@@ -124,90 +138,197 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) (f.length() / pageSize());
+        try {
+            return (int) (channel.size() / pageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        int numPages = this.numPages();
+        return insertTuples(tid, Collections.singletonList(t).iterator());
+        // not necessary for lab1
+    }
+
+    /**
+     * Inserts a batch of tuples, filling each page with room before moving
+     * on to the next, and appending pages once the free ones are used up.
+     *
+     * @see DbFile#insertTuples
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> pages = new ArrayList<>();
         HeapPage page = null;
-        for (int i=0; i<numPages; i++) {
-            page = (HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(this.getId(), i), Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() > 0) {
-                break;
+        int room = 0;
+        while (tuples.hasNext()) {
+            if (room == 0) {
+                int from = 0;
+                if (page != null) {
+                    freeSpace.update(page.getId().getPageNumber(), false);
+                    from = page.getId().getPageNumber() + 1;
+                }
+                page = pageWithRoom(tid, from);
+                // dirty before the first tuple goes in, so that an abort
+                // later in the batch still rolls this page back
+                page.markDirty(true, tid);
+                room = page.getNumEmptySlots();
+                pages.add(page);
             }
+            page.insertTuple(tuples.next());
+            room--;
         }
-        boolean newPage = false;
-        if (page.getNumEmptySlots() == 0) {
-            byte[] data = HeapPage.createEmptyPageData();
-            page = new HeapPage(new HeapPageId(this.getId(), numPages), data);
-            newPage = true;
-        }
+        if (page != null && room == 0)
+            freeSpace.update(page.getId().getPageNumber(), false);
+        return pages;
+    }
 
-        page.insertTuple(t);
-        if (newPage) {
-            this.writePage(page);
-            return null;
+    /**
+     * Find a page with an empty slot, at or after the given page number,
+     * and lock it for writing. Only the pages the free space map says may
+     * have room are visited; if none has, a page is appended.
+     */
+    private HeapPage pageWithRoom(TransactionId tid, int from)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        int numPages = this.numPages();
+        for (int i = freeSpace.nextFree(from, numPages); i >= 0; i = freeSpace.nextFree(i + 1, numPages)) {
+            HeapPageId pid = new HeapPageId(this.getId(), i);
+            boolean held = bp.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.getNumEmptySlots() > 0) {
+                page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.getNumEmptySlots() > 0)
+                    return page;
+            }
+            freeSpace.update(i, false);
+            // the page was not changed: safe to give its lock back early
+            if (!held)
+                bp.releasePage(tid, pid);
         }
-        ArrayList<Page> pages = new ArrayList<>();
-        pages.add(page);
-        return pages;
-        // not necessary for lab1
+        return (HeapPage) bp.getPage(tid, appendEmptyPage(), Permissions.READ_WRITE);
+    }
+
+    /**
+     * Extends the file on disk by one empty page.
+     *
+     * @return the id of the new page
+     */
+    private synchronized HeapPageId appendEmptyPage() throws IOException {
+        HeapPageId pid = new HeapPageId(this.getId(), numPages());
+        writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        return pid;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not a member of this file");
+        PageId pid = rid.getPageId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        try {
+            freeSpace.update(pid.getPageNumber(), true);
+        } catch (IOException e) {
+            throw new DbException("could not update the free space map: " + e.getMessage());
+        }
+        ArrayList<Page> pages = new ArrayList<>();
+        pages.add(page);
+        return pages;
         // not necessary for lab1
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new Itr();
+        return new Itr(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy a
+     * predicate. The predicate is evaluated on each page before tuples are
+     * materialized, so rows it rejects cost no allocation.
+     *
+     * @param tid the transaction reading the file
+     * @param p the predicate tuples must satisfy
+     * @see HeapPage#iterator(Predicate)
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p) {
+        return new Itr(tid, p, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the pages this file claims from
+     * a shared {@link Morsels}. Several such iterators, each on its own
+     * thread, together scan every page exactly once. The iterator cannot be
+     * rewound, since the pages it claimed are gone from the morsels.
+     *
+     * @param tid the transaction reading the file
+     * @param p the predicate tuples must satisfy, or null
+     * @param morsels the pages still to be scanned
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p, Morsels morsels) {
+        return new Itr(tid, p, morsels);
     }
 
     private class Itr implements DbFileIterator {
         int cursor = -1;
+        /** The page after the last one of the current range. */
+        int end;
         HeapPage currentPage = null;
         Iterator<Tuple> currentTupleIterator = null;
-        TransactionId tid = null;
+        final TransactionId tid;
+        final Predicate predicate;
+        final Morsels morsels;
         int tableid;
         Boolean open = false;
-        int numPages;
+        ReadAhead readAhead;
+
+        Itr(TransactionId tid, Predicate predicate, Morsels morsels) {
+            this.tid = tid;
+            this.predicate = predicate;
+            this.morsels = morsels;
+        }
 
         public void open() throws DbException, TransactionAbortedException {
             open = true;
-            cursor = 0;
-            numPages = numPages();
             tableid = getId();
-            tid = new TransactionId();
-            HeapPageId hid = new HeapPageId(tableid, cursor);
-            try {
-                currentPage = (HeapPage) Database.getBufferPool().getPage(tid, hid, Permissions.READ_WRITE);
-                currentTupleIterator = currentPage.iterator();
-            } catch (Exception e) {
-                throw e;
+            currentPage = null;
+            if (morsels != null) {
+                claimMorsel();
+            } else {
+                cursor = 0;
+                end = numPages();
+                readAhead = new ReadAhead(tableid, end);
             }
         }
 
-        public boolean hasNext() {
+        /** Move on to the next morsel, or to an empty range if none is left. */
+        private void claimMorsel() {
+            int start = morsels.claim();
+            cursor = Math.max(start, 0);
+            end = start < 0 ? 0 : morsels.end(start);
+            // prefetch no further than the morsel, the rest is someone else's
+            readAhead = new ReadAhead(tableid, end);
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
             if (!open)
                 return false;
 
-            while (cursor < numPages) {
+            while (cursor < end) {
                 if (currentPage == null) {
                     HeapPageId hid = new HeapPageId(tableid, cursor);
-                    try {
-                        currentPage = (HeapPage) Database.getBufferPool().getPage(tid, hid, Permissions.READ_WRITE);
-                    } catch (Exception e) {
-                        return false;
-                    }
-                    currentTupleIterator = currentPage.iterator();
+                    readAhead.pageAccessed(cursor);
+                    currentPage = (HeapPage) Database.getBufferPool().getPage(tid, hid, Permissions.READ_ONLY);
+                    currentTupleIterator = predicate == null ? currentPage.iterator()
+                            : currentPage.iterator(predicate);
                 }
 
                 Boolean hasNext = currentTupleIterator.hasNext();
@@ -216,30 +337,27 @@ public class HeapFile implements DbFile {
 
                 currentPage = null;
                 cursor++;
+                if (cursor == end && morsels != null)
+                    claimMorsel();
             }
 
             return false;
         }
 
-        public Tuple next() {
-            if (!open)
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
                 throw new NoSuchElementException();
-            if (cursor < numPages)
-                return currentTupleIterator.next();
-            throw new NoSuchElementException();
+            return currentTupleIterator.next();
         }
 
         public void rewind() throws DbException, TransactionAbortedException {
             if (!open)
                 throw new IllegalStateException("Heap file iterator not open yet");
+            if (morsels != null)
+                throw new DbException("cannot rewind a scan of shared morsels");
             cursor = 0;
-            HeapPageId hid = new HeapPageId(tableid, cursor);
-            try {
-                currentPage = (HeapPage) Database.getBufferPool().getPage(tid, hid, Permissions.READ_WRITE);
-            } catch (Exception e) {
-                throw e;
-            }
-            currentTupleIterator = currentPage.iterator();
+            currentPage = null;
+            readAhead.reset();
         }
 
         public void close() {
@@ -2,10 +2,17 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tuples are decoded lazily: the page keeps the bytes it was read from and
+ * only turns a slot into a Tuple when the tuple is asked for. Scans with a
+ * predicate ({@link #iterator(Predicate)}) test it against the slot bytes
+ * first, so rejected rows are never materialized. The before image is not
+ * copied until the page is first modified.
  *
  * @see HeapFile
  * @see BufferPool
@@ -16,12 +23,26 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    /**
+     * The decoded tuple of each slot, or null if it has not been decoded.
+     * Readers holding only a shared lock decode slots concurrently, so a
+     * tuple is published with a compare-and-set.
+     */
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
 
+    /** The bytes this page was read from; never modified. */
+    private final byte[] data;
+    /** Offset of each field within a tuple slot. */
+    private final int[] fieldOffsets;
+    private final int tupleSize;
+
+    /** The page before it was modified; null while it is unmodified. */
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock=new Object();
     private TransactionId dirtyTid;
+    /** No slot before this one is empty. */
+    private int emptySlotHint = 0;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -37,30 +58,33 @@ public class HeapPage implements Page {
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
+     * <p>
+     * The page keeps a reference to data, which must not be modified
+     * afterwards; tuples are decoded from it on demand.
+     *
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.tupleSize = td.getSize();
+        if (data.length < BufferPool.getPageSize())
+            throw new IOException("short page: " + data.length + " bytes");
+        this.data = data;
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        // read the header slots of this page
+        header = Arrays.copyOf(data, getHeaderSize());
 
-        setBeforeImage();
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+
+        // records are decoded from data when they are first asked for
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
+
+        // the bytes read are the before image until the page is modified
+        oldData = data;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -97,6 +121,8 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -106,10 +132,23 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Make the current contents of the page its before image. Nothing is
+     * copied now: the copy is taken when the page is next modified.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /** Save the before image, if this is the first change since it was set. */
+    private void captureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null)
+            oldData = getPageData();
         }
     }
 
@@ -121,38 +160,97 @@ public class HeapPage implements Page {
         return pid;
     }
 
+    /** @return the offset in data of the given field of the given slot */
+    private int fieldOffset(int slotId, int field) {
+        return header.length + slotId * tupleSize + fieldOffsets[field];
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Return the tuple in a slot, decoding it from the page bytes the first
+     * time it is asked for.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple tuple(int slotId) {
+        Tuple t = tuples.get(slotId);
+        if (t == null && isSlotUsed(slotId)) {
+            t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slotId));
+            for (int j=0; j<td.numFields(); j++)
+                t.setField(j, readField(slotId, j));
+            // another reader may have decoded it first: share its tuple
+            if (!tuples.compareAndSet(slotId, null, t))
+                t = tuples.get(slotId);
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /** Decode one field of a slot that has not been materialized. */
+    private Field readField(int slotId, int field) {
+        Type type = td.getFieldType(field);
+        int offset = fieldOffset(slotId, field);
+        if (type == Type.INT_TYPE)
+            return new IntField(readInt(offset));
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return type.parse(new DataInputStream(
+                    new ByteArrayInputStream(data, offset, type.getLen())));
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    private int readInt(int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset+1] & 0xff) << 16)
+                | ((data[offset+2] & 0xff) << 8) | (data[offset+3] & 0xff);
+    }
+
+    /**
+     * Append the tuples of this page to a batch, column by column, starting
+     * at the given slot and stopping when the batch is full. Integer fields
+     * of slots that were never materialized are copied straight from the
+     * page bytes.
+     *
+     * @param slotId the first slot to look at
+     * @param batch a batch with the schema of this page
+     * @return the slot to continue from, or the number of slots if the page
+     *         is exhausted
+     */
+    public int fillBatch(int slotId, ColumnBatch batch) {
+        int row = batch.size();
+        for (; slotId < numSlots && row < batch.capacity(); slotId++) {
+            if (!isSlotUsed(slotId))
+                continue;
+            Tuple t = tuples.get(slotId);
+            for (int j=0; j<fieldOffsets.length; j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    batch.ints(j)[row] = t != null ? ((IntField) t.getField(j)).getValue()
+                            : readInt(fieldOffset(slotId, j));
+                } else {
+                    batch.strings(j)[row] = t != null ? ((StringField) t.getField(j)).getValue()
+                            : ((StringField) readField(slotId, j)).getValue();
+                }
+            }
+            row++;
+        }
+        batch.setSize(row);
+        return slotId;
+    }
+
+    /**
+     * Evaluate a predicate against the tuple in a used slot. Integer
+     * comparisons on a slot that has not been materialized read the field
+     * straight from the page bytes, without creating any objects.
+     */
+    private boolean matches(int slotId, Predicate p) {
+        Tuple t = tuples.get(slotId);
+        if (t != null)
+            return p.filter(t);
+        int field = p.getField();
+        if (td.getFieldType(field) == Type.INT_TYPE && p.getOperand() instanceof IntField)
+            return IntField.compare(readInt(fieldOffset(slotId, field)), p.getOp(),
+                    ((IntField) p.getOperand()).getValue());
+        return readField(slotId, field).compare(p.getOp(), p.getOperand());
     }
 
     /**
@@ -182,7 +280,7 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        for (int i=0; i<numSlots; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -197,9 +295,20 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never decoded: its bytes are unchanged
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                try {
+                    dos.write(data, header.length + i * tupleSize, tupleSize);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                Field f = t.getField(j);
                 try {
                     f.serialize(dos);
                 
@@ -210,7 +319,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length()); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -251,16 +360,16 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        for (int i=0; i<numSlots; i++) {
-            if (tuples[i] == t) {
-                if (!isSlotUsed(i))
-                    throw new DbException("Slot already empty");
-                tuples[i] = null;
-                markSlotUsed(i, false);
-                return;
-            }
-        }
-        throw new DbException("Tuple doesn't exist in this page");
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("Tuple doesn't exist in this page");
+        int i = rid.getTupleNumber();
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            throw new DbException("Slot already empty");
+        captureBeforeImage();
+        tuples.set(i, null);
+        markSlotUsed(i, false);
+        emptySlotHint = Math.min(emptySlotHint, i);
     }
 
     /**
@@ -275,11 +384,13 @@ public class HeapPage implements Page {
         // not necessary for lab1
         if (getNumEmptySlots() == 0)
             throw new DbException("page full");
-        for (int i=0; i<numSlots; i++) {
+        captureBeforeImage();
+        for (int i=emptySlotHint; i<numSlots; i++) {
             if (!isSlotUsed(i)) {
                 t.setRecordId(new RecordId(pid, i));
-                tuples[i] = t;
+                tuples.set(i, t);
                 markSlotUsed(i, true);
+                emptySlotHint = i + 1;
                 break;
             }
         }
@@ -312,13 +423,15 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int totalNum = tuples.length;
-        int emptyCount = 0;
-        for (int i = 0; i < totalNum; i++) {
-            if (!isSlotUsed(i))
-                emptyCount++;
+        int used = 0;
+        for (int i = 0; i < header.length; i++) {
+            int bits = header[i] & 0xff;
+            // ignore the padding bits of the last header byte
+            if (i == header.length - 1 && numSlots % 8 != 0)
+                bits &= (1 << (numSlots % 8)) - 1;
+            used += Integer.bitCount(bits);
         }
-        return emptyCount;
+        return numSlots - used;
     }
 
     /**
@@ -326,7 +439,7 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        if (i >= tuples.length)
+        if (i >= numSlots)
             return false;
         return (header[i>>3] & (1 << (i % 8))) > 0;
     }
@@ -349,17 +462,28 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        return new Itr();
+        return new Itr(null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p. Only
+     * the tuples returned are materialized.
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        return new Itr(p);
     }
 
     private class Itr implements Iterator<Tuple> {
+        final Predicate predicate;
         int cursor = 0;
-        int count = 0;
-        int numTuples = numSlots - getNumEmptySlots();
+
+        Itr(Predicate predicate) {
+            this.predicate = predicate;
+        }
 
         public boolean hasNext() {
-            while (count < numTuples && cursor < numSlots) {
-                if (isSlotUsed(cursor))
+            while (cursor < numSlots) {
+                if (isSlotUsed(cursor) && (predicate == null || matches(cursor, predicate)))
                     return true;
                 cursor++;
             }
@@ -367,12 +491,9 @@ public class HeapPage implements Page {
         }
 
         public Tuple next() {
-            int i = cursor;
-            if (count >= numTuples)
+            if (!hasNext())
                 throw new NoSuchElementException();
-            cursor++;
-            count++;
-            return tuples[i];
+            return tuple(cursor++);
         }
 
         public void remove() {
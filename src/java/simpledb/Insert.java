@@ -1,5 +1,8 @@
 package simpledb;
 
+import java.io.IOException;
+import java.util.ArrayList;
+
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
  * constructor
@@ -8,6 +11,16 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Number of tuples handed to the buffer pool at a time. */
+    private static final int BATCH_SIZE = 1024;
+
+    private final TransactionId tid;
+    private OpIterator child;
+    private final int tableId;
+    private final TupleDesc tableTd;
+    private final TupleDesc td;
+    private boolean fetched;
+
     /**
      * Constructor.
      *
@@ -24,23 +37,37 @@ public class Insert extends Operator {
     public Insert(TransactionId t, OpIterator child, int tableId)
             throws DbException {
         // some code goes here
+        this.tid = t;
+        this.child = child;
+        this.tableId = tableId;
+        this.tableTd = Database.getCatalog().getTupleDesc(tableId);
+        if (!tableTd.equals(child.getTupleDesc()))
+            throw new DbException("TupleDesc of child differs from table " + tableId);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE });
     }
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        super.open();
+        child.open();
+        fetched = false;
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.rewind();
+        fetched = false;
     }
 
     /**
@@ -50,6 +77,9 @@ public class Insert extends Operator {
      * instances of BufferPool is available via Database.getBufferPool(). Note
      * that insert DOES NOT need check to see if a particular tuple is a
      * duplicate before inserting it.
+     * <p>
+     * Tuples are passed to {@link BufferPool#insertTuples} in batches, so
+     * pages are filled in bulk and dirtied once each.
      *
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
@@ -58,17 +88,59 @@ public class Insert extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        if (fetched)
+            return null;
+        fetched = true;
+
+        int count = 0;
+        ArrayList<Tuple> batch = new ArrayList<Tuple>(BATCH_SIZE);
+        while (child.hasNext()) {
+            batch.add(copy(child.next()));
+            if (batch.size() == BATCH_SIZE) {
+                count += insert(batch);
+                batch.clear();
+            }
+        }
+        count += insert(batch);
+
+        Tuple result = new Tuple(td);
+        result.setField(0, new IntField(count));
+        return result;
+    }
+
+    private int insert(ArrayList<Tuple> batch) throws TransactionAbortedException, DbException {
+        if (batch.isEmpty())
+            return 0;
+        try {
+            Database.getBufferPool().insertTuples(tid, tableId, batch.iterator());
+        } catch (IOException e) {
+            throw new DbException("insert failed: " + e.getMessage());
+        }
+        return batch.size();
+    }
+
+    /**
+     * A copy of a child tuple to store in the table. Inserting sets the
+     * record id of the stored tuple, which must not change the child's
+     * tuple: it may itself be stored on a page, e.g. in
+     * INSERT INTO t SELECT ... FROM t.
+     */
+    private Tuple copy(Tuple t) {
+        Tuple stored = new Tuple(tableTd);
+        for (int i = 0; i < tableTd.numFields(); i++)
+            stored.setField(i, t.getField(i));
+        return stored;
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[] { child };
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        child = children[0];
     }
 }
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * GroupTable for INT_TYPE group-by fields: an open-addressing table of
+ * int[]s (linear probing) from key to group, and the key of every group in
+ * group order. Looking up a tuple's group allocates nothing.
+ */
+public class IntGroupTable implements GroupTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int gbfield;
+    /** Key of each slot; only meaningful where groups is not NONE. */
+    private int[] keys = new int[INITIAL_CAPACITY];
+    /** Group of each slot, NONE for an empty slot. */
+    private int[] groups = new int[INITIAL_CAPACITY];
+    /** Key of each group. */
+    private int[] groupKeys = new int[INITIAL_CAPACITY / 2];
+    private int size;
+
+    /**
+     * @param gbfield the group-by field, an INT_TYPE field
+     */
+    public IntGroupTable(int gbfield) {
+        this.gbfield = gbfield;
+        Arrays.fill(groups, NONE);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the slot holding key, or the empty slot where it belongs */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (groups[i] != NONE && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    public int groupOf(Tuple t) {
+        return groupOf(((IntField) t.getField(gbfield)).getValue());
+    }
+
+    public int find(Tuple t) {
+        return groups[slot(((IntField) t.getField(gbfield)).getValue())];
+    }
+
+    /** @return the group of key, a new group if it has not been seen */
+    public int groupOf(int key) {
+        int i = slot(key);
+        if (groups[i] != NONE)
+            return groups[i];
+        int group = size++;
+        keys[i] = key;
+        groups[i] = group;
+        if (group == groupKeys.length)
+            groupKeys = Arrays.copyOf(groupKeys, group * 2);
+        groupKeys[group] = key;
+        // keep the table at most half full
+        if (size * 2 > keys.length)
+            rehash();
+        return group;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldGroups = groups;
+        keys = new int[oldKeys.length * 2];
+        groups = new int[oldKeys.length * 2];
+        Arrays.fill(groups, NONE);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldGroups[i] != NONE) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                groups[j] = oldGroups[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Field getKey(int group, int i) {
+        if (i != 0)
+            throw new IndexOutOfBoundsException("one group-by field, not " + (i + 1));
+        return new IntField(groupKeys[group]);
+    }
+
+    public long memoryUsed() {
+        return 4L * (keys.length + groups.length + groupKeys.length);
+    }
+}
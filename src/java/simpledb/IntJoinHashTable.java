@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * JoinHashTable for INT_TYPE join keys. The keys live in an open-addressing
+ * table in an int[] (linear probing), each slot pointing at the last row
+ * added with its key, and an int[] links every row to the previous one
+ * with the same key, so lookups compare ints and create no objects. The
+ * rows are kept as the Tuples they were added as, so the fields of a match
+ * are handed out as they are instead of being boxed again for every output
+ * row.
+ */
+public class IntJoinHashTable implements JoinHashTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final TupleDesc td;
+    private final int keyField;
+    private Tuple[] rows;
+    private int numRows;
+    /**
+     * The slots, two ints each: the key, and the last row added with it or
+     * NONE for an empty slot. Keeping both side by side makes a lookup one
+     * cache miss rather than two.
+     */
+    private int[] slots;
+    /** Previous row with the same key, for each row. */
+    private int[] next;
+    private int numKeys;
+
+    /**
+     * @param td the schema of the rows
+     * @param keyField the join key, an INT_TYPE field
+     */
+    public IntJoinHashTable(TupleDesc td, int keyField) {
+        if (td.getFieldType(keyField) != Type.INT_TYPE)
+            throw new IllegalArgumentException("join key must be an INT_TYPE field");
+        this.td = td;
+        this.keyField = keyField;
+        this.rows = new Tuple[INITIAL_CAPACITY];
+        this.next = new int[INITIAL_CAPACITY];
+        this.slots = newSlots(INITIAL_CAPACITY * 2);
+    }
+
+    private static int[] newSlots(int n) {
+        int[] slots = new int[n * 2];
+        for (int i = 1; i < slots.length; i += 2)
+            slots[i] = NONE;
+        return slots;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the index in slots of the slot holding key, or of the empty
+     *         slot where it belongs
+     */
+    private int slot(int key) {
+        int mask = slots.length - 2;
+        int i = (hash(key) << 1) & mask;
+        while (slots[i + 1] != NONE && slots[i] != key)
+            i = (i + 2) & mask;
+        return i;
+    }
+
+    public void add(Tuple t) {
+        int row = numRows++;
+        if (row == rows.length) {
+            rows = Arrays.copyOf(rows, row * 2);
+            next = Arrays.copyOf(next, row * 2);
+        }
+        rows[row] = t;
+        int key = ((IntField) t.getField(keyField)).getValue();
+        int i = slot(key);
+        if (slots[i + 1] == NONE) {
+            slots[i] = key;
+            next[row] = NONE;
+            slots[i + 1] = row;
+            // keep the table at most half full
+            if (++numKeys * 4 > slots.length)
+                rehash();
+        } else {
+            next[row] = slots[i + 1];
+            slots[i + 1] = row;
+        }
+    }
+
+    private void rehash() {
+        int[] old = slots;
+        slots = newSlots(old.length);
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i + 1] != NONE) {
+                int j = slot(old[i]);
+                slots[j] = old[i];
+                slots[j + 1] = old[i + 1];
+            }
+        }
+    }
+
+    public int size() {
+        return numRows;
+    }
+
+    public int first(Field key) {
+        return first(((IntField) key).getValue());
+    }
+
+    /** @return a row with the given key, or NONE if there is none */
+    public int first(int key) {
+        return slots[slot(key) + 1];
+    }
+
+    public int next(int row) {
+        return next[row];
+    }
+
+    public Field getField(int row, int field) {
+        return rows[row].getField(field);
+    }
+
+    public Tuple getTuple(int row) {
+        return rows[row];
+    }
+
+    public long memoryUsed() {
+        return 4L * (slots.length + next.length) + 8L * rows.length
+                + (long) numRows * (td.getSize() + FieldJoinHashTable.TUPLE_OVERHEAD);
+    }
+}
@@ -1,11 +1,19 @@
 package simpledb;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are numbered by a {@link GroupTable} and their running values are
+ * kept in long[]s indexed by group, so merging a tuple allocates nothing
+ * and sums do not overflow while they are accumulated.
+ * <p>
+ * Once the groups take more than the memory budget, tuples of groups that
+ * are not in memory yet are spilled to an {@link AggregateSpill} and
+ * aggregated partition by partition after the groups in memory have been
+ * returned.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -14,8 +22,22 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private HashMap<String, Integer> map;
-    private HashMap<String, Integer> countMap;
+    /** The groups, or null if there is no grouping. */
+    private GroupTable groups;
+    /** Number of groups with an aggregate value. */
+    private int numGroups;
+    /**
+     * The running value of each group: the sum for SUM and AVG, the count
+     * for COUNT, the minimum or maximum for MIN and MAX.
+     */
+    private long[] values;
+    /** For AVG: the number of values in each group. */
+    private long[] counts;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    /** How many times the input was partitioned before reaching us. */
+    private int level = 0;
+    /** The tuples of the groups that did not fit, once memory ran out. */
+    private AggregateSpill spill;
 
     /**
      * Aggregate constructor
@@ -38,22 +60,89 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.map = new HashMap<>();
-        this.countMap = new HashMap<>();
+        if (gbfield != NO_GROUPING)
+            this.groups = GroupTable.create(gbfieldtype, gbfield);
+        this.values = new long[16];
+        if (what == Op.AVG)
+            this.counts = new long[16];
     }
 
-    private String getAggregateKey(Tuple tup) {
-        if (gbfieldtype == null)
-            return "default";
-        switch (gbfieldtype) {
-            case INT_TYPE:
-                IntField f = (IntField) tup.getField(gbfield);
-                return String.valueOf(f.getValue());
-            case STRING_TYPE:
-                StringField sf = (StringField) tup.getField(gbfield);
-                return sf.getValue();
+    /** @return the group of tup, adding it if it is new */
+    private int groupOf(Tuple tup) {
+        if (spill != null)
+            return spilledGroup(tup);
+        int group = groups == null ? 0 : groups.groupOf(tup);
+        if (group < numGroups)
+            return group;
+        numGroups = group + 1;
+        if (group == values.length) {
+            values = Arrays.copyOf(values, group * 2);
+            if (counts != null)
+                counts = Arrays.copyOf(counts, group * 2);
+        }
+        switch (what) {
+            case MIN:
+                values[group] = Long.MAX_VALUE;
+                break;
+            case MAX:
+                values[group] = Long.MIN_VALUE;
+                break;
+            default:
+                values[group] = 0;
         }
-        return null;
+        if (counts != null)
+            counts[group] = 0;
+        // no room for more groups: spill the tuples of the ones still to come,
+        // unless they were partitioned as often as helps
+        if (groups != null && memoryUsed() > memoryBudget && level < AggregateSpill.MAX_DEPTH)
+            spill = new AggregateSpill(gbfield, level);
+        return group;
+    }
+
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    /** @return an estimate of the bytes of heap the groups take */
+    public long memoryUsed() {
+        long arrays = values.length + (counts == null ? 0 : counts.length);
+        return (groups == null ? 0 : groups.memoryUsed()) + 8L * arrays;
+    }
+
+    /** @return whether the tuples of some groups were spilled to disk */
+    public boolean hasSpilled() {
+        return spill != null;
+    }
+
+    /** A new aggregator like this one for a partition of the spilled tuples. */
+    private Aggregator partitionAggregator(int level) {
+        IntegerAggregator agg = new IntegerAggregator(gbfield, gbfieldtype, afield, what);
+        agg.memoryBudget = memoryBudget;
+        agg.level = level;
+        return agg;
+    }
+
+    /**
+     * Spill tup if memory has run out and its group is not in memory.
+     *
+     * @return the group of tup in memory, or GroupTable.NONE if it was spilled
+     */
+    private int spilledGroup(Tuple tup) {
+        int group = groups.find(tup);
+        if (group == GroupTable.NONE) {
+            try {
+                spill.add(tup);
+            } catch (DbException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return group;
+    }
+
+    public void close() {
+        if (spill != null)
+            spill.delete();
+        spill = null;
     }
 
     /**
@@ -65,38 +154,28 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        String key = this.getAggregateKey(tup);
+        int group = groupOf(tup);
+        if (group == GroupTable.NONE)
+            return;
         int val = ((IntField)tup.getField(afield)).getValue();
-        Integer currentAggregateVal = map.get(key);
         switch (what) {
             case MIN:
-                if (currentAggregateVal == null || val < currentAggregateVal)
-                    map.put(key, val);
+                if (val < values[group])
+                    values[group] = val;
                 break;
             case MAX:
-                if (currentAggregateVal == null || val > currentAggregateVal)
-                    map.put(key, val);
+                if (val > values[group])
+                    values[group] = val;
                 break;
             case SUM:
-                currentAggregateVal = currentAggregateVal != null ? currentAggregateVal + val : val;
-                map.put(key, currentAggregateVal);
+                values[group] += val;
                 break;
             case COUNT:
-                if (currentAggregateVal != null)
-                    map.put(key, currentAggregateVal + 1);
-                else
-                    map.put(key, 1);
+                values[group]++;
                 break;
             case AVG:
-                Integer count = countMap.get(key);
-                if (count == null) {
-                    countMap.put(key, 1);
-                    map.put(key, val);
-                }
-                else {
-                    countMap.put(key, count + 1);
-                    map.put(key, currentAggregateVal + val);
-                }
+                values[group] += val;
+                counts[group]++;
                 break;
             case SUM_COUNT:
                 break;
@@ -121,15 +200,25 @@ public class IntegerAggregator implements Aggregator {
 
     private class OpItr implements OpIterator {
         private Boolean open = false;
-        private Iterator<Map.Entry<String, Integer>> it;
+        private int group;
+        /** The aggregates of the spilled groups, after those in memory. */
+        private OpIterator spilled;
         public void open() {
             open = true;
-            it = map.entrySet().iterator();
+            group = 0;
         }
-        public boolean hasNext() {
+        public boolean hasNext() throws DbException, TransactionAbortedException {
             if (!open)
                 return false;
-            return it.hasNext();
+            if (group < numGroups)
+                return true;
+            if (spill == null)
+                return false;
+            if (spilled == null) {
+                spilled = spill.iterator(l -> partitionAggregator(l), getTupleDesc());
+                spilled.open();
+            }
+            return spilled.hasNext();
         }
 
         public TupleDesc getTupleDesc() {
@@ -145,44 +234,44 @@ public class IntegerAggregator implements Aggregator {
             return tupleDesc;
         }
 
-        public Tuple next() {
+        public Tuple next() throws DbException, TransactionAbortedException {
             if (!open)
                 return null;
-            Map.Entry<String, Integer> entry  = it.next();
-
-            int val;
-            switch (what) {
-                case AVG:
-                    val = entry.getValue() / countMap.get(entry.getKey());
-                    break;
-                    default:
-                        val = entry.getValue();
+            if (group >= numGroups) {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return spilled.next();
             }
-            IntField aggregateField = new IntField(val);
+            long val = values[group];
+            if (what == Op.AVG)
+                val /= counts[group];
+            if (val != (int) val)
+                throw new DbException(what + " of group " + group
+                        + " does not fit in an INT_TYPE field: " + val);
+            IntField aggregateField = new IntField((int) val);
             Tuple t = new Tuple(getTupleDesc());
-            if (gbfieldtype != null) {
-                switch (gbfieldtype) {
-                    case INT_TYPE:
-                        t.setField(0, new IntField(Integer.valueOf(entry.getKey())));
-                        break;
-                    case STRING_TYPE:
-                        t.setField(0, new StringField(entry.getKey(), 100));
-                        break;
-                }
+            if (groups != null) {
+                t.setField(0, groups.getKey(group));
                 t.setField(1, aggregateField);
             }
             else
                 t.setField(0, aggregateField);
+            group++;
             return t;
 
         }
 
-        public void rewind() {
-            it = map.entrySet().iterator();
+        public void rewind() throws DbException, TransactionAbortedException {
+            group = 0;
+            if (spilled != null)
+                spilled.rewind();
         }
 
         public void close() {
             open = false;
+            if (spilled != null)
+                spilled.close();
+            spilled = null;
         }
     }
 
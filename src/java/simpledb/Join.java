@@ -4,6 +4,12 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Join is a block nested-loop join: it reads as many tuples of child1 as fit
+ * in its memory budget, then scans child2 once for the whole block, testing
+ * every inner tuple against every tuple of the block. child2 is rewound
+ * once per block rather than once per outer tuple. Any JoinPredicate can
+ * be used; {@link HashEquiJoin} is faster for equality.
  */
 public class Join extends Operator {
 
@@ -11,7 +17,18 @@ public class Join extends Operator {
     private JoinPredicate joinPredicate;
     private OpIterator child1;
     private OpIterator child2;
-    private Tuple outerTuple;
+    private TupleDesc comboTD;
+
+    /** Bytes of outer tuples buffered per block unless set otherwise. */
+    public static final long DEFAULT_MEMORY_BUDGET = 8L << 20;
+    /** Estimated size of a tuple in memory beyond its field data. */
+    private static final int TUPLE_OVERHEAD = 64;
+
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    /** The current block of child1, the inner tuple, and the next block tuple to test. */
+    transient private ArrayList<Tuple> block;
+    transient private Tuple innerTuple;
+    transient private int blockIdx;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -29,6 +46,7 @@ public class Join extends Operator {
         this.joinPredicate = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -62,7 +80,37 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return comboTD;
+    }
+
+    /**
+     * Set the number of bytes of child1 tuples to buffer per block. Takes
+     * effect with the next block.
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Read the next block of child1 and position on the first inner tuple.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        long used = 0;
+        while (used < memoryBudget && child1.hasNext()) {
+            Tuple t = child1.next();
+            block.add(t);
+            used += t.getTupleDesc().getSize() + TUPLE_OVERHEAD;
+        }
+        innerTuple = child2.hasNext() ? child2.next() : null;
+        blockIdx = 0;
+        return !block.isEmpty();
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -71,7 +119,8 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
-        outerTuple = child1.hasNext() ? child1.next() : null;
+        block = new ArrayList<Tuple>();
+        nextBlock();
     }
 
     public void close() {
@@ -79,14 +128,15 @@ public class Join extends Operator {
         super.close();
         child1.close();
         child2.close();
-        outerTuple = null;
+        block = null;
+        innerTuple = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child1.rewind();
         child2.rewind();
-        outerTuple = child1.hasNext() ? child1.next() : null;
+        nextBlock();
     }
 
     /**
@@ -109,29 +159,35 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        while (outerTuple != null) {
-            while (child2.hasNext()) {
-                Tuple t2 = child2.next();
-                if (joinPredicate.filter(outerTuple, t2)) {
-                    Tuple joinTuple = new Tuple(getTupleDesc());
-                    int i = 0;
-                    Iterator<Field> fields = outerTuple.fields();
-                    while (fields.hasNext()) {
-                        Field f = fields.next();
-                        joinTuple.setField(i, f);
-                        i++;
-                    }
-                    fields = t2.fields();
-                    while (fields.hasNext()) {
-                        Field f = fields.next();
-                        joinTuple.setField(i, f);
-                        i++;
+        while (!block.isEmpty()) {
+            while (innerTuple != null) {
+                while (blockIdx < block.size()) {
+                    Tuple outerTuple = block.get(blockIdx++);
+                    if (joinPredicate.filter(outerTuple, innerTuple)) {
+                        Tuple joinTuple = new Tuple(comboTD);
+                        int i = 0;
+                        Iterator<Field> fields = outerTuple.fields();
+                        while (fields.hasNext()) {
+                            Field f = fields.next();
+                            joinTuple.setField(i, f);
+                            i++;
+                        }
+                        fields = innerTuple.fields();
+                        while (fields.hasNext()) {
+                            Field f = fields.next();
+                            joinTuple.setField(i, f);
+                            i++;
+                        }
+                        return joinTuple;
                     }
-                    return joinTuple;
                 }
+                innerTuple = child2.hasNext() ? child2.next() : null;
+                blockIdx = 0;
             }
+            if (!child1.hasNext())
+                break;
             child2.rewind();
-            outerTuple = child1.hasNext() ? child1.next() : null;
+            nextBlock();
         }
         return null;
     }
@@ -148,6 +204,7 @@ public class Join extends Operator {
         // some code goes here
         child1 = children[0];
         child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * The hash table a {@link HashEquiJoin} builds over its build side: a
+ * multimap from join key to the rows added with that key. Rows are numbered
+ * in the order they were added, and the rows with the same key are walked
+ * with {@link #first} and {@link #next}:
+ * <pre>
+ *     for (int row = table.first(key); row != NONE; row = table.next(row))
+ *         ... table.getField(row, i) ...
+ * </pre>
+ */
+public interface JoinHashTable {
+    static final int NONE = -1;
+
+    /**
+     * Create the table that suits the type of the join key: an
+     * {@link IntJoinHashTable} for INT_TYPE keys, a
+     * {@link FieldJoinHashTable} otherwise.
+     *
+     * @param td the schema of the rows
+     * @param keyField the join key
+     */
+    public static JoinHashTable create(TupleDesc td, int keyField) {
+        if (td.getFieldType(keyField) == Type.INT_TYPE)
+            return new IntJoinHashTable(td, keyField);
+        return new FieldJoinHashTable(td, keyField);
+    }
+
+    /** Add a row. */
+    public void add(Tuple t);
+
+    /** @return the number of rows added */
+    public int size();
+
+    /** @return a row with the given key, or NONE if there is none */
+    public int first(Field key);
+
+    /** @return the next row with the same key as row, or NONE */
+    public int next(int row);
+
+    /** @return a field of a row */
+    public Field getField(int row, int field);
+
+    /** @return a row as a Tuple */
+    public Tuple getTuple(int row);
+
+    /** @return an estimate of the bytes of heap the table takes */
+    public long memoryUsed();
+}
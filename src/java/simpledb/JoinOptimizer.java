@@ -14,6 +14,18 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /**
+     * Outer tuples per block assumed by {@link #nestedLoopJoinCost}: the
+     * default memory budget of {@link Join} over small tuples.
+     */
+    static final int NESTED_LOOP_BLOCK_TUPLES = (int) (Join.DEFAULT_MEMORY_BUDGET / 128);
+
+    /**
+     * Cost of starting one partition of a partitioned join, in predicate
+     * tests: handing it to a worker thread and setting up its queues.
+     */
+    static final double PARTITION_STARTUP_COST = 1000;
+
     /**
      * Constructor
      * 
@@ -68,12 +80,164 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        int n = LogicalPlan.getParallelism();
+        boolean exchange2 = hasExchange(plan2);
+        if (n > 1 && usePartitionedJoin(p, plan1, plan2, n))
+            j = HashEquiJoin.partitioned(p, plan1, plan2, n);
+        else if (useSortMergeJoin(p, plan1, plan2)
+                || (exchange2 && SortMergeJoin.supports(p.getOperator())))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else if (exchange2)
+            // Join rewinds its inner once per block of the outer, which
+            // would run the exchange all over again: sort it once instead,
+            // as OrderBy rewinds what it has already read
+            j = new Join(p, plan1, new OrderBy(t2id, true, plan2));
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
+    /**
+     * Decide between the (block nested-loop) Join and SortMergeJoin by
+     * comparing {@link #nestedLoopJoinCost} with {@link #sortMergeJoinCost},
+     * taking inputs that are already sorted on their join field into
+     * account. Ties go to SortMergeJoin when both inputs are sorted.
+     */
+    static boolean useSortMergeJoin(JoinPredicate p, OpIterator plan1,
+            OpIterator plan2) {
+        if (!SortMergeJoin.supports(p.getOperator()))
+            return false;
+        boolean sorted1 = SortMergeJoin.isSortedOn(plan1, p.getField1());
+        boolean sorted2 = SortMergeJoin.isSortedOn(plan2, p.getField2());
+        int card1 = estimatePlanCardinality(plan1);
+        int card2 = estimatePlanCardinality(plan2);
+        double cost1 = estimatePlanCost(plan1);
+        double cost2 = estimatePlanCost(plan2);
+        double nl = nestedLoopJoinCost(card1, card2, cost1, cost2);
+        double sm = sortMergeJoinCost(card1, card2, cost1, cost2, sorted1, sorted2);
+        return sorted1 && sorted2 ? sm <= nl : sm < nl;
+    }
+
+    /**
+     * Decide whether to run an equality join as n partitions in parallel
+     * ({@link HashEquiJoin#partitioned}) by comparing
+     * {@link #partitionedJoinCost} with the cost of the serial joins. The
+     * nested-loop Join is left out when plan2 holds an exchange, as it
+     * could not be its inner.
+     */
+    static boolean usePartitionedJoin(JoinPredicate p, OpIterator plan1,
+            OpIterator plan2, int n) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            return false;
+        int card1 = estimatePlanCardinality(plan1);
+        int card2 = estimatePlanCardinality(plan2);
+        double cost1 = estimatePlanCost(plan1);
+        double cost2 = estimatePlanCost(plan2);
+        double part = partitionedJoinCost(card1, card2, cost1, cost2, n);
+        double sm = sortMergeJoinCost(card1, card2, cost1, cost2,
+                SortMergeJoin.isSortedOn(plan1, p.getField1()),
+                SortMergeJoin.isSortedOn(plan2, p.getField2()));
+        if (part >= sm)
+            return false;
+        return hasExchange(plan2) || part < nestedLoopJoinCost(card1, card2, cost1, cost2);
+    }
+
+    /** @return true if an {@link Exchange} runs somewhere in plan */
+    static boolean hasExchange(OpIterator plan) {
+        if (plan instanceof Exchange)
+            return true;
+        if (!(plan instanceof Operator))
+            return false;
+        OpIterator[] children = ((Operator) plan).getChildren();
+        if (children != null)
+            for (OpIterator child : children)
+                if (hasExchange(child))
+                    return true;
+        return false;
+    }
+
+    /** @return the base table scanned at the bottom of a chain of Filters, or null */
+    private static OpIterator baseScan(OpIterator plan) {
+        while (plan instanceof Filter)
+            plan = ((Filter) plan).getChildren()[0];
+        return plan instanceof SeqScan || plan instanceof BTreeScan ? plan : null;
+    }
+
+    private static TableStats baseTableStats(OpIterator plan) {
+        OpIterator scan = baseScan(plan);
+        if (scan == null)
+            return null;
+        String name = scan instanceof SeqScan ? ((SeqScan) scan).getTableName()
+                : ((BTreeScan) scan).getTableName();
+        return TableStats.getTableStats(name);
+    }
+
+    /**
+     * @return an estimate of the number of tuples of a subplan: the
+     *         operator's own estimate if it has one, else the size of the
+     *         table a scan (under Filters) reads, else 0
+     */
+    static int estimatePlanCardinality(OpIterator plan) {
+        if (plan instanceof Operator && ((Operator) plan).getEstimatedCardinality() > 0)
+            return ((Operator) plan).getEstimatedCardinality();
+        TableStats s = baseTableStats(plan);
+        return s == null ? 0 : s.totalTuples();
+    }
+
+    /**
+     * @return an estimate of the cost of one run of a subplan: the scan
+     *         cost of the table a scan (under Filters) reads, else one unit
+     *         per tuple
+     */
+    static double estimatePlanCost(OpIterator plan) {
+        TableStats s = baseTableStats(plan);
+        return s == null ? estimatePlanCardinality(plan) : s.estimateScanCost();
+    }
+
+    /**
+     * @return the cost of a block nested-loop {@link Join}: one scan of the
+     *         outer, one scan of the inner per block of outer tuples, and a
+     *         predicate test per pair
+     */
+    public static double nestedLoopJoinCost(int card1, int card2, double cost1,
+            double cost2) {
+        double blocks = Math.max(1, Math.ceil((double) card1 / NESTED_LOOP_BLOCK_TUPLES));
+        return cost1 + blocks * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * @return the cost of a {@link SortMergeJoin}: one scan of each input,
+     *         n log n comparisons to sort each unsorted input, and a merge
+     *         pass over both
+     */
+    public static double sortMergeJoinCost(int card1, int card2, double cost1,
+            double cost2, boolean sorted1, boolean sorted2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        if (!sorted1)
+            cost += sortCost(card1);
+        if (!sorted2)
+            cost += sortCost(card2);
+        return cost;
+    }
+
+    /**
+     * @return the cost of a partitioned hash join over n partitions: one
+     *         scan of each input, moving every tuple through a
+     *         {@link Repartition}, building and probing the hash tables of
+     *         the partitions in parallel, and starting each partition
+     */
+    public static double partitionedJoinCost(int card1, int card2, double cost1,
+            double cost2, int n) {
+        double tuples = (double) card1 + card2;
+        return cost1 + cost2 + tuples + tuples / n + n * PARTITION_STARTUP_COST;
+    }
+
+    private static double sortCost(int card) {
+        return card * (Math.log(Math.max(card, 2)) / Math.log(2));
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -111,7 +275,11 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            return -1.0;
+            double cost = nestedLoopJoinCost(card1, card2, cost1, cost2);
+            if (SortMergeJoin.supports(j.p))
+                cost = Math.min(cost, sortMergeJoinCost(card1, card2, cost1,
+                        cost2, false, false));
+            return cost;
         }
     }
 
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRUKEvictionPolicy implements LRU-K replacement (O'Neil, O'Neil and
+ * Weikum). For each page it remembers the times of the last K references
+ * and evicts the page whose K-th most recent reference lies furthest in the
+ * past. Pages that have been referenced fewer than K times have an infinite
+ * backward K-distance and are evicted first, oldest last reference first,
+ * which is what makes the policy resistant to sequential scans: a page
+ * touched once by a scan never displaces a page with a real reuse history.
+ * <p>
+ * The reference history of evicted pages is retained for a bounded number
+ * of pages, so a page that is re-read shortly after eviction is recognised.
+ *
+ * @see EvictionPolicy
+ */
+public class LRUKEvictionPolicy implements EvictionPolicy {
+
+    /** The K used by {@link #LRUKEvictionPolicy(int)}. */
+    public static final int DEFAULT_K = 2;
+
+    /** Reference history of a single page, kept as a ring of timestamps. */
+    private static class History {
+        final long[] times;
+        int count;
+        int next;
+
+        History(int k) {
+            times = new long[k];
+        }
+
+        void reference(long now) {
+            times[next] = now;
+            next = (next + 1) % times.length;
+            if (count < times.length)
+                count++;
+        }
+
+        long last() {
+            return times[(next + times.length - 1) % times.length];
+        }
+
+        /** @return the time of the K-th most recent reference, or -1 if there
+            have been fewer than K references */
+        long kth() {
+            if (count < times.length)
+                return -1;
+            return times[next];
+        }
+    }
+
+    private final int k;
+    private final int retainedHistory;
+    private final HashMap<PageId, History> resident;
+    private final LinkedHashMap<PageId, History> evicted;
+    private long clock;
+
+    /**
+     * Creates an LRU-2 policy for a buffer pool of the given size.
+     *
+     * @param numPages the expected number of resident pages
+     */
+    public LRUKEvictionPolicy(int numPages) {
+        this(numPages, DEFAULT_K);
+    }
+
+    /**
+     * Creates an LRU-K policy for a buffer pool of the given size.
+     *
+     * @param numPages the expected number of resident pages; also bounds the
+     *            number of evicted pages whose history is retained
+     * @param k the number of references remembered per page
+     */
+    public LRUKEvictionPolicy(int numPages, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be positive");
+        this.k = k;
+        this.retainedHistory = Math.max(1, numPages);
+        this.resident = new HashMap<>();
+        this.evicted = new LinkedHashMap<>();
+        this.clock = 0;
+    }
+
+    public void pageAdded(PageId pid) {
+        History h = evicted.remove(pid);
+        if (h == null)
+            h = resident.get(pid);
+        if (h == null)
+            h = new History(k);
+        h.reference(++clock);
+        resident.put(pid, h);
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = resident.get(pid);
+        if (h != null)
+            h.reference(++clock);
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = resident.remove(pid);
+        if (h == null)
+            return;
+        evicted.put(pid, h);
+        if (evicted.size() > retainedHistory) {
+            Iterator<PageId> oldest = evicted.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, History> e : resident.entrySet()) {
+            History h = e.getValue();
+            long kth = h.kth();
+            long last = h.last();
+            if (kth > victimKth || (kth == victimKth && last >= victimLast))
+                continue;
+            if (!evictable.canEvict(e.getKey()))
+                continue;
+            victim = e.getKey();
+            victimKth = kth;
+            victimLast = last;
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,447 @@
+package simpledb;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LockManager implements page-level strict two-phase locking for the
+ * BufferPool. Pages can be locked in shared mode, which any number of
+ * transactions may hold at once, or in exclusive mode, which excludes every
+ * other transaction. A transaction that holds the only shared lock on a page
+ * may upgrade it to an exclusive lock.
+ * <p>
+ * Requests that cannot be granted wait in a FIFO queue per page. Waiting
+ * threads are parked and are unparked by the transaction that releases the
+ * conflicting lock; upgrade requests go to the head of the queue. A waiting
+ * shared request never overtakes a waiting exclusive request, so writers are
+ * not starved by a steady stream of readers.
+ * <p>
+ * Deadlocks are detected with a {@link WaitsForGraph}. Every time a request
+ * blocks, the graph is searched for a cycle through the blocked transaction;
+ * in addition a background sweep looks for cycles formed by queue changes
+ * that did not involve a new request. One transaction on each cycle is
+ * chosen by the configured {@link VictimPolicy}, and its pending request
+ * fails with a TransactionAbortedException. Requests never time out.
+ *
+ * @Threadsafe
+ * @see BufferPool#getPage
+ */
+public class LockManager {
+
+    /** How often the background deadlock sweep runs, in ms. */
+    public static final long DEADLOCK_SWEEP_INTERVAL = 50;
+
+    /** How the transaction to abort is picked from a deadlock cycle. */
+    public enum VictimPolicy {
+        /** abort the transaction that started last */
+        YOUNGEST,
+        /** abort the transaction holding the fewest locks */
+        FEWEST_LOCKS,
+        /**
+         * abort the transaction that would log the least: under NO STEAL a
+         * transaction logs each page it dirtied when it commits, and it can
+         * only dirty the pages it holds exclusive locks on, so the one
+         * holding the fewest exclusive locks is aborted
+         */
+        LEAST_LOG;
+
+        /**
+         * Parse a policy name as used by the simpledb.DeadlockVictim system
+         * property; null selects YOUNGEST.
+         */
+        public static VictimPolicy parse(String name) {
+            if (name == null)
+                return YOUNGEST;
+            return valueOf(name.toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /** Runs the periodic sweeps of every live LockManager. */
+    private static final ScheduledExecutorService sweeper =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "deadlock-detector");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /** A waiting lock request. */
+    private static class Request {
+        final TransactionId tid;
+        final boolean exclusive;
+        final Thread thread;
+        volatile boolean granted;
+        volatile boolean aborted;
+
+        Request(TransactionId tid, boolean exclusive) {
+            this.tid = tid;
+            this.exclusive = exclusive;
+            this.thread = Thread.currentThread();
+        }
+    }
+
+    /** The lock state of a single page, protected by its own monitor. */
+    private static class PageLock {
+        final HashSet<TransactionId> sharers = new HashSet<>();
+        TransactionId owner;
+        final LinkedList<Request> waiters = new LinkedList<>();
+        /** set once the entry has been dropped from the lock table */
+        boolean removed;
+
+        boolean holds(TransactionId tid, boolean exclusive) {
+            if (tid.equals(owner))
+                return true;
+            return !exclusive && sharers.contains(tid);
+        }
+
+        boolean compatible(TransactionId tid, boolean exclusive) {
+            if (owner != null && !owner.equals(tid))
+                return false;
+            if (!exclusive)
+                return true;
+            return sharers.isEmpty() || (sharers.size() == 1 && sharers.contains(tid));
+        }
+
+        boolean isFree() {
+            return owner == null && sharers.isEmpty() && waiters.isEmpty();
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> locks;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> pagesLocked;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> pagesAwaited;
+    private final WaitsForGraph waitsFor;
+    private final VictimPolicy victimPolicy;
+
+    /**
+     * Creates a lock manager that picks deadlock victims with the policy
+     * named by the system property simpledb.DeadlockVictim ("youngest", the
+     * default, "fewest_locks" or "least_log").
+     */
+    public LockManager() {
+        this(VictimPolicy.parse(System.getProperty("simpledb.DeadlockVictim")));
+    }
+
+    /**
+     * Creates a lock manager.
+     *
+     * @param victimPolicy how to pick the transaction to abort on a deadlock
+     */
+    public LockManager(VictimPolicy victimPolicy) {
+        this.locks = new ConcurrentHashMap<>();
+        this.pagesLocked = new ConcurrentHashMap<>();
+        this.pagesAwaited = new ConcurrentHashMap<>();
+        this.waitsFor = new WaitsForGraph();
+        this.victimPolicy = victimPolicy;
+        scheduleSweep(this);
+    }
+
+    /**
+     * Schedule the background sweep of a lock manager. The task only holds
+     * a weak reference, and cancels itself once the lock manager (and the
+     * BufferPool that owns it) has been garbage collected.
+     */
+    private static void scheduleSweep(LockManager lockManager) {
+        final WeakReference<LockManager> ref = new WeakReference<>(lockManager);
+        final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+        synchronized (self) {
+            self[0] = sweeper.scheduleWithFixedDelay(() -> {
+                LockManager lm = ref.get();
+                if (lm == null) {
+                    synchronized (self) {
+                        self[0].cancel(false);
+                    }
+                    return;
+                }
+                lm.detectDeadlocks();
+            }, DEADLOCK_SWEEP_INTERVAL, DEADLOCK_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Acquire a lock on a page, blocking until it is granted.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param exclusive true for an exclusive lock, false for a shared lock
+     * @throws TransactionAbortedException if the transaction was chosen as a
+     *             deadlock victim, or was completed or interrupted while
+     *             waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        Request request;
+        PageLock lock;
+        while (true) {
+            lock = locks.computeIfAbsent(pid, k -> new PageLock());
+            synchronized (lock) {
+                if (lock.removed)
+                    continue;
+                if (lock.holds(tid, exclusive))
+                    return;
+                boolean upgrade = lock.sharers.contains(tid);
+                if ((upgrade || lock.waiters.isEmpty()) && lock.compatible(tid, exclusive)) {
+                    grant(lock, pid, tid, exclusive);
+                    return;
+                }
+                request = new Request(tid, exclusive);
+                if (upgrade)
+                    lock.waiters.addFirst(request);
+                else
+                    lock.waiters.addLast(request);
+                pagesAwaited.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+                updateWaitsFor(lock, pid);
+                break;
+            }
+        }
+        List<TransactionId> cycle = waitsFor.findCycle(tid);
+        if (cycle != null)
+            abortWaits(chooseVictim(cycle));
+        awaitGrant(lock, pid, request);
+    }
+
+    /**
+     * Park until the request is granted, or aborted as a deadlock victim.
+     * An interrupt also aborts the request, leaving the interrupt status set.
+     */
+    private void awaitGrant(PageLock lock, PageId pid, Request request)
+            throws TransactionAbortedException {
+        boolean done = false;
+        try {
+            while (!request.granted) {
+                if (request.aborted || Thread.currentThread().isInterrupted())
+                    break;
+                LockSupport.park(this);
+            }
+            done = request.granted;
+        } finally {
+            Set<PageId> awaited = pagesAwaited.get(request.tid);
+            if (awaited != null)
+                awaited.remove(pid);
+            if (!done) {
+                synchronized (lock) {
+                    if (request.granted) {
+                        done = true;
+                    } else {
+                        lock.waiters.remove(request);
+                        grantWaiters(lock, pid);
+                        updateWaitsFor(lock, pid);
+                        removeIfFree(lock, pid);
+                    }
+                }
+            }
+        }
+        if (!done)
+            throw new TransactionAbortedException();
+    }
+
+    /** Record that tid holds a lock on pid. Caller holds the lock's monitor. */
+    private void grant(PageLock lock, PageId pid, TransactionId tid, boolean exclusive) {
+        if (exclusive) {
+            lock.sharers.remove(tid);
+            lock.owner = tid;
+        } else {
+            lock.sharers.add(tid);
+        }
+        pagesLocked.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    /**
+     * Grant queued requests in FIFO order until one cannot be granted.
+     * Caller holds the lock's monitor.
+     */
+    private void grantWaiters(PageLock lock, PageId pid) {
+        Iterator<Request> it = lock.waiters.iterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            if (!lock.compatible(request.tid, request.exclusive))
+                break;
+            it.remove();
+            grant(lock, pid, request.tid, request.exclusive);
+            request.granted = true;
+            LockSupport.unpark(request.thread);
+        }
+    }
+
+    /**
+     * Recompute the waits-for edges contributed by the queue of a page. A
+     * waiter waits for every incompatible holder and for every incompatible
+     * request queued ahead of it. Caller holds the lock's monitor.
+     */
+    private void updateWaitsFor(PageLock lock, PageId pid) {
+        HashMap<TransactionId, Set<TransactionId>> waits = new HashMap<>();
+        int position = 0;
+        for (Request request : lock.waiters) {
+            Set<TransactionId> targets = waits.computeIfAbsent(request.tid, k -> new HashSet<>());
+            if (lock.owner != null)
+                targets.add(lock.owner);
+            if (request.exclusive)
+                targets.addAll(lock.sharers);
+            Iterator<Request> ahead = lock.waiters.iterator();
+            for (int i = 0; i < position; i++) {
+                Request other = ahead.next();
+                if (request.exclusive || other.exclusive)
+                    targets.add(other.tid);
+            }
+            targets.remove(request.tid);
+            position++;
+        }
+        waitsFor.setWaits(pid, waits);
+    }
+
+    /**
+     * Break every deadlock currently in the waits-for graph. Run periodically
+     * by the background sweep.
+     */
+    public void detectDeadlocks() {
+        if (waitsFor.isEmpty())
+            return;
+        List<TransactionId> cycle;
+        while ((cycle = waitsFor.findCycle()) != null)
+            abortWaits(chooseVictim(cycle));
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        long victimCost = Long.MAX_VALUE;
+        for (TransactionId tid : cycle) {
+            long cost;
+            switch (victimPolicy) {
+            case FEWEST_LOCKS:
+                cost = pagesLockedBy(tid).size();
+                break;
+            case LEAST_LOG:
+                cost = exclusiveLocks(tid);
+                break;
+            default:
+                cost = 0;
+            }
+            // ties go to the youngest transaction
+            if (victim == null || cost < victimCost
+                    || (cost == victimCost && tid.getId() > victim.getId())) {
+                victim = tid;
+                victimCost = cost;
+            }
+        }
+        return victim;
+    }
+
+    /** @return the number of pages tid holds exclusive locks on */
+    private int exclusiveLocks(TransactionId tid) {
+        int n = 0;
+        for (PageId pid : pagesLockedBy(tid))
+            if (holdsExclusive(tid, pid))
+                n++;
+        return n;
+    }
+
+    /**
+     * Fail every request tid is waiting on with a TransactionAbortedException.
+     * The locks tid already holds are kept until its transaction completes.
+     */
+    private void abortWaits(TransactionId tid) {
+        Set<PageId> awaited = pagesAwaited.get(tid);
+        if (awaited == null)
+            return;
+        for (PageId pid : new ArrayList<>(awaited)) {
+            PageLock lock = locks.get(pid);
+            if (lock == null)
+                continue;
+            synchronized (lock) {
+                cancelRequests(lock, tid);
+                grantWaiters(lock, pid);
+                updateWaitsFor(lock, pid);
+                removeIfFree(lock, pid);
+            }
+        }
+    }
+
+    /** Abort the queued requests of tid. Caller holds the lock's monitor. */
+    private static void cancelRequests(PageLock lock, TransactionId tid) {
+        Iterator<Request> it = lock.waiters.iterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            if (request.tid.equals(tid)) {
+                it.remove();
+                request.aborted = true;
+                LockSupport.unpark(request.thread);
+            }
+        }
+    }
+
+    private void removeIfFree(PageLock lock, PageId pid) {
+        if (lock.isFree()) {
+            lock.removed = true;
+            locks.remove(pid, lock);
+        }
+    }
+
+    /**
+     * Release the lock tid holds on pid, if any, and cancel any request tid
+     * is still waiting on for that page.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock != null) {
+            synchronized (lock) {
+                lock.sharers.remove(tid);
+                if (tid.equals(lock.owner))
+                    lock.owner = null;
+                cancelRequests(lock, tid);
+                grantWaiters(lock, pid);
+                updateWaitsFor(lock, pid);
+                removeIfFree(lock, pid);
+            }
+        }
+        Set<PageId> held = pagesLocked.get(tid);
+        if (held != null)
+            held.remove(pid);
+    }
+
+    /** Release every lock held by tid and cancel every request it is waiting on. */
+    public void releaseAll(TransactionId tid) {
+        Set<PageId> awaited = pagesAwaited.remove(tid);
+        if (awaited != null) {
+            for (PageId pid : awaited)
+                release(tid, pid);
+        }
+        Set<PageId> held = pagesLocked.remove(tid);
+        if (held != null) {
+            for (PageId pid : held)
+                release(tid, pid);
+        }
+    }
+
+    /** @return true if tid holds a shared or exclusive lock on pid */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return lock.holds(tid, false);
+        }
+    }
+
+    /** @return true if tid holds an exclusive lock on pid */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return lock.holds(tid, true);
+        }
+    }
+
+    /** @return the pages tid currently holds locks on */
+    public Set<PageId> pagesLockedBy(TransactionId tid) {
+        Set<PageId> held = pagesLocked.get(tid);
+        if (held == null)
+            return Collections.emptySet();
+        return new HashSet<>(held);
+    }
+}
@@ -29,12 +29,12 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
-    private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> groupByFields = new Vector<String>();
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAsc = new Vector<Boolean>();
+    private int limit = NO_LIMIT;
     private String query;
 //    private Query owner;
 
@@ -186,34 +186,123 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  All the aggregates of a query are computed in one pass,
+        grouped by all the GROUP BY fields; an aggregate added twice is
+        computed once.
         @param op the aggregation operator
-        @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param afield the field to aggregate over, or "*" for COUNT(*)
+        @param gfield a field to group by (see {@link #addGroupBy}), or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*"))
+            afield="null.*";
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
-        hasAgg = true;
+            addGroupBy(gfield);
+        if (indexOfAggregate(op, afield) < 0) {
+            aggOps.addElement(op);
+            aggFields.addElement(afield);
+        }
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a GROUP BY field.  Output groups are distinct combinations of
+        the values of all the fields added.
+        @param field the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String field) throws ParsingException {
+        field=disambiguateName(field);
+        if (!groupByFields.contains(field))
+            groupByFields.addElement(field);
+    }
+
+    /** @return the position of the aggregate among those added, or -1 */
+    private int indexOfAggregate(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++)
+            if (aggOps.elementAt(i).equalsIgnoreCase(op) && aggFields.elementAt(i).equals(afield))
+                return i;
+        return -1;
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields are sorted on
+        in the order they are added: ties on the first field are broken by the second, and so on.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.addElement(field);
+        oByAsc.addElement(asc);
+    }
+
+    /** Value of {@link #getLimit} when the query has no LIMIT clause. */
+    public static final int NO_LIMIT = -1;
+
+    /** Add a LIMIT clause: return at most the first n result tuples.
+        @param n the most tuples to return
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative: " + n);
+        limit = n;
+    }
+
+    /** @return the LIMIT of the query, or NO_LIMIT */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** Number of workers that scan the table of a single-table query, and
+        of partitions equality joins are split into; set by the system
+        property simpledb.Parallelism, 1 by default */
+    private static volatile int parallelism = Math.max(1,
+            Integer.getInteger("simpledb.Parallelism", 1));
+
+    /** Set the number of workers of the {@link ParallelScan} that scans
+        and filters the table of single-table queries, and the number of
+        partitions that equality joins are run in parallel as (see
+        {@link HashEquiJoin#partitioned}); 1 runs queries serially.
+        @param n the number of workers
+    */
+    public static void setParallelism(int n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("need at least one worker");
+        parallelism = n;
+    }
+
+    /** @return the number of workers that scan the table of single-table
+        queries, and of partitions of equality joins */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /** Turn a chain of Filters over a SeqScan of a heap file into a
+        ParallelScan whose workers each run the Filters over part of the
+        file, if there is more than a morsel to scan.
+        @return the ParallelScan, or plan unchanged
+    */
+    private static OpIterator parallelize(TransactionId t, OpIterator plan) {
+        final ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+        OpIterator op = plan;
+        while (op instanceof Filter) {
+            predicates.add(0, ((Filter) op).getPredicate());
+            op = ((Filter) op).getChildren()[0];
+        }
+        if (!(op instanceof SeqScan))
+            return plan;
+        SeqScan ss = (SeqScan) op;
+        int tableid = Database.getCatalog().getTableId(ss.getTableName());
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile) || ((HeapFile) file).numPages() <= Morsels.DEFAULT_PAGES)
+            return plan;
+        return new ParallelScan(t, tableid, ss.getAlias(), parallelism, scan -> {
+            OpIterator pipeline = scan;
+            for (Predicate p : predicates)
+                pipeline = new Filter(p, pipeline);
+            return pipeline;
+        });
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -271,6 +360,42 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Aggregate the output of a ParallelScan in two phases: every worker
+        aggregates its part of the table into partial aggregates, which a
+        final Aggregate over the ParallelScan combines. COUNT is combined
+        by a SUM of the partial counts, and AVG from the SUM_COUNT of every
+        part by SC_AVG.
+        @return the final Aggregate, whose output is that of
+        new Aggregate(scan, afields, gfields, ops)
+    */
+    private static Aggregate parallelAggregate(TransactionId t, ParallelScan scan,
+            final int[] afields, final int[] gfields, Aggregator.Op[] ops) {
+        final Aggregator.Op[] partialOps = new Aggregator.Op[ops.length];
+        Aggregator.Op[] finalOps = new Aggregator.Op[ops.length];
+        int[] finalAfields = new int[ops.length];
+        int[] finalGfields = new int[gfields.length];
+        for (int i = 0; i < gfields.length; i++)
+            finalGfields[i] = i;
+        int field = gfields.length;
+        for (int i = 0; i < ops.length; i++) {
+            partialOps[i] = ops[i];
+            finalOps[i] = ops[i];
+            if (ops[i] == Aggregator.Op.COUNT) {
+                finalOps[i] = Aggregator.Op.SUM;
+            } else if (ops[i] == Aggregator.Op.AVG) {
+                partialOps[i] = Aggregator.Op.SUM_COUNT;
+                finalOps[i] = Aggregator.Op.SC_AVG;
+            }
+            finalAfields[i] = field;
+            field += partialOps[i] == Aggregator.Op.SUM_COUNT ? 2 : 1;
+        }
+        final ParallelScan.Pipeline pipeline = scan.getPipeline();
+        ParallelScan partial = new ParallelScan(t, scan.getTableId(), scan.getAlias(),
+                scan.getNumWorkers(), s -> new Aggregate(pipeline.build(s),
+                        afields, gfields, partialOps));
+        return new Aggregate(partial, finalAfields, finalGfields, finalOps);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -344,6 +469,11 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        if (parallelism > 1 && tables.size() == 1 && joins.isEmpty()) {
+            String alias = tables.elementAt(0).alias;
+            subplanMap.put(alias, parallelize(t, subplanMap.get(alias)));
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -414,28 +544,31 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int a = indexOfAggregate(si.aggOp, si.fname);
+                if (a < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                outFields.add(groupByFields.size() + a);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    if (!si.fname.equals("null.*"))
+                        td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
-            } else if (hasAgg) {
-                    if (groupByField == null) {
+            } else if (!aggOps.isEmpty()) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -458,14 +591,30 @@ public class LogicalPlan {
                 }
         }
 
-        if (hasAgg) {
+        if (!aggOps.isEmpty()) {
             TupleDesc td = node.getTupleDesc();
+            int[] afields = new int[aggOps.size()];
+            Aggregator.Op[] ops = new Aggregator.Op[aggOps.size()];
+            int[] gfields = new int[groupByFields.size()];
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                for (int i = 0; i < afields.length; i++) {
+                    ops[i] = getAggOp(aggOps.elementAt(i));
+                    if (aggFields.elementAt(i).equals("null.*")) {
+                        // COUNT(*): every field has a value, so count any
+                        if (ops[i] != Aggregator.Op.COUNT)
+                            throw new ParsingException(aggOps.elementAt(i) + "(*) is not supported");
+                        afields[i] = 0;
+                    } else {
+                        afields[i] = td.fieldNameToIndex(aggFields.elementAt(i));
+                    }
+                }
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                if (node instanceof ParallelScan)
+                    aggNode = parallelAggregate(t, (ParallelScan) node, afields, gfields, ops);
+                else
+                    aggNode = new Aggregate(node, afields, gfields, ops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -474,8 +623,20 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.elementAt(i));
+                asc[i] = oByAsc.elementAt(i);
+            }
+            // with a LIMIT only the first tuples are needed: keep those in a heap
+            if (limit != NO_LIMIT)
+                node = new TopN(fields, asc, limit, node);
+            else
+                node = new OrderBy(fields, asc, node);
+        } else if (limit != NO_LIMIT) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
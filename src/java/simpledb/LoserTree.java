@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * LoserTree merges k sorted inputs into one sorted stream. Every internal
+ * node of the tree remembers the loser of the comparison played there and
+ * the root remembers the overall winner, so after the winner is taken only
+ * the log2(k) games on the path from its input to the root are replayed,
+ * with one comparison each.
+ * <p>
+ * Tuples that compare equal come out in input order, so merging runs that
+ * were cut from a stream in order is stable.
+ */
+public class LoserTree extends AbstractDbFileIterator {
+
+    private final DbFileIterator[] inputs;
+    private final Comparator<Tuple> comparator;
+    /** Current tuple of every input, null once it is exhausted. */
+    private final Tuple[] heads;
+    /** tree[0] is the winning input; tree[1..k-1] the losers at each node. */
+    private final int[] tree;
+    private boolean open = false;
+
+    /**
+     * @param inputs the iterators to merge, each sorted by comparator
+     * @param comparator the order of the inputs and of the output
+     */
+    public LoserTree(List<DbFileIterator> inputs, Comparator<Tuple> comparator) {
+        this.inputs = inputs.toArray(new DbFileIterator[inputs.size()]);
+        this.comparator = comparator;
+        this.heads = new Tuple[this.inputs.length];
+        this.tree = new int[Math.max(this.inputs.length, 1)];
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        for (DbFileIterator in : inputs)
+            in.open();
+        start();
+        open = true;
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        for (int i = 0; i < inputs.length; i++)
+            heads[i] = inputs[i].hasNext() ? inputs[i].next() : null;
+        if (inputs.length > 0)
+            tree[0] = build(1);
+    }
+
+    /** Play the games below node and return the winner. */
+    private int build(int node) {
+        int k = inputs.length;
+        if (node >= k)
+            return node - k;
+        int left = build(2 * node);
+        int right = build(2 * node + 1);
+        if (beats(left, right)) {
+            tree[node] = right;
+            return left;
+        }
+        tree[node] = left;
+        return right;
+    }
+
+    /** @return whether the head of input a comes before the head of input b */
+    private boolean beats(int a, int b) {
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = comparator.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (!open || inputs.length == 0)
+            return null;
+        int winner = tree[0];
+        Tuple t = heads[winner];
+        if (t == null)
+            return null;
+        heads[winner] = inputs[winner].hasNext() ? inputs[winner].next() : null;
+        // replay the games from the winner's leaf up to the root
+        int k = inputs.length;
+        for (int node = (winner + k) / 2; node > 0; node /= 2) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        for (DbFileIterator in : inputs)
+            in.rewind();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        for (DbFileIterator in : inputs)
+            in.close();
+        open = false;
+    }
+}
@@ -0,0 +1,60 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Morsels hands out the pages of a file in small consecutive ranges
+ * ("morsels") to the workers of a parallel scan. Each worker claims the next
+ * unclaimed morsel whenever it finishes one, so every page is scanned exactly
+ * once and a worker that is held up does not delay the others: the fast
+ * workers simply claim more morsels.
+ *
+ * @Threadsafe
+ * @see ParallelScan
+ */
+public class Morsels {
+
+    /** Default number of pages in a morsel. */
+    public static final int DEFAULT_PAGES = 16;
+
+    private final int numPages;
+    private final int morselPages;
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    /**
+     * @param numPages the number of pages to hand out, starting at page 0
+     * @param morselPages the number of pages in each morsel
+     */
+    public Morsels(int numPages, int morselPages) {
+        if (morselPages <= 0)
+            throw new IllegalArgumentException("morsels need at least one page");
+        this.numPages = numPages;
+        this.morselPages = morselPages;
+    }
+
+    /** @return the number of pages handed out in all */
+    public int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Claim the next morsel.
+     *
+     * @return the first page of the morsel, or -1 if all pages have been
+     *         claimed
+     */
+    public int claim() {
+        if (next.get() >= numPages)
+            return -1;
+        int start = next.getAndAdd(morselPages);
+        return start < numPages ? start : -1;
+    }
+
+    /**
+     * @param start the first page of a morsel returned by {@link #claim}
+     * @return the page after the last page of that morsel
+     */
+    public int end(int start) {
+        return Math.min(numPages, start + morselPages);
+    }
+}
@@ -0,0 +1,304 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Computes several aggregates at once, grouped by any number of fields, in
+ * a single pass over the tuples. Output tuples hold the group-by values,
+ * in the order of the group-by fields, followed by the aggregate values in
+ * the order of the aggregates.
+ * <p>
+ * As in {@link IntegerAggregator}, groups are numbered by a
+ * {@link GroupTable} and the running value of every aggregate is kept in a
+ * long[] indexed by group; once the groups exceed the memory budget, tuples
+ * of new groups are spilled to an {@link AggregateSpill}. INT_TYPE fields
+ * support every operator; other fields only COUNT.
+ * <p>
+ * SUM_COUNT and SC_AVG combine partial aggregates, e.g. those computed in
+ * parallel over parts of a table: SUM_COUNT outputs two fields, the sum and
+ * the count of its field, and SC_AVG averages such pairs, reading the sum
+ * from its field and the count from the field after it.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+    private final int[] gbfields;
+    private final Type[] gbfieldtypes;
+    private final int[] afields;
+    private final Type[] afieldtypes;
+    private final Op[] ops;
+    private final TupleDesc td;
+    /** The groups, or null if there is no grouping. */
+    private GroupTable groups;
+    /** Number of groups with aggregate values. */
+    private int numGroups;
+    /**
+     * For each aggregate, the running value of each group: the sum for SUM
+     * and AVG, the count for COUNT, the minimum or maximum for MIN and MAX.
+     */
+    private long[][] values;
+    /**
+     * For each AVG, SUM_COUNT and SC_AVG aggregate, the number of values in
+     * each group.
+     */
+    private long[][] counts;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    /** How many times the input was partitioned before reaching us. */
+    private int level = 0;
+    /** The tuples of the groups that did not fit, once memory ran out. */
+    private AggregateSpill spill;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple; empty
+     *            if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based index of the field of each aggregate
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param ops
+     *            the operator of each aggregate
+     * @throws IllegalArgumentException
+     *             if an operator other than COUNT is applied to a field that
+     *             is not INT_TYPE
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Op[] ops) {
+        if (gbfields.length != gbfieldtypes.length || afields.length != ops.length
+                || afields.length != afieldtypes.length)
+            throw new IllegalArgumentException("need one type per field and one operator per aggregate");
+        for (int a = 0; a < ops.length; a++)
+            if (ops[a] != Op.COUNT && afieldtypes[a] != Type.INT_TYPE)
+                throw new IllegalArgumentException(ops[a] + " needs an INT_TYPE field");
+        this.gbfields = gbfields.clone();
+        this.gbfieldtypes = gbfieldtypes.clone();
+        this.afields = afields.clone();
+        this.afieldtypes = afieldtypes.clone();
+        this.ops = ops.clone();
+        if (gbfields.length > 0)
+            this.groups = GroupTable.create(gbfieldtypes, gbfields);
+        this.values = new long[ops.length][16];
+        this.counts = new long[ops.length][];
+        int width = gbfields.length;
+        for (int a = 0; a < ops.length; a++) {
+            if (ops[a] == Op.AVG || ops[a] == Op.SUM_COUNT || ops[a] == Op.SC_AVG)
+                counts[a] = new long[16];
+            width += ops[a] == Op.SUM_COUNT ? 2 : 1;
+        }
+
+        Type[] types = new Type[width];
+        for (int i = 0; i < width; i++)
+            types[i] = i < gbfields.length ? gbfieldtypes[i] : Type.INT_TYPE;
+        this.td = new TupleDesc(types);
+    }
+
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    /** @return an estimate of the bytes of heap the groups take */
+    public long memoryUsed() {
+        long arrays = 0;
+        for (int a = 0; a < ops.length; a++)
+            arrays += values[a].length + (counts[a] == null ? 0 : counts[a].length);
+        return (groups == null ? 0 : groups.memoryUsed()) + 8L * arrays;
+    }
+
+    /** @return whether the tuples of some groups were spilled to disk */
+    public boolean hasSpilled() {
+        return spill != null;
+    }
+
+    /** A new aggregator like this one for a partition of the spilled tuples. */
+    private Aggregator partitionAggregator(int level) {
+        MultiAggregator agg = new MultiAggregator(gbfields, gbfieldtypes, afields,
+                afieldtypes, ops);
+        agg.memoryBudget = memoryBudget;
+        agg.level = level;
+        return agg;
+    }
+
+    public void close() {
+        if (spill != null)
+            spill.delete();
+        spill = null;
+    }
+
+    /**
+     * @return the group of tup in memory, adding it if it is new, or
+     *         GroupTable.NONE if memory has run out and tup was spilled
+     */
+    private int groupOf(Tuple tup) {
+        if (spill != null) {
+            int group = groups.find(tup);
+            if (group == GroupTable.NONE) {
+                try {
+                    spill.add(tup);
+                } catch (DbException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return group;
+        }
+        int group = groups == null ? 0 : groups.groupOf(tup);
+        if (group < numGroups)
+            return group;
+        numGroups = group + 1;
+        for (int a = 0; a < ops.length; a++) {
+            if (group == values[a].length) {
+                values[a] = Arrays.copyOf(values[a], group * 2);
+                if (counts[a] != null)
+                    counts[a] = Arrays.copyOf(counts[a], group * 2);
+            }
+            switch (ops[a]) {
+                case MIN:
+                    values[a][group] = Long.MAX_VALUE;
+                    break;
+                case MAX:
+                    values[a][group] = Long.MIN_VALUE;
+                    break;
+                default:
+                    values[a][group] = 0;
+            }
+            if (counts[a] != null)
+                counts[a][group] = 0;
+        }
+        // no room for more groups: spill the tuples of the ones still to come,
+        // unless they were partitioned as often as helps
+        if (groups != null && memoryUsed() > memoryBudget && level < AggregateSpill.MAX_DEPTH)
+            spill = new AggregateSpill(gbfields, level);
+        return group;
+    }
+
+    /**
+     * Merge a new tuple into every aggregate of its group, creating the
+     * group if it has not been seen before
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int group = groupOf(tup);
+        if (group == GroupTable.NONE)
+            return;
+        for (int a = 0; a < ops.length; a++) {
+            long[] v = values[a];
+            if (ops[a] == Op.COUNT) {
+                v[group]++;
+                continue;
+            }
+            int val = ((IntField) tup.getField(afields[a])).getValue();
+            switch (ops[a]) {
+                case MIN:
+                    if (val < v[group])
+                        v[group] = val;
+                    break;
+                case MAX:
+                    if (val > v[group])
+                        v[group] = val;
+                    break;
+                case SUM:
+                    v[group] += val;
+                    break;
+                case AVG:
+                case SUM_COUNT:
+                    v[group] += val;
+                    counts[a][group]++;
+                    break;
+                case SC_AVG:
+                    v[group] += val;
+                    counts[a][group] += ((IntField) tup.getField(afields[a] + 1)).getValue();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group-by values followed by
+     *         the aggregate values
+     */
+    public OpIterator iterator() {
+        return new OpItr();
+    }
+
+    private class OpItr implements OpIterator {
+        private static final long serialVersionUID = 1L;
+        private boolean open = false;
+        private int group;
+        /** The aggregates of the spilled groups, after those in memory. */
+        private OpIterator spilled;
+
+        public void open() {
+            open = true;
+            group = 0;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return false;
+            if (group < numGroups)
+                return true;
+            if (spill == null)
+                return false;
+            if (spilled == null) {
+                spilled = spill.iterator(l -> partitionAggregator(l), td);
+                spilled.open();
+            }
+            return spilled.hasNext();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (group >= numGroups)
+                return spilled.next();
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < gbfields.length; i++)
+                t.setField(i, groups.getKey(group, i));
+            int f = gbfields.length;
+            for (int a = 0; a < ops.length; a++) {
+                long val = values[a][group];
+                if (ops[a] == Op.AVG || ops[a] == Op.SC_AVG)
+                    val /= counts[a][group];
+                setField(t, f++, a, val);
+                if (ops[a] == Op.SUM_COUNT)
+                    setField(t, f++, a, counts[a][group]);
+            }
+            group++;
+            return t;
+        }
+
+        private void setField(Tuple t, int f, int a, long val) throws DbException {
+            if (val != (int) val)
+                throw new DbException(ops[a] + " of group " + group
+                        + " does not fit in an INT_TYPE field: " + val);
+            t.setField(f, new IntField((int) val));
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            group = 0;
+            if (spilled != null)
+                spilled.rewind();
+        }
+
+        public void close() {
+            open = false;
+            if (spilled != null)
+                spilled.close();
+            spilled = null;
+        }
+    }
+}
@@ -47,6 +47,10 @@ public class OperatorCardinality {
                             .estimateTableCardinality(1.0);
                 }
             }
+            if (o instanceof TopN)
+                childC = Math.min(childC, ((TopN) o).getLimit());
+            else if (o instanceof Limit)
+                childC = Math.min(childC, ((Limit) o).getLimit());
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
@@ -224,21 +228,29 @@ public class OperatorCardinality {
                     .estimateTableCardinality(1.0));
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+        // the number of groups is at most the product of the number of
+        // distinct values of the group-by fields
+        double groups = 1.0;
+        boolean known = false;
+        TupleDesc childTd = child.getTupleDesc();
+        for (int gfield : a.groupFields()) {
+            String[] tmp = childTd.getFieldName(gfield).split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null)
+                continue;
+            double groupFieldAvgSelectivity = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .avgSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
+            groups *= 1.0 / groupFieldAvgSelectivity;
+            known = true;
+        }
+        if (known) {
+            a.setEstimatedCardinality((int) (Math.min(childCard, groups)));
             return hasJoinPK;
         }
         a.setEstimatedCardinality(childCard);
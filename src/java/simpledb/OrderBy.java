@@ -4,21 +4,42 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Tuples are sorted on one or more fields, each ascending or descending.
+ * The input is read into memory until it reaches the memory budget (see
+ * {@link #setMemoryBudget}); if it all fits it is sorted in place. Otherwise
+ * every full buffer is sorted and written to a {@link TupleSpillFile} as a
+ * run, and the runs are merged with a {@link LoserTree}. When there are more
+ * than {@link #MAX_FAN_IN} runs they are first merged in groups into longer
+ * runs.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default number of bytes of tuples sorted in memory. */
+    public static final long DEFAULT_MEMORY_BUDGET = 8L << 20;
+    /** Estimated bytes of memory a tuple takes beyond its fields. */
+    static final int TUPLE_OVERHEAD = 64;
+    /** Most runs merged at once. */
+    public static final int MAX_FAN_IN = 64;
+
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private int[] orderByFields;
+    private boolean[] ascending;
     private String orderByFieldName;
     private Iterator<Tuple> it;
-    private boolean asc;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    /** The sorted runs on disk and their merge, when the input did not fit. */
+    transient private ArrayList<TupleSpillFile> runs;
+    transient private LoserTree merge;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -27,61 +48,182 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields: tuples are
+     * ordered by the first field, ties by the second, and so on.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order per field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascending = asc.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
     }
-    
+
+    /** @return true if the first sort field is ascending */
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascending[0];
     }
-    
+
+    /** @return the first sort field */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
-    
+
+    /** @return the name of the first sort field */
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
+    /** @return all the sort fields, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, whether it is ascending */
+    public boolean[] getAscending() {
+        return ascending.clone();
+    }
+
+    /**
+     * Set the number of bytes of tuples to sort in memory before writing
+     * sorted runs to disk. Takes effect at the next open().
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /** @return the number of runs the last open() wrote to disk */
+    public int numRuns() {
+        return runs == null ? 0 : runs.size();
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        reset();
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        Comparator<Tuple> cmp = new TupleComparator(orderByFields, ascending);
+        long tupleSize = td.getSize() + TUPLE_OVERHEAD;
+        long used = 0;
+        while (child.hasNext()) {
+            childTups.add(child.next());
+            used += tupleSize;
+            if (used >= memoryBudget) {
+                writeRun(cmp);
+                used = 0;
+            }
+        }
+        if (runs.isEmpty()) {
+            Collections.sort(childTups, cmp);
+            it = childTups.iterator();
+        } else {
+            if (!childTups.isEmpty())
+                writeRun(cmp);
+            while (runs.size() > MAX_FAN_IN)
+                mergePass(cmp);
+            merge = new LoserTree(iterators(runs), cmp);
+            merge.open();
+        }
         super.open();
     }
 
+    /** Sort the buffered tuples and write them out as a run. */
+    private void writeRun(Comparator<Tuple> cmp) throws DbException {
+        Collections.sort(childTups, cmp);
+        TupleSpillFile run = new TupleSpillFile(td);
+        for (Tuple t : childTups)
+            run.add(t);
+        runs.add(run);
+        childTups.clear();
+    }
+
+    /** Merge the runs in groups of MAX_FAN_IN into fewer, longer runs. */
+    private void mergePass(Comparator<Tuple> cmp) throws DbException,
+            TransactionAbortedException {
+        ArrayList<TupleSpillFile> merged = new ArrayList<TupleSpillFile>();
+        for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+            List<TupleSpillFile> group = runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()));
+            TupleSpillFile out = new TupleSpillFile(td);
+            LoserTree tree = new LoserTree(iterators(group), cmp);
+            tree.open();
+            while (tree.hasNext())
+                out.add(tree.next());
+            tree.close();
+            for (TupleSpillFile run : group)
+                run.delete();
+            merged.add(out);
+        }
+        runs = merged;
+    }
+
+    private static List<DbFileIterator> iterators(List<TupleSpillFile> files) {
+        ArrayList<DbFileIterator> its = new ArrayList<DbFileIterator>(files.size());
+        for (TupleSpillFile f : files)
+            its.add(f.iterator());
+        return its;
+    }
+
+    /** Drop the tuples and runs of the previous open(). */
+    private void reset() {
+        childTups.clear();
+        it = null;
+        if (merge != null)
+            merge.close();
+        merge = null;
+        if (runs != null)
+            for (TupleSpillFile run : runs)
+                run.delete();
+        runs = new ArrayList<TupleSpillFile>();
+    }
+
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (merge != null)
+            merge.rewind();
+        else
+            it = childTups.iterator();
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merge != null)
+            return merge.hasNext() ? merge.next() : null;
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -100,24 +242,37 @@ public class OrderBy extends Operator {
 
 }
 
+/**
+ * Orders tuples on a list of fields, each ascending or descending.
+ */
 class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+    int[] fields;
+    boolean[] asc;
 
     public TupleComparator(int field, boolean asc) {
-        this.field = field;
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        this.fields = fields;
         this.asc = asc;
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
+        for (int i = 0; i < fields.length; i++) {
+            int c = compare(o1.getField(fields[i]), o2.getField(fields[i]));
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+
+    static int compare(Field t1, Field t2) {
+        if (t1 instanceof IntField && t2 instanceof IntField)
+            return Integer.compare(((IntField) t1).getValue(), ((IntField) t2).getValue());
         if (t1.compare(Predicate.Op.EQUALS, t2))
             return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        return t1.compare(Predicate.Op.GREATER_THAN, t2) ? 1 : -1;
     }
-    
+
 }
@@ -0,0 +1,208 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * PageFileChannel gives a DbFile positional, page-sized access to its
+ * backing file. The file is opened once, on first use, and the FileChannel
+ * is kept for the lifetime of the DbFile; reads and writes use pread/pwrite
+ * style positional calls, so concurrent callers never share a file pointer.
+ * Data is staged through a direct ByteBuffer per thread that is reused
+ * across calls. A FileChannel is closed when a thread blocked on it is
+ * interrupted; the channel is then reopened, and the calls of other threads
+ * that failed because of it are retried.
+ * <p>
+ * Reads may instead be served from a read-only mapping of the file (see
+ * {@link #readMapped}); the mapping is shared with the OS page cache, so it
+ * sees every write made through this channel, and it is replaced when the
+ * file grows past its end.
+ *
+ * @Threadsafe
+ * @see HeapFile
+ * @see BTreeFile
+ */
+public class PageFileChannel {
+
+    /** Per-thread staging buffer, grown when a larger page is requested. */
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BufferPool.getPageSize());
+        }
+    };
+
+    private final File f;
+    private volatile FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+
+    /**
+     * Creates a channel over the given file. Nothing is opened until the
+     * first read, write or size call.
+     *
+     * @param f the file backing a DbFile
+     */
+    public PageFileChannel(File f) {
+        this.f = f;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c == null || !c.isOpen()) {
+            synchronized (this) {
+                c = channel;
+                if (c == null || !c.isOpen()) {
+                    c = new RandomAccessFile(f, "rw").getChannel();
+                    channel = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private static ByteBuffer buffer(int len) {
+        ByteBuffer buf = buffers.get();
+        if (buf.capacity() < len) {
+            buf = ByteBuffer.allocateDirect(len);
+            buffers.set(buf);
+        }
+        buf.clear();
+        buf.limit(len);
+        return buf;
+    }
+
+    /**
+     * Read up to dst.length bytes starting at the given file offset.
+     *
+     * @return the number of bytes read, which is less than dst.length only
+     *         if the end of the file was reached
+     */
+    public int read(long offset, byte[] dst) throws IOException {
+        while (true) {
+            FileChannel c = channel();
+            ByteBuffer buf = buffer(dst.length);
+            try {
+                while (buf.hasRemaining()) {
+                    int n = c.read(buf, offset + buf.position());
+                    if (n < 0)
+                        break;
+                }
+            } catch (ClosedChannelException e) {
+                retryOrThrow(e);
+                continue;
+            }
+            buf.flip();
+            int read = buf.remaining();
+            buf.get(dst, 0, read);
+            return read;
+        }
+    }
+
+    /**
+     * Positional reads and writes can simply be repeated after the channel
+     * was closed under them, unless this thread was the one interrupted.
+     */
+    private static void retryOrThrow(ClosedChannelException e) throws ClosedChannelException {
+        if (e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted())
+            throw e;
+    }
+
+    /**
+     * Write all of src at the given file offset, extending the file if
+     * necessary.
+     */
+    public void write(long offset, byte[] src) throws IOException {
+        while (true) {
+            FileChannel c = channel();
+            ByteBuffer buf = buffer(src.length);
+            buf.put(src);
+            buf.flip();
+            try {
+                while (buf.hasRemaining())
+                    c.write(buf, offset + buf.position());
+                break;
+            } catch (ClosedChannelException e) {
+                retryOrThrow(e);
+            }
+        }
+        // the file grew past the mapped region: map it again on the next read
+        MappedByteBuffer m = mapped;
+        if (m != null && offset + src.length > m.capacity())
+            mapped = null;
+    }
+
+    /**
+     * Like {@link #read}, but copy the bytes out of a read-only mapping of the
+     * whole file instead of issuing a system call. The file is (re)mapped
+     * when the requested range lies beyond the current mapping; ranges that
+     * cannot be mapped (past the end of the file, or beyond the 2GB limit of
+     * a single mapping) fall back to a positional read.
+     *
+     * @return the number of bytes read, which is less than dst.length only
+     *         if the end of the file was reached
+     */
+    public int readMapped(long offset, byte[] dst) throws IOException {
+        MappedByteBuffer m = mapped;
+        if (m == null || offset + dst.length > m.capacity())
+            m = remap(offset + dst.length);
+        if (offset + dst.length > m.capacity())
+            return read(offset, dst);
+        // a private cursor, so that concurrent readers share the mapping
+        ByteBuffer view = m.duplicate();
+        view.position((int) offset);
+        view.get(dst);
+        return dst.length;
+    }
+
+    private synchronized MappedByteBuffer remap(long end) throws IOException {
+        MappedByteBuffer m = mapped;
+        if (m != null && end <= m.capacity())
+            return m;
+        long size = Math.min(channel().size(), Integer.MAX_VALUE);
+        if (m == null || size > m.capacity()) {
+            // the old mapping is released when it is garbage collected
+            m = channel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped = m;
+        }
+        return m;
+    }
+
+    /**
+     * @return the current size of the file in bytes. This is an fstat on the
+     *         open descriptor, so it also sees data appended through other
+     *         handles.
+     */
+    public long size() throws IOException {
+        // don't create the file just to learn that it is empty
+        if (channel == null && !f.exists())
+            return 0;
+        return channel().size();
+    }
+
+    /** Cut the file down to the given size. */
+    public void truncate(long size) throws IOException {
+        if (channel == null && !f.exists())
+            return;
+        channel().truncate(size);
+        MappedByteBuffer m = mapped;
+        if (m != null && size < m.capacity())
+            mapped = null;
+    }
+
+    /** Force written data to the storage device. */
+    public void force() throws IOException {
+        channel().force(false);
+    }
+
+    /** Close the cached descriptor; the next access reopens the file. */
+    public synchronized void close() throws IOException {
+        mapped = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ParallelScan is a morsel-driven parallel scan of a heap file. Several
+ * workers each run their own copy of a pipeline (typically Filters and a
+ * Project) over a {@link SeqScan} that claims page ranges from shared
+ * {@link Morsels}, so the table is read once in all and busy workers take on
+ * more morsels than slow ones. The output of the pipelines is brought
+ * together by a {@link Gather} and returned by this operator in no
+ * particular order.
+ */
+public class ParallelScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Builds the pipeline a worker runs over its scan.
+     */
+    public interface Pipeline extends java.io.Serializable {
+        /**
+         * @param scan a new scan of the table, reading only the pages of the
+         *            morsels it claims
+         * @return the operator tree whose tuples the worker outputs
+         */
+        OpIterator build(SeqScan scan);
+    }
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int numWorkers;
+    private final Pipeline pipeline;
+    private final int morselPages;
+    /** A pipeline like the ones the workers run, for its schema and to explain the plan. */
+    private OpIterator template;
+    /** The scan at the bottom of the pipeline of every worker. */
+    private final SeqScan[] scans;
+    private final Gather gather;
+
+    /**
+     * Creates a parallel scan that runs the pipeline over the table.
+     *
+     * @param tid
+     *            the transaction the scan runs as a part of; all workers
+     *            lock pages for it
+     * @param tableid
+     *            the table to scan, which must be a HeapFile
+     * @param tableAlias
+     *            the alias of the table, as in {@link SeqScan}
+     * @param numWorkers
+     *            the number of pipelines to run in parallel
+     * @param pipeline
+     *            builds the operators each worker applies to its scan
+     */
+    public ParallelScan(TransactionId tid, int tableid, String tableAlias,
+            int numWorkers, Pipeline pipeline) {
+        this(tid, tableid, tableAlias, numWorkers, pipeline, Morsels.DEFAULT_PAGES);
+    }
+
+    /**
+     * Creates a parallel scan that returns the tuples of the table.
+     *
+     * @see #ParallelScan(TransactionId, int, String, int, Pipeline)
+     */
+    public ParallelScan(TransactionId tid, int tableid, String tableAlias, int numWorkers) {
+        this(tid, tableid, tableAlias, numWorkers, scan -> scan);
+    }
+
+    /**
+     * Creates a parallel scan that hands out morsels of the given number
+     * of pages.
+     *
+     * @see #ParallelScan(TransactionId, int, String, int, Pipeline)
+     */
+    public ParallelScan(TransactionId tid, int tableid, String tableAlias,
+            int numWorkers, Pipeline pipeline, int morselPages) {
+        if (numWorkers <= 0)
+            throw new IllegalArgumentException("need at least one worker");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.numWorkers = numWorkers;
+        this.pipeline = pipeline;
+        this.morselPages = morselPages;
+        this.template = pipeline.build(new SeqScan(tid, tableid, tableAlias));
+        this.scans = new SeqScan[numWorkers];
+        OpIterator[] pipelines = new OpIterator[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            scans[i] = new SeqScan(tid, tableid, tableAlias);
+            pipelines[i] = pipeline.build(scans[i]);
+        }
+        this.gather = new Gather(pipelines);
+    }
+
+    /** @return the number of pipelines run in parallel */
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    /** @return the pipeline every worker runs over its scan */
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    /** @return the id of the table scanned */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the name of the table scanned */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table scanned */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return template.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile))
+            throw new DbException("only heap files can be scanned in parallel");
+        Morsels morsels = new Morsels(((HeapFile) file).numPages(), morselPages);
+        for (SeqScan scan : scans)
+            scan.setMorsels(morsels);
+        gather.open();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return gather.hasNext() ? gather.next() : null;
+    }
+
+    /**
+     * Stop the workers and wait for them to finish, so none of them touches
+     * a page after this returns.
+     */
+    public void close() {
+        super.close();
+        gather.close();
+    }
+
+    /** Scans the table again, with new workers. */
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { template };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.template = children[0];
+    }
+}
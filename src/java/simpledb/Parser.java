@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -182,23 +184,20 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.addElement(groupByField);
+                lp.addGroupBy(groupByField);
             }
 
         }
@@ -207,8 +206,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +216,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, null);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,30 +237,24 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -273,12 +263,44 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /**
+     * ZQL does not know LIMIT, so a "LIMIT n" ending a statement is cut off
+     * before ZQL parses it and added to the logical plan afterwards.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+limit\\s+(\\d+)\\s*(?=;|$)", Pattern.CASE_INSENSITIVE);
+    /** The LIMIT of the statement being processed, or LogicalPlan.NO_LIMIT. */
+    private int limit = LogicalPlan.NO_LIMIT;
+
+    /**
+     * Remove the LIMIT clause at the end of the first statement in s and
+     * remember its value for {@link #handleQueryStatement}.
+     *
+     * @return s without the LIMIT clause
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        limit = LogicalPlan.NO_LIMIT;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        int end = s.indexOf(';');
+        if (!m.find() || (end >= 0 && m.start() > end))
+            return s;
+        try {
+            limit = Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT too large: " + m.group(1));
+        }
+        return s.substring(0, m.start()) + s.substring(m.end());
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit != LogicalPlan.NO_LIMIT)
+            lp.addLimit(limit);
+        limit = LogicalPlan.NO_LIMIT;
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -465,12 +487,16 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
+        s = stripLimit(s);
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit != LogicalPlan.NO_LIMIT)
+                    lp.addLimit(limit);
+                limit = LogicalPlan.NO_LIMIT;
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -484,6 +510,47 @@ public class Parser {
                 "Cannot generate logical plan for expression : " + s);
     }
 
+    /**
+     * Parse a single SELECT, INSERT or DELETE statement into a query run as
+     * a part of tid, without running it or printing its plan.
+     *
+     * @see QueryService#submit(String, java.util.function.Consumer)
+     */
+    public Query parseStatement(TransactionId tid, String s)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException {
+        String text = stripLimit(s);
+        try {
+            ZStatement stmt = new ZqlParser(new ByteArrayInputStream(
+                    text.getBytes("UTF-8"))).readStatement();
+            if (limit != LogicalPlan.NO_LIMIT && !(stmt instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "LIMIT is only supported on queries");
+            if (stmt instanceof ZInsert)
+                return handleInsertStatement((ZInsert) stmt, tid);
+            if (stmt instanceof ZDelete)
+                return handleDeleteStatement((ZDelete) stmt, tid);
+            if (!(stmt instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "Only insert, delete and select statements can be run as queries");
+            LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+            if (limit != LogicalPlan.NO_LIMIT)
+                lp.addLimit(limit);
+            Query query = new Query(tid);
+            query.setPhysicalPlan(lp.physicalPlan(tid, TableStats.getStatsMap(), false));
+            query.setLogicalPlan(lp);
+            return query;
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException(
+                    "Invalid SQL expression: \n \t " + e);
+        } catch (Zql.TokenMgrError e) {
+            throw new simpledb.ParsingException(
+                    "Invalid SQL expression: \n \t " + e);
+        } finally {
+            limit = LogicalPlan.NO_LIMIT;
+        }
+    }
+
     public void setTransaction(Transaction t) {
         curtrans = t;
     }
@@ -503,8 +570,13 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            String text = stripLimit(readFully(is));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    text.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
+            if (limit != LogicalPlan.NO_LIMIT && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "LIMIT is only supported on queries");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -578,10 +650,19 @@ public class Parser {
         }
     }
 
+    private static String readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0)
+            out.write(buf, 0, n);
+        return out.toString("UTF-8");
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.io.*;
+import java.net.Socket;
+import java.text.ParseException;
+import java.util.function.Consumer;
+
+/**
+ * QueryClient runs statements on a {@link QueryServer}, one at a time,
+ * streaming their result tuples back as the server sends them.
+ */
+public class QueryClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    /** Frames are written under its monitor. */
+    private final DataOutputStream out;
+    /** The schema of the result of the last statement. */
+    private TupleDesc schema;
+
+    /**
+     * Connects to a server.
+     *
+     * @param host the host the server runs on
+     * @param port the port the server listens on
+     */
+    public QueryClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Runs a statement on the server.
+     *
+     * @param sql the statement to run
+     * @param sink receives the result tuples, as they arrive
+     * @return the number of result tuples
+     * @throws DbException if the statement failed or was cancelled
+     */
+    public int execute(String sql, Consumer<Tuple> sink) throws IOException, DbException {
+        synchronized (out) {
+            QueryServer.writeFrame(out, QueryServer.QUERY, sql.getBytes("UTF-8"));
+        }
+        schema = null;
+        TupleDesc td = null;
+        byte[] type = new byte[1];
+        while (true) {
+            byte[] payload = QueryServer.readFrame(in, type);
+            if (payload == null)
+                throw new EOFException("server closed the connection");
+            DataInputStream d = new DataInputStream(new ByteArrayInputStream(payload));
+            switch (type[0]) {
+            case QueryServer.SCHEMA:
+                td = readSchema(d);
+                break;
+            case QueryServer.ROWS:
+                if (td == null)
+                    throw new IOException("rows before the schema");
+                int n = d.readInt();
+                for (int i = 0; i < n; i++)
+                    sink.accept(readTuple(td, d));
+                break;
+            case QueryServer.END:
+                if (td == null)
+                    throw new IOException("end before the schema");
+                schema = td;
+                return d.readInt();
+            case QueryServer.ERROR:
+                throw new DbException(new String(payload, "UTF-8"));
+            default:
+                throw new IOException("unknown frame type " + type[0]);
+            }
+        }
+    }
+
+    /**
+     * @return the schema of the result of the last statement that ran, or
+     *         null if it failed
+     */
+    public TupleDesc getResultTupleDesc() {
+        return schema;
+    }
+
+    /**
+     * Cancels the running statement, whose execute then throws. May be
+     * called from any thread.
+     */
+    public void cancel() throws IOException {
+        synchronized (out) {
+            QueryServer.writeFrame(out, QueryServer.CANCEL, new byte[0]);
+        }
+    }
+
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private static TupleDesc readSchema(DataInputStream d) throws IOException {
+        int n = d.readInt();
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            types[i] = Type.values()[d.readByte()];
+            names[i] = d.readUTF();
+        }
+        return new TupleDesc(types, names);
+    }
+
+    private static Tuple readTuple(TupleDesc td, DataInputStream d) throws IOException {
+        Tuple t = new Tuple(td);
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.setField(i, td.getFieldType(i).parse(d));
+        } catch (ParseException e) {
+            throw new IOException("bad tuple", e);
+        }
+        return t;
+    }
+}
@@ -15,6 +15,8 @@ public class QueryPlanVisualizer {
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String LIMIT = "limit";
+    static final String PARALLEL = "parallel";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(OpIterator root) {
@@ -170,16 +172,25 @@ public class QueryPlanVisualizer {
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                TupleDesc childTd = children[0].getTupleDesc();
+                int[] gfields = a.groupFields();
+                int[] afields = a.aggregateFields();
+                Aggregator.Op[] aops = a.aggregateOps();
+                String aggs = "";
+                for (int i = 0; i < afields.length; i++)
+                    aggs += (i > 0 ? ", " : "") + aops[i] + "("
+                            + childTd.getFieldName(afields[i]) + ")";
 
-                if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                if (gfields.length == 0) {
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    String groups = "";
+                    for (int i = 0; i < gfields.length; i++)
+                        groups += (i > 0 ? "," : "") + childTd.getFieldName(gfields[i]);
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, groups, aggs, a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -238,6 +249,39 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit
+                    || plan instanceof ParallelScan) {
+                String name;
+                if (plan instanceof ParallelScan) {
+                    name = PARALLEL;
+                    thisNode.text = String.format("%1$s(%2$d workers),card:%3$d", PARALLEL,
+                            ((ParallelScan) plan).getNumWorkers(), plan.getEstimatedCardinality());
+                } else if (plan instanceof TopN) {
+                    TopN t = (TopN) plan;
+                    name = ORDERBY;
+                    thisNode.text = String.format("%1$s(%2$s),limit:%3$d,card:%4$d",
+                            ORDERBY, children[0].getTupleDesc().getFieldName(
+                                    t.getOrderByFields()[0]), t.getLimit(),
+                            t.getEstimatedCardinality());
+                } else {
+                    name = LIMIT;
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d", LIMIT,
+                            ((Limit) plan).getLimit(), plan.getEstimatedCardinality());
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (name.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = name.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - name.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
@@ -261,15 +305,9 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
-                String name="Exchange";
-                int card=0;
-                try {
-                    name = (String) plan.getClass().getMethod("getName").invoke(plan);
-                    card = (Integer) plan.getClass().getMethod("getEstimatedCardinality").invoke(plan);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } 
+            else if (plan instanceof Exchange) {
+                String name = ((Exchange) plan).getName();
+                int card = plan.getEstimatedCardinality();
 
                 thisNode.text = String.format("%1$s,card:%2$d", name,card);
                 int upBarShift = parentUpperBarStartShift;
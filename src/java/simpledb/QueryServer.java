@@ -0,0 +1,332 @@
+package simpledb;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * QueryServer serves SQL statements over TCP, so that clients share one
+ * running database, with a warm BufferPool and computed TableStats, instead
+ * of each starting its own. Every connection is handled by a thread of its
+ * own, and every statement runs on the {@link QueryService} of the server.
+ * <p>
+ * Client and server exchange frames: a type byte, the length of the
+ * payload as an int, and the payload. The client sends
+ * <ul>
+ * <li>{@link #QUERY}: a statement in UTF-8. One statement runs at a time
+ * per connection.</li>
+ * <li>{@link #CANCEL}: no payload; cancels the running statement.</li>
+ * </ul>
+ * For each QUERY, the server answers with
+ * <ul>
+ * <li>{@link #SCHEMA}, before the first rows, or before the END of a
+ * statement without any: the number of fields, then for each its type (the
+ * ordinal of its {@link Type}) as a byte and its name as by
+ * {@link DataOutput#writeUTF}.</li>
+ * <li>{@link #ROWS}: the number of tuples as an int, then the tuples, each
+ * field written by {@link Field#serialize}. Rows stream back in batches of
+ * up to {@link #BATCH_ROWS}, and of no more than {@link #MAX_FRAME} bytes,
+ * while the statement runs.</li>
+ * <li>{@link #END}: the number of rows, once the statement has
+ * committed.</li>
+ * <li>{@link #ERROR}: a message in UTF-8, if the statement failed or was
+ * cancelled; it has been aborted.</li>
+ * </ul>
+ *
+ * @see QueryClient
+ */
+public class QueryServer implements Closeable {
+
+    public static final byte QUERY = 1;
+    public static final byte CANCEL = 2;
+    public static final byte SCHEMA = 16;
+    public static final byte ROWS = 17;
+    public static final byte END = 18;
+    public static final byte ERROR = 19;
+
+    /** Most tuples sent in one ROWS frame. */
+    public static final int BATCH_ROWS = 256;
+
+    /** Longest frame payload either side accepts, in bytes. */
+    public static final int MAX_FRAME = 1 << 20;
+
+    private final QueryService service;
+    private final ServerSocket socket;
+    private final ExecutorService connections = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "simpledb-connection");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Set<Connection> open = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a server listening on a port; it accepts connections once
+     * started.
+     *
+     * @param port the port to listen on, or 0 for any free port
+     * @param service runs the statements of all connections
+     */
+    public QueryServer(int port, QueryService service) throws IOException {
+        this.service = service;
+        this.socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(port));
+    }
+
+    /** @return the port the server listens on */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /** Accept connections on a thread of their own. */
+    public void start() {
+        connections.execute(this::accept);
+    }
+
+    /**
+     * Stop accepting connections, and close the open ones, cancelling their
+     * running statements.
+     */
+    public void close() throws IOException {
+        socket.close();
+        for (Connection c : open)
+            c.close();
+        connections.shutdownNow();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                final Connection c = new Connection(socket.accept());
+                open.add(c);
+                if (socket.isClosed())
+                    c.close(); // close may have missed it
+                connections.execute(c::serve);
+            }
+        } catch (IOException e) {
+            // the server socket was closed
+        }
+    }
+
+    /** Write a frame with the given payload. */
+    static void writeFrame(DataOutputStream out, byte type, byte[] payload)
+            throws IOException {
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * Read a frame.
+     *
+     * @return the payload of the frame, after its type in type[0], or null
+     *         at the end of the stream
+     */
+    static byte[] readFrame(DataInputStream in, byte[] type) throws IOException {
+        int t = in.read();
+        if (t < 0)
+            return null;
+        type[0] = (byte) t;
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME)
+            throw new IOException("bad frame length " + length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    /** The statements of one client. */
+    private final class Connection {
+        private final Socket s;
+        /** Frames are written under its monitor. */
+        private DataOutputStream out;
+        /** The running statement, or null. */
+        private volatile Statement running;
+
+        Connection(Socket s) {
+            this.s = s;
+        }
+
+        void serve() {
+            try {
+                s.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                byte[] type = new byte[1];
+                byte[] payload;
+                while ((payload = readFrame(in, type)) != null) {
+                    if (type[0] == QUERY)
+                        submit(new String(payload, "UTF-8"));
+                    else if (type[0] == CANCEL)
+                        cancel();
+                    else
+                        error("unknown frame type " + type[0]);
+                }
+            } catch (SocketException e) {
+                // the client went away
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                // a client that goes away takes its statement with it
+                close();
+                open.remove(this);
+            }
+        }
+
+        /** Cancel the running statement and close the socket. */
+        void close() {
+            cancel();
+            try {
+                s.close();
+            } catch (IOException e) {
+            }
+        }
+
+        private void submit(String sql) throws IOException {
+            if (running != null) {
+                error("a statement is already running");
+                return;
+            }
+            Statement st = new Statement();
+            running = st;
+            st.execution = service.submit(sql, st::add);
+            st.execution.whenDone(st::finish);
+        }
+
+        private void cancel() {
+            Statement st = running;
+            if (st != null && st.execution != null)
+                st.execution.cancel();
+        }
+
+        private void error(String message) throws IOException {
+            synchronized (out) {
+                writeFrame(out, ERROR, message.getBytes("UTF-8"));
+            }
+        }
+
+        /** A statement of the client, and its rows not sent yet. */
+        private final class Statement {
+            volatile QueryService.Execution execution;
+            private final List<Tuple> batch = new ArrayList<Tuple>(BATCH_ROWS);
+            /** Bytes the batch takes in a ROWS frame. */
+            private int batchBytes = 4;
+            private boolean schemaSent;
+
+            /** Sink of the statement, on its thread. */
+            void add(Tuple t) {
+                int size = t.getTupleDesc().getSize();
+                if (4 + size > MAX_FRAME)
+                    throw new IllegalStateException("tuple of " + size
+                            + " bytes is too large to send");
+                try {
+                    // wide tuples fill a frame before BATCH_ROWS of them do
+                    if (batchBytes + size > MAX_FRAME)
+                        flush();
+                    batch.add(t);
+                    batchBytes += size;
+                    if (batch.size() == BATCH_ROWS)
+                        flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            private void flush() throws IOException {
+                synchronized (out) {
+                    sendRows();
+                }
+            }
+
+            void finish() {
+                try {
+                    synchronized (out) {
+                        // the client may send its next statement once it
+                        // reads the END or ERROR, which no other frame can
+                        // come before while this holds out
+                        running = null;
+                        int rows;
+                        try {
+                            rows = execution.await();
+                        } catch (CancellationException e) {
+                            error("statement cancelled");
+                            return;
+                        } catch (Exception e) {
+                            error(e.getMessage() != null ? e.getMessage() : e.toString());
+                            return;
+                        }
+                        if (!batch.isEmpty())
+                            sendRows();
+                        else if (!schemaSent)
+                            sendSchema(execution.getTupleDesc());
+                        ByteArrayOutputStream b = new ByteArrayOutputStream();
+                        new DataOutputStream(b).writeInt(rows);
+                        writeFrame(out, END, b.toByteArray());
+                    }
+                } catch (IOException e) {
+                    // the client went away; serve notices
+                }
+            }
+
+            private void sendSchema(TupleDesc td) throws IOException {
+                writeFrame(out, SCHEMA, schema(td));
+                schemaSent = true;
+            }
+
+            private void sendRows() throws IOException {
+                if (!schemaSent)
+                    sendSchema(batch.get(0).getTupleDesc());
+                ByteArrayOutputStream b = new ByteArrayOutputStream();
+                DataOutputStream d = new DataOutputStream(b);
+                d.writeInt(batch.size());
+                for (Tuple t : batch)
+                    for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                        t.getField(i).serialize(d);
+                writeFrame(out, ROWS, b.toByteArray());
+                batch.clear();
+                batchBytes = 4;
+            }
+        }
+    }
+
+    private static byte[] schema(TupleDesc td) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(b);
+        d.writeInt(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            d.writeByte(td.getFieldType(i).ordinal());
+            String name = td.getFieldName(i);
+            d.writeUTF(name == null ? "" : name);
+        }
+        return b.toByteArray();
+    }
+
+    static final String usage = "Usage: server catalogFile [port]";
+
+    /** The port the server listens on unless told otherwise. */
+    public static final int DEFAULT_PORT = 8765;
+
+    public static void main(String[] argv) throws IOException, InterruptedException {
+        if (argv.length < 1 || argv.length > 2) {
+            System.out.println("Invalid number of arguments.\n" + usage);
+            System.exit(0);
+        }
+        Database.getCatalog().loadSchema(argv[0]);
+        TableStats.computeStatistics();
+        int port = argv.length > 1 ? Integer.parseInt(argv[1]) : DEFAULT_PORT;
+        QueryServer server = new QueryServer(port, new QueryService());
+        server.start();
+        System.out.println("Listening on port " + server.getPort());
+        Thread.currentThread().join();
+    }
+}
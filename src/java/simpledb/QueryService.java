@@ -0,0 +1,381 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * QueryService runs queries concurrently, each on a thread of its own, and
+ * hands their tuples to a sink instead of printing them. Threads are cheap
+ * to reuse, so a query waiting for a lock or a page does not hold up any
+ * other.
+ * <p>
+ * Admission is bounded by the working memory of the operators: every query
+ * reserves what its plan may hold at once before it starts, and waits while
+ * the queries already running hold too much. Memory is counted in pages of
+ * {@link BufferPool#getPageSize()} bytes; a plan reserves the memory budget
+ * of each of its joins, sorts and aggregates, and one page for each scan,
+ * which holds on to the page it is reading (see {@link #estimatePages}).
+ * So a service guarantees that the operators of its running queries never
+ * hold more than {@link #getMemoryPages()} pages between them. It does not
+ * bound the buffer pool, which is shared and of a fixed size, nor the pages
+ * a write dirties, which stay in the pool until its transaction commits.
+ * <p>
+ * A query can be cancelled at any time; its thread is interrupted, which
+ * stops the operator tree at its next page or lock and closes it.
+ *
+ * @Threadsafe
+ */
+public class QueryService {
+
+    /** A query reserves what its plan estimates unless told otherwise. */
+    private static final int ESTIMATE = 0;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final int memoryPages;
+    private final Semaphore memory;
+    private final ExecutorService threads;
+    private final Set<Execution> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a service admitting queries while they reserve no more than
+     * half of the maximum heap.
+     */
+    public QueryService() {
+        this((int) Math.min(Integer.MAX_VALUE,
+                Runtime.getRuntime().maxMemory() / 2 / BufferPool.getPageSize()));
+    }
+
+    /**
+     * Creates a service admitting queries while they reserve no more than
+     * memoryPages pages in all. A query that needs more than that runs
+     * alone.
+     *
+     * @param memoryPages the number of pages the running queries may reserve
+     */
+    public QueryService(int memoryPages) {
+        if (memoryPages <= 0)
+            throw new IllegalArgumentException("need at least one page");
+        this.memoryPages = memoryPages;
+        this.memory = new Semaphore(memoryPages, true);
+        this.threads = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "simpledb-query-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** @return the number of pages the running queries may reserve in all */
+    public int getMemoryPages() {
+        return memoryPages;
+    }
+
+    /** @return the number of pages not reserved by a running query */
+    public int getAvailablePages() {
+        return memory.availablePermits();
+    }
+
+    /**
+     * Runs a SELECT, INSERT or DELETE statement in a transaction of its own,
+     * committed once all tuples are sunk, and aborted if the statement fails
+     * or is cancelled. The statement reserves the pages its plan estimates.
+     *
+     * @param sql the statement to run
+     * @param sink receives the result tuples, on the thread of the query
+     * @return the execution of the statement
+     */
+    public Execution submit(String sql, Consumer<Tuple> sink) {
+        return start(new Execution(sql, null, ESTIMATE, sink));
+    }
+
+    /**
+     * Runs a statement, reserving the given number of pages for it.
+     *
+     * @see #submit(String, Consumer)
+     */
+    public Execution submit(String sql, int pages, Consumer<Tuple> sink) {
+        checkPages(pages);
+        return start(new Execution(sql, null, pages, sink));
+    }
+
+    /**
+     * Runs a query as a part of its transaction, which is left for the
+     * caller to complete. The query reserves the pages its plan estimates.
+     *
+     * @param query the query to run
+     * @param sink receives the result tuples, on the thread of the query
+     * @return the execution of the query
+     */
+    public Execution submit(Query query, Consumer<Tuple> sink) {
+        return start(new Execution(null, query, ESTIMATE, sink));
+    }
+
+    /**
+     * Runs a query, reserving the given number of pages for it.
+     *
+     * @see #submit(Query, Consumer)
+     */
+    public Execution submit(Query query, int pages, Consumer<Tuple> sink) {
+        checkPages(pages);
+        return start(new Execution(null, query, pages, sink));
+    }
+
+    private static void checkPages(int pages) {
+        if (pages <= 0)
+            throw new IllegalArgumentException("a query needs at least one page");
+    }
+
+    /**
+     * Estimates the pages a plan may hold at once: the memory budget of
+     * each join, sort and aggregate, and one page for each scan. Every
+     * operator is counted once, however many outputs share it, and the
+     * pipeline of a {@link ParallelScan} once per worker running a copy.
+     *
+     * @param plan the root of the plan
+     * @return the number of pages to reserve for it, at least one
+     */
+    public static int estimatePages(OpIterator plan) {
+        long bytes = estimateBytes(plan,
+                Collections.newSetFromMap(new IdentityHashMap<OpIterator, Boolean>()));
+        long pageSize = BufferPool.getPageSize();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (bytes + pageSize - 1) / pageSize));
+    }
+
+    private static long estimateBytes(OpIterator op, Set<OpIterator> seen) {
+        if (op == null || !seen.add(op))
+            return 0;
+        if (!(op instanceof Operator))
+            return BufferPool.getPageSize();
+        if (op instanceof ParallelScan) {
+            // its child is a template; every worker runs a copy of it
+            ParallelScan scan = (ParallelScan) op;
+            return scan.getNumWorkers() * estimateBytes(scan.getChildren()[0], seen);
+        }
+        long bytes = 0;
+        if (op instanceof HashEquiJoin)
+            bytes = ((HashEquiJoin) op).getMemoryBudget();
+        else if (op instanceof Join)
+            bytes = ((Join) op).getMemoryBudget();
+        else if (op instanceof OrderBy)
+            bytes = ((OrderBy) op).getMemoryBudget();
+        else if (op instanceof Aggregate)
+            bytes = ((Aggregate) op).getMemoryBudget();
+        OpIterator[] children = ((Operator) op).getChildren();
+        if (children != null)
+            for (OpIterator child : children)
+                bytes += estimateBytes(child, seen);
+        return bytes;
+    }
+
+    private Execution start(Execution e) {
+        running.add(e);
+        try {
+            threads.execute(e::run);
+        } catch (RuntimeException ex) {
+            running.remove(e);
+            throw ex;
+        }
+        return e;
+    }
+
+    /** Cancels all queries and stops accepting new ones. */
+    public void shutdown() {
+        threads.shutdown();
+        for (Execution e : running)
+            e.cancel();
+    }
+
+    /**
+     * The execution of a submitted query: lets the caller wait for it and
+     * cancel it.
+     */
+    public final class Execution {
+        private final String sql;
+        private final Query query;
+        private final int pages;
+        private final Consumer<Tuple> sink;
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        /** The thread running the query; guarded by this. */
+        private Thread runner;
+        /** Run once the query is done; guarded by this. */
+        private final List<Runnable> listeners = new ArrayList<Runnable>();
+        private volatile boolean cancelled;
+        private volatile boolean started;
+        private volatile TransactionId tid;
+        private volatile TupleDesc td;
+        private volatile int rows;
+        private volatile Throwable error;
+
+        private Execution(String sql, Query query, int pages, Consumer<Tuple> sink) {
+            this.sql = sql;
+            this.query = query;
+            this.pages = pages;
+            this.sink = sink;
+        }
+
+        /**
+         * Stops the query, interrupting its operator tree. A query that has
+         * not been admitted yet is never started.
+         */
+        public synchronized void cancel() {
+            cancelled = true;
+            if (runner != null)
+                runner.interrupt();
+        }
+
+        /** @return true if cancel was called */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** @return true once the query has finished, failed or been cancelled */
+        public boolean isDone() {
+            return finished.getCount() == 0;
+        }
+
+        /**
+         * Runs r once the query has finished, failed or been cancelled: on
+         * the thread of the query, or right away if it is done already.
+         */
+        public void whenDone(Runnable r) {
+            synchronized (this) {
+                if (!isDone()) {
+                    listeners.add(r);
+                    return;
+                }
+            }
+            r.run();
+        }
+
+        /** @return the number of tuples sunk so far */
+        public int getRowCount() {
+            return rows;
+        }
+
+        /** @return the transaction the query runs in, or null before it starts */
+        public TransactionId getTransactionId() {
+            return tid;
+        }
+
+        /** @return the schema of the result tuples, or null before it starts */
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        /**
+         * Waits for the query to finish.
+         *
+         * @return the number of tuples sunk
+         * @throws CancellationException if the query was cancelled before it
+         *             finished
+         * @throws DbException if the query failed
+         * @throws TransactionAbortedException if the transaction of the
+         *             query was aborted
+         * @throws ParsingException if the statement could not be parsed
+         */
+        public int await() throws InterruptedException, DbException,
+                TransactionAbortedException, ParsingException {
+            finished.await();
+            Throwable e = error;
+            if (cancelled && (e != null || !started))
+                throw new CancellationException("query cancelled");
+            if (e == null)
+                return rows;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof ParsingException)
+                throw (ParsingException) e;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e instanceof Error)
+                throw (Error) e;
+            throw new DbException(e.toString());
+        }
+
+        /** @return false if the query was cancelled before it began */
+        private synchronized boolean begin() {
+            runner = Thread.currentThread();
+            return !cancelled;
+        }
+
+        /** Stop taking interrupts, so none reaches the end of the transaction. */
+        private synchronized void end() {
+            runner = null;
+            Thread.interrupted();
+        }
+
+        private void run() {
+            Transaction t = null;
+            int reserved = 0;
+            try {
+                if (!begin())
+                    return;
+                Query q = query;
+                if (q == null) {
+                    t = new Transaction();
+                    t.start();
+                    q = new Parser().parseStatement(t.getId(), sql);
+                }
+                int need = pages == ESTIMATE ? estimatePages(q.getPhysicalPlan()) : pages;
+                need = Math.min(need, memoryPages);
+                memory.acquire(need);
+                reserved = need;
+                started = true;
+                tid = q.getTransactionId();
+                td = q.getOutputTupleDesc();
+                q.start();
+                try {
+                    while (q.hasNext()) {
+                        sink.accept(q.next());
+                        rows++;
+                    }
+                } finally {
+                    q.close();
+                }
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                end();
+                if (t != null) {
+                    try {
+                        t.transactionComplete(error != null);
+                    } catch (IOException e) {
+                        if (error == null)
+                            error = e;
+                    }
+                }
+                if (reserved > 0)
+                    memory.release(reserved);
+                running.remove(this);
+                finished.countDown();
+                List<Runnable> done;
+                synchronized (this) {
+                    done = new ArrayList<Runnable>(listeners);
+                    listeners.clear();
+                }
+                for (Runnable r : done) {
+                    try {
+                        r.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+}
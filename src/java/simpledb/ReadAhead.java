@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReadAhead prefetches the pages of a file into the BufferPool ahead of a
+ * sequential scan, so that reading the next pages overlaps with processing
+ * the current one. A DbFileIterator reports every page it moves to with
+ * {@link #pageAccessed}; once two consecutive pages have been visited, the
+ * following pages are handed to a shared background I/O executor.
+ * <p>
+ * The read-ahead window K adapts to the scan: it is the number of pages the
+ * consumer gets through while one page is read from disk (the observed time
+ * per page read divided by the observed time the consumer spends per page),
+ * plus one, bounded by {@link #MIN_WINDOW}, {@link #MAX_WINDOW} and a quarter
+ * of the buffer pool. A fast consumer over a slow disk thus gets a deep
+ * window, and a slow consumer does not flood the pool.
+ * <p>
+ * Read-ahead is on unless the system property simpledb.ReadAhead is
+ * "false".
+ *
+ * @see BufferPool#prefetchPage
+ */
+public class ReadAhead {
+
+    /** Smallest read-ahead window, in pages. */
+    public static final int MIN_WINDOW = 2;
+
+    /** Largest read-ahead window, in pages. */
+    public static final int MAX_WINDOW = 64;
+
+    /** Number of background threads issuing prefetch reads. */
+    private static final int IO_THREADS = 2;
+
+    private static final boolean enabled =
+            !"false".equalsIgnoreCase(System.getProperty("simpledb.ReadAhead"));
+
+    private static final ExecutorService io = Executors.newFixedThreadPool(IO_THREADS, r -> {
+        Thread t = new Thread(r, "read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Prefetch reads handed to the executor and not finished yet. */
+    private static final AtomicInteger pending = new AtomicInteger();
+
+    /** Moving average of the time to read one page from disk, in nanoseconds. */
+    private static volatile long readNanos = 0;
+
+    private final int tableId;
+    private final int numPages;
+
+    private int lastPage = -1;
+    private long lastAccess = 0;
+    /** Moving average of the time the consumer spends on a page. */
+    private long consumeNanos = 0;
+    /** Pages up to and including this one have been handed to the executor. */
+    private int issued = -1;
+
+    /**
+     * @param tableId the table being scanned
+     * @param numPages the number of pages of the table when the scan started
+     */
+    public ReadAhead(int tableId, int numPages) {
+        this.tableId = tableId;
+        this.numPages = numPages;
+    }
+
+    /** Forget the access history, e.g. when the scan is rewound. */
+    public void reset() {
+        lastPage = -1;
+        lastAccess = 0;
+        issued = -1;
+    }
+
+    /**
+     * Record that the scan moved to the given page, and prefetch the pages
+     * after it if the scan is sequential.
+     *
+     * @param pageNo the number of the page the scan is about to read
+     */
+    public void pageAccessed(int pageNo) {
+        long now = System.nanoTime();
+        boolean sequential = pageNo == lastPage + 1 && lastPage >= 0;
+        if (sequential) {
+            long elapsed = now - lastAccess;
+            consumeNanos = consumeNanos == 0 ? elapsed : (consumeNanos * 3 + elapsed) / 4;
+        } else {
+            issued = pageNo;
+        }
+        lastPage = pageNo;
+        lastAccess = now;
+        if (!enabled || !sequential)
+            return;
+
+        BufferPool bp = Database.getBufferPool();
+        int last = Math.min(numPages - 1, pageNo + window(bp));
+        for (int p = Math.max(issued, pageNo) + 1; p <= last; p++) {
+            if (!submit(bp, new HeapPageId(tableId, p)))
+                break;
+            issued = p;
+        }
+    }
+
+    /** @return the read-ahead window for the current rates */
+    int window(BufferPool bp) {
+        int k = MIN_WINDOW;
+        long read = readNanos;
+        if (read > 0 && consumeNanos > 0)
+            k = (int) Math.min(MAX_WINDOW, read / consumeNanos + 1);
+        k = Math.max(MIN_WINDOW, k);
+        return Math.max(1, Math.min(k, bp.getNumPages() / 4));
+    }
+
+    /**
+     * Wait until every prefetch read handed to the executor so far has
+     * finished.
+     *
+     * @param millis the longest time to wait
+     * @return false if reads were still pending when the time ran out
+     */
+    static boolean awaitIdle(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        synchronized (pending) {
+            while (pending.get() > 0) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0)
+                    return false;
+                pending.wait(left);
+            }
+        }
+        return true;
+    }
+
+    private static void done() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    private static boolean submit(final BufferPool bp, final PageId pid) {
+        pending.incrementAndGet();
+        try {
+            io.execute(() -> {
+                try {
+                    long start = System.nanoTime();
+                    try {
+                        if (!bp.prefetchPage(pid))
+                            return;
+                    } catch (RuntimeException e) {
+                        // the table went away or shrank under the scan; the
+                        // consumer reports the error if it reads the page itself
+                        return;
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    long avg = readNanos;
+                    readNanos = avg == 0 ? elapsed : (avg * 7 + elapsed) / 8;
+                } finally {
+                    done();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            done();
+            return false;
+        }
+    }
+}
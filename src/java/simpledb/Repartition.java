@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * Repartition is one output of an exchange that spreads the tuples of its
+ * inputs over several outputs, each read by its own thread: by the hash of
+ * a field, so that equal values meet in the same output, or by sending
+ * every tuple to every output (broadcast). All the outputs of an exchange
+ * must be opened and closed, and none of them can be rewound.
+ */
+public class Repartition extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+
+    private Repartition(Producers producers, int output, String name) {
+        super(producers, output);
+        this.name = name;
+    }
+
+    private static Repartition[] outputs(Producers producers, String name) {
+        Repartition[] outputs = new Repartition[producers.numOutputs()];
+        for (int i = 0; i < outputs.length; i++)
+            outputs[i] = new Repartition(producers, i, name);
+        return outputs;
+    }
+
+    /**
+     * Hash partition the tuples of the inputs on a field.
+     *
+     * @param inputs the operators to read, each on its own worker; all must
+     *            have the same TupleDesc
+     * @param field the field to partition on
+     * @param n the number of partitions
+     * @return the partitions; tuples with equal values of field are in the
+     *         same one
+     */
+    public static Repartition[] hash(OpIterator[] inputs, int field, int n) {
+        return outputs(new Producers(inputs, Routing.HASH, field, n),
+                "hash(" + inputs[0].getTupleDesc().getFieldName(field) + ")");
+    }
+
+    /**
+     * Send all tuples of the inputs to each of n outputs.
+     *
+     * @param inputs the operators to read, each on its own worker; all must
+     *            have the same TupleDesc
+     * @param n the number of outputs
+     * @return the outputs, each returning every tuple of the inputs
+     */
+    public static Repartition[] broadcast(OpIterator[] inputs, int n) {
+        return outputs(new Producers(inputs, Routing.BROADCAST, -1, n), "broadcast");
+    }
+
+    public String getName() {
+        return name;
+    }
+}
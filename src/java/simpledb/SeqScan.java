@@ -15,6 +15,8 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator itr;
+    private Predicate predicate;
+    private Morsels morsels;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -79,9 +81,43 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Only return the tuples that satisfy a predicate. Heap files evaluate
+     * it against the page bytes, so rows it rejects are never materialized.
+     * Takes effect the next time the scan is opened.
+     *
+     * @param p the predicate, over the fields of this scan; null for none
+     */
+    public void setPredicate(Predicate p) {
+        this.predicate = p;
+    }
+
+    /**
+     * Only scan the pages claimed from morsels shared with other scans of
+     * the same table, which run in parallel and together read the table
+     * once. Takes effect the next time the scan is opened; the table must be
+     * a HeapFile, and the scan can then not be rewound.
+     *
+     * @param morsels the pages still to be scanned; null to scan the table
+     * @see ParallelScan
+     */
+    public void setMorsels(Morsels morsels) {
+        this.morsels = morsels;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        itr = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (morsels != null) {
+            if (!(file instanceof HeapFile))
+                throw new DbException("only heap files can be scanned in morsels");
+            itr = ((HeapFile) file).iterator(tid, predicate, morsels);
+        } else if (predicate == null)
+            itr = file.iterator(tid);
+        else if (file instanceof HeapFile)
+            itr = ((HeapFile) file).iterator(tid, predicate);
+        else
+            itr = new FilteredIterator(file.iterator(tid), predicate);
         itr.open();
     }
 
@@ -97,6 +133,14 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
+        return getTupleDesc(tableid, tableAlias);
+    }
+
+    /**
+     * @return the TupleDesc of a table with field names prefixed with the
+     *         given alias, as returned by {@link #getTupleDesc()}
+     */
+    static TupleDesc getTupleDesc(int tableid, String tableAlias) {
         TupleDesc tupleDesc = Database.getCatalog().getTupleDesc(tableid);
         Type[] typeAr = new Type[tupleDesc.numFields()];
         String[] fieldAr = new String[tupleDesc.numFields()];
@@ -110,6 +154,7 @@ public class SeqScan implements OpIterator {
             typeAr[i] = tdItem.fieldType;
             String fieldName = tdItem.fieldName != null ? tdItem.fieldName : "null";
             fieldAr[i] = prefix + "." + fieldName;
+            i++;
         }
 
         return new TupleDesc(typeAr, fieldAr);
@@ -136,4 +181,47 @@ public class SeqScan implements OpIterator {
         // some code goes here
         itr.rewind();
     }
+
+    /** Applies a predicate to the tuples of a file that cannot do it itself. */
+    private static class FilteredIterator implements DbFileIterator {
+        private final DbFileIterator child;
+        private final Predicate predicate;
+        private Tuple next = null;
+
+        FilteredIterator(DbFileIterator child, Predicate predicate) {
+            this.child = child;
+            this.predicate = predicate;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null && child.hasNext()) {
+                Tuple t = child.next();
+                if (predicate.filter(t))
+                    next = t;
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            next = null;
+            child.rewind();
+        }
+
+        public void close() {
+            next = null;
+            child.close();
+        }
+    }
 }
@@ -90,6 +90,17 @@ public class SimpleDb {
             }
 
         }
+        else if (args[0].equals("server")) {
+            String[] newargs = new String[args.length-1];
+            for (int i = 1; i < args.length; ++i) {
+                newargs[i-1] = args[i];
+            }
+            try {
+                QueryServer.main(newargs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         else {
             System.err.println("Unknown command: " + args[0]);
             System.exit(1);
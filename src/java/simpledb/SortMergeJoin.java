@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs that are sorted on their join fields. An
+ * input that is not already in ascending order of its join field (see
+ * {@link #isSortedOn}) is sorted with an {@link OrderBy} first.
+ * <p>
+ * For EQUALS the two inputs are merged: the run of child2 tuples with the
+ * current key is buffered and matched against every child1 tuple with that
+ * key. For the range predicates the tuples one input matches are always a
+ * prefix of the other, sorted, input: for child1 &gt; child2 every child1
+ * tuple scans child2 from the start up to the first tuple that does not
+ * match, and symmetrically for child1 &lt; child2. NOT_EQUALS and LIKE are
+ * not supported; use {@link Join}.
+ * <p>
+ * Output tuples are the concatenation of the child1 and child2 tuples, as
+ * for the other joins.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    /** The children, or OrderBys over those that were not sorted. */
+    private OpIterator input1, input2;
+    private TupleDesc comboTD;
+
+    /** EQUALS: the current child1 tuple, the next child2 tuple, the buffered run. */
+    transient private Tuple t1, t2;
+    transient private ArrayList<Tuple> run;
+    transient private int runIdx;
+    /** Range predicates: the current tuple of the outer input. */
+    transient private Tuple outer;
+
+    /**
+     * Constructor.
+     *
+     * @param p the predicate to join on
+     * @param child1 iterator for the left relation
+     * @param child2 iterator for the right relation
+     * @throws IllegalArgumentException if the predicate is NOT_EQUALS or LIKE
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("SortMergeJoin does not support "
+                    + p.getOperator());
+        this.pred = p;
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    /** @return whether SortMergeJoin can evaluate a join with the given operator */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return true if the tuples of it come in ascending order of field:
+     *         an ascending OrderBy on it, a scan of a B+ tree keyed on it,
+     *         or a Filter over either
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof BTreeScan)
+            return ((BTreeScan) it).keyField() == field;
+        if (it instanceof Filter)
+            return isSortedOn(((Filter) it).getChildren()[0], field);
+        return false;
+    }
+
+    private static OpIterator sorted(OpIterator it, int field) {
+        return isSortedOn(it, field) ? it : new OrderBy(field, true, it);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    private boolean equiJoin() {
+        return pred.getOperator() == Predicate.Op.EQUALS;
+    }
+
+    /** For range joins: whether child1 is the outer (streamed) input. */
+    private boolean outerIsChild1() {
+        Predicate.Op op = pred.getOperator();
+        return op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    private Field key1(Tuple t) {
+        return t.getField(pred.getField1());
+    }
+
+    private Field key2(Tuple t) {
+        return t.getField(pred.getField2());
+    }
+
+    private static Tuple next(OpIterator it) throws DbException, TransactionAbortedException {
+        return it.hasNext() ? it.next() : null;
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        if (equiJoin()) {
+            t1 = next(input1);
+            t2 = next(input2);
+            run = new ArrayList<Tuple>();
+            runIdx = 0;
+        } else {
+            outer = next(outerIsChild1() ? input1 : input2);
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        input1.open();
+        input2.open();
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        input2.close();
+        input1.close();
+        t1 = t2 = outer = null;
+        run = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        input1.rewind();
+        input2.rewind();
+        start();
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        int td1n = left.getTupleDesc().numFields();
+        int td2n = right.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, right.getField(i));
+        return t;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return equiJoin() ? fetchNextEquals() : fetchNextRange();
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException, DbException {
+        while (t1 != null) {
+            if (!run.isEmpty() && key1(t1).equals(key2(run.get(0)))) {
+                if (runIdx < run.size())
+                    return merge(t1, run.get(runIdx++));
+                // the next child1 tuple may have the same key: keep the run
+                t1 = next(input1);
+                runIdx = 0;
+                continue;
+            }
+            // skip child2 tuples with smaller keys
+            while (t2 != null && key2(t2).compare(Predicate.Op.LESS_THAN, key1(t1)))
+                t2 = next(input2);
+            if (t2 == null)
+                return null;
+            if (!key2(t2).equals(key1(t1))) {
+                t1 = next(input1);
+                continue;
+            }
+            // buffer the run of child2 tuples with this key
+            run.clear();
+            runIdx = 0;
+            Field key = key2(t2);
+            while (t2 != null && key2(t2).equals(key)) {
+                run.add(t2);
+                t2 = next(input2);
+            }
+        }
+        return null;
+    }
+
+    private Tuple fetchNextRange() throws TransactionAbortedException, DbException {
+        boolean outer1 = outerIsChild1();
+        OpIterator outerIt = outer1 ? input1 : input2;
+        OpIterator innerIt = outer1 ? input2 : input1;
+        while (outer != null) {
+            Tuple inner = next(innerIt);
+            if (inner != null) {
+                Tuple l = outer1 ? outer : inner;
+                Tuple r = outer1 ? inner : outer;
+                if (pred.filter(l, r))
+                    return merge(l, r);
+            }
+            // end of the matching prefix: next outer tuple, from the start
+            outer = next(outerIt);
+            innerIt.rewind();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.input1 = sorted(child1, pred.getField1());
+        this.input2 = sorted(child2, pred.getField2());
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -1,11 +1,14 @@
 package simpledb;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * Groups are numbered by a {@link GroupTable} and their counts kept in a
+ * long[] indexed by group. Like {@link IntegerAggregator}, tuples of new
+ * groups are spilled to disk once the groups exceed the memory budget.
  */
 public class StringAggregator implements Aggregator {
 
@@ -14,7 +17,17 @@ public class StringAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private HashMap<String, Integer> map;
+    /** The groups, or null if there is no grouping. */
+    private GroupTable groups;
+    /** Number of groups with a count. */
+    private int numGroups;
+    /** The count of each group. */
+    private long[] counts;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    /** How many times the input was partitioned before reaching us. */
+    private int level = 0;
+    /** The tuples of the groups that did not fit, once memory ran out. */
+    private AggregateSpill spill;
 
     /**
      * Aggregate constructor
@@ -31,21 +44,54 @@ public class StringAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.map = new HashMap<>();
+        if (gbfield != NO_GROUPING)
+            this.groups = GroupTable.create(gbfieldtype, gbfield);
+        this.counts = new long[16];
     }
 
-    private String getAggregateKey(Tuple tup) {
-        if (gbfieldtype == null)
-            return "default";
-        switch (gbfieldtype) {
-            case INT_TYPE:
-                IntField f = (IntField) tup.getField(gbfield);
-                return String.valueOf(f.getValue());
-            case STRING_TYPE:
-                StringField sf = (StringField) tup.getField(gbfield);
-                return sf.getValue();
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    /** @return an estimate of the bytes of heap the groups take */
+    public long memoryUsed() {
+        return (groups == null ? 0 : groups.memoryUsed()) + 8L * counts.length;
+    }
+
+    /** @return whether the tuples of some groups were spilled to disk */
+    public boolean hasSpilled() {
+        return spill != null;
+    }
+
+    /** A new aggregator like this one for a partition of the spilled tuples. */
+    private Aggregator partitionAggregator(int level) {
+        StringAggregator agg = new StringAggregator(gbfield, gbfieldtype, afield, what);
+        agg.memoryBudget = memoryBudget;
+        agg.level = level;
+        return agg;
+    }
+
+    /**
+     * Spill tup if memory has run out and its group is not in memory.
+     *
+     * @return the group of tup in memory, or GroupTable.NONE if it was spilled
+     */
+    private int spilledGroup(Tuple tup) {
+        int group = groups.find(tup);
+        if (group == GroupTable.NONE) {
+            try {
+                spill.add(tup);
+            } catch (DbException e) {
+                throw new RuntimeException(e);
+            }
         }
-        return null;
+        return group;
+    }
+
+    public void close() {
+        if (spill != null)
+            spill.delete();
+        spill = null;
     }
 
     /**
@@ -54,18 +100,27 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        String key = this.getAggregateKey(tup);
-        Integer currentAggregateVal = map.get(key);
-        switch (what) {
-            case COUNT:
-                if (currentAggregateVal != null)
-                    map.put(key, currentAggregateVal + 1);
-                else
-                    map.put(key, 1);
-                break;
-            default:
-                break;
+        if (what != Op.COUNT)
+            return;
+        int group;
+        if (spill != null) {
+            group = spilledGroup(tup);
+            if (group == GroupTable.NONE)
+                return;
+        } else {
+            group = groups == null ? 0 : groups.groupOf(tup);
         }
+        if (group >= numGroups) {
+            numGroups = group + 1;
+            if (group == counts.length)
+                counts = Arrays.copyOf(counts, group * 2);
+            counts[group] = 0;
+            // no room for more groups: spill the tuples of the ones still to come,
+            // unless they were partitioned as often as helps
+            if (groups != null && memoryUsed() > memoryBudget && level < AggregateSpill.MAX_DEPTH)
+                spill = new AggregateSpill(gbfield, level);
+        }
+        counts[group]++;
     }
 
     /**
@@ -83,15 +138,25 @@ public class StringAggregator implements Aggregator {
 
     private class OpItr implements OpIterator {
         private Boolean open = false;
-        private Iterator<Map.Entry<String, Integer>> it;
+        private int group;
+        /** The aggregates of the spilled groups, after those in memory. */
+        private OpIterator spilled;
         public void open() {
             open = true;
-            it = map.entrySet().iterator();
+            group = 0;
         }
-        public boolean hasNext() {
+        public boolean hasNext() throws DbException, TransactionAbortedException {
             if (!open)
                 return false;
-            return it.hasNext();
+            if (group < numGroups)
+                return true;
+            if (spill == null)
+                return false;
+            if (spilled == null) {
+                spilled = spill.iterator(l -> partitionAggregator(l), getTupleDesc());
+                spilled.open();
+            }
+            return spilled.hasNext();
         }
 
         public TupleDesc getTupleDesc() {
@@ -107,38 +172,43 @@ public class StringAggregator implements Aggregator {
             return tupleDesc;
         }
 
-        public Tuple next() {
+        public Tuple next() throws DbException, TransactionAbortedException {
             if (!open)
                 return null;
-            Map.Entry<String, Integer> entry  = it.next();
-
-            IntField aggregateField = new IntField(entry.getValue());
+            if (group >= numGroups) {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return spilled.next();
+            }
+            long count = counts[group];
+            if (count != (int) count)
+                throw new DbException("count of group " + group
+                        + " does not fit in an INT_TYPE field: " + count);
+            IntField aggregateField = new IntField((int) count);
             Tuple t = new Tuple(getTupleDesc());
-            if (gbfieldtype != null) {
-                switch (gbfieldtype) {
-                    case INT_TYPE:
-                        t.setField(0, new IntField(Integer.valueOf(entry.getKey())));
-                        break;
-                    case STRING_TYPE:
-                        t.setField(0, new StringField(entry.getKey(), 100));
-                        break;
-                }
+            if (groups != null) {
+                t.setField(0, groups.getKey(group));
                 t.setField(1, aggregateField);
             }
             else
                 t.setField(0, aggregateField);
+            group++;
             return t;
 
         }
 
-        public void rewind() {
-            it = map.entrySet().iterator();
+        public void rewind() throws DbException, TransactionAbortedException {
+            group = 0;
+            if (spilled != null)
+                spilled.rewind();
         }
 
         public void close() {
             open = false;
+            if (spilled != null)
+                spilled.close();
+            spilled = null;
         }
     }
 
 }
-
@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT N: it returns the
+ * first N tuples of its child in the order of one or more sort fields, as an
+ * {@link OrderBy} followed by a {@link Limit} would, without sorting the
+ * whole input.
+ * <p>
+ * The best N tuples seen so far are kept in a binary heap with the worst of
+ * them at the root. Each further input tuple is compared with the root only
+ * and, if it is better, replaces it; so the input is consumed in
+ * O(n log N) time and O(N) memory. Tuples that compare equal keep their input
+ * order, as they do in OrderBy.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] ascending;
+    private final int limit;
+
+    /** The heap while reading the input, then the output in order. */
+    transient private Tuple[] tuples;
+    /** Input position of every tuple in the heap, to break ties. */
+    transient private long[] seqs;
+    transient private int size;
+    transient private int pos;
+    transient private TupleComparator comparator;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one sort order per field");
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderbyFields.clone();
+        this.ascending = asc.clone();
+        this.limit = limit;
+    }
+
+    /** @return the number of tuples this operator returns at most */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** @return all the sort fields, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, whether it is ascending */
+    public boolean[] getAscending() {
+        return ascending.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return whether heap entry i comes after heap entry j in the output */
+    private boolean after(int i, int j) {
+        int c = comparator.compare(tuples[i], tuples[j]);
+        return c > 0 || (c == 0 && seqs[i] > seqs[j]);
+    }
+
+    private void swap(int i, int j) {
+        Tuple t = tuples[i];
+        tuples[i] = tuples[j];
+        tuples[j] = t;
+        long s = seqs[i];
+        seqs[i] = seqs[j];
+        seqs[j] = s;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!after(i, parent))
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int n) {
+        while (true) {
+            int worst = i;
+            int l = 2 * i + 1;
+            int r = l + 1;
+            if (l < n && after(l, worst))
+                worst = l;
+            if (r < n && after(r, worst))
+                worst = r;
+            if (worst == i)
+                return;
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        comparator = new TupleComparator(orderByFields, ascending);
+        tuples = new Tuple[Math.min(limit, 1024)];
+        seqs = new long[tuples.length];
+        size = 0;
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (size < limit) {
+                if (size == tuples.length) {
+                    int capacity = (int) Math.min((long) limit, 2L * size);
+                    tuples = Arrays.copyOf(tuples, capacity);
+                    seqs = Arrays.copyOf(seqs, capacity);
+                }
+                tuples[size] = t;
+                seqs[size] = seq;
+                siftUp(size++);
+            } else if (limit > 0 && comparator.compare(t, tuples[0]) < 0) {
+                // later tuples lose ties, so only a strictly better one enters
+                tuples[0] = t;
+                seqs[0] = seq;
+                siftDown(0, size);
+            }
+            seq++;
+        }
+        // heapsort in place: repeatedly move the worst to the end
+        for (int n = size - 1; n > 0; n--) {
+            swap(0, n);
+            siftDown(0, n);
+        }
+        seqs = null;
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        tuples = null;
+        seqs = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (tuples != null && pos < size)
+            return tuples[pos++];
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
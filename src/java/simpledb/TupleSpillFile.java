@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * TupleSpillFile is a temporary file of tuples that operators write out when
+ * their input does not fit in memory, and read back later. Tuples are stored
+ * back to back in the same format as on a heap page, so each one takes
+ * {@link TupleDesc#getSize()} bytes. Tuples read back have no RecordId.
+ * <p>
+ * Tuples are appended with {@link #add} and read with {@link #iterator};
+ * adding after an iterator was opened is not supported. The file is removed
+ * by {@link #delete}, which its owner must call once done with it.
+ */
+public class TupleSpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples;
+
+    /**
+     * Create an empty spill file.
+     *
+     * @param td the schema of the tuples that will be added
+     */
+    public TupleSpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("simpledb", ".spill");
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** Append a tuple. */
+    public void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        numTuples++;
+    }
+
+    /** @return the number of tuples added */
+    public int numTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of bytes the tuples take */
+    public long size() {
+        return (long) numTuples * td.getSize();
+    }
+
+    private void finishWriting() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * @return an iterator over the tuples added, in order. It may be
+     *         rewound, and several may be open at once.
+     */
+    public DbFileIterator iterator() {
+        return new AbstractDbFileIterator() {
+            private DataInputStream in;
+            private int read;
+
+            public void open() throws DbException {
+                finishWriting();
+                close();
+                try {
+                    in = new DataInputStream(new BufferedInputStream(
+                            new FileInputStream(file)));
+                } catch (IOException e) {
+                    throw new DbException("could not read spill file: " + e.getMessage());
+                }
+                read = 0;
+            }
+
+            protected Tuple readNext() throws DbException {
+                if (in == null || read == numTuples)
+                    return null;
+                Tuple t = new Tuple(td);
+                try {
+                    for (int i = 0; i < td.numFields(); i++)
+                        t.setField(i, td.getFieldType(i).parse(in));
+                } catch (ParseException e) {
+                    throw new DbException("could not read spill file: " + e.getMessage());
+                }
+                read++;
+                return t;
+            }
+
+            public void rewind() throws DbException {
+                open();
+            }
+
+            public void close() {
+                super.close();
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // nothing was written through it
+                    }
+                    in = null;
+                }
+            }
+        };
+    }
+
+    /** Remove the file. */
+    public void delete() {
+        try {
+            finishWriting();
+        } catch (DbException e) {
+            // the contents are being thrown away anyway
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+/**
+ * TupleToBatchIterator feeds the tuples of an {@link OpIterator} to batch
+ * operators, a batch at a time.
+ */
+public class TupleToBatchIterator implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private transient ColumnBatch batch;
+
+    /**
+     * @param child the operator whose tuples to put into batches
+     */
+    public TupleToBatchIterator(OpIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new ColumnBatch(child.getTupleDesc());
+    }
+
+    public ColumnBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("Operator not yet open");
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.appendTuple(child.next());
+        return batch.numRows() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
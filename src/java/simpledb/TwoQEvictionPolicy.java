@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TwoQEvictionPolicy implements the full 2Q replacement algorithm (Johnson
+ * and Shasha). Pages read for the first time enter a small FIFO queue, A1in.
+ * When they fall out of A1in only their ids are remembered, in the ghost
+ * queue A1out. A page that is read again while its id is in A1out has proven
+ * it is reused and goes to the main LRU queue, Am.
+ * <p>
+ * A sequential scan therefore only ever cycles through A1in and cannot flush
+ * the hot pages kept in Am.
+ *
+ * @see EvictionPolicy
+ */
+public class TwoQEvictionPolicy implements EvictionPolicy {
+
+    private final int kin;
+    private final int kout;
+    private final LinkedHashSet<PageId> a1in;
+    private final LinkedHashSet<PageId> a1out;
+    private final LinkedHashSet<PageId> am;
+
+    /**
+     * Creates a 2Q policy for a buffer pool of the given size, with A1in
+     * sized to a quarter of the pool and A1out remembering half a pool's
+     * worth of page ids, as recommended by the 2Q paper.
+     *
+     * @param numPages the expected number of resident pages
+     */
+    public TwoQEvictionPolicy(int numPages) {
+        this(Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * Creates a 2Q policy with explicit queue sizes.
+     *
+     * @param kin the target number of resident pages in A1in
+     * @param kout the number of page ids remembered in A1out
+     */
+    public TwoQEvictionPolicy(int kin, int kout) {
+        this.kin = kin;
+        this.kout = kout;
+        this.a1in = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+    }
+
+    public void pageAdded(PageId pid) {
+        if (am.contains(pid) || a1in.contains(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        if (a1out.remove(pid))
+            am.add(pid);
+        else
+            a1in.add(pid);
+    }
+
+    public void pageAccessed(PageId pid) {
+        // hits in A1in are deliberately ignored: they are usually correlated
+        // references from the same scan or transaction
+        if (am.remove(pid))
+            am.add(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (am.remove(pid))
+            return;
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty())
+            victim = firstEvictable(a1in, evictable);
+        if (victim == null)
+            victim = firstEvictable(am, evictable);
+        if (victim == null)
+            victim = firstEvictable(a1in, evictable);
+        return victim;
+    }
+
+    private static PageId firstEvictable(Collection<PageId> queue, Evictable evictable) {
+        for (PageId pid : queue) {
+            if (evictable.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+}
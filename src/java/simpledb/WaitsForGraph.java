@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * WaitsForGraph records which transactions each blocked transaction is
+ * waiting for. It is maintained by the LockManager: whenever the queue of a
+ * page changes, the edges contributed by that page are replaced with the
+ * current ones. An edge T1 -&gt; T2 means T1 has a request queued behind a lock
+ * held, or a request queued, by T2.
+ * <p>
+ * A cycle in the graph is a deadlock.
+ *
+ * @Threadsafe
+ * @see LockManager
+ */
+public class WaitsForGraph {
+
+    private final HashMap<PageId, Map<TransactionId, Set<TransactionId>>> edgesByPage;
+
+    public WaitsForGraph() {
+        this.edgesByPage = new HashMap<>();
+    }
+
+    /**
+     * Replace the edges contributed by the waiters of a page.
+     *
+     * @param pid the page whose queue changed
+     * @param waits for every transaction waiting on pid, the transactions it
+     *            waits for; an empty map removes the page from the graph
+     */
+    public synchronized void setWaits(PageId pid, Map<TransactionId, Set<TransactionId>> waits) {
+        if (waits.isEmpty())
+            edgesByPage.remove(pid);
+        else
+            edgesByPage.put(pid, waits);
+    }
+
+    /** @return true if no transaction is waiting */
+    public synchronized boolean isEmpty() {
+        return edgesByPage.isEmpty();
+    }
+
+    /**
+     * Look for a cycle through the given transaction.
+     *
+     * @param tid the transaction that just blocked
+     * @return the transactions on the cycle, starting with tid, or null if
+     *         tid is not deadlocked
+     */
+    public synchronized List<TransactionId> findCycle(TransactionId tid) {
+        HashMap<TransactionId, Set<TransactionId>> adjacency = adjacency();
+        if (!adjacency.containsKey(tid))
+            return null;
+        return findCycle(tid, adjacency, new HashSet<TransactionId>());
+    }
+
+    /**
+     * Look for any cycle in the graph.
+     *
+     * @return the transactions on some cycle, or null if there is no deadlock
+     */
+    public synchronized List<TransactionId> findCycle() {
+        HashMap<TransactionId, Set<TransactionId>> adjacency = adjacency();
+        HashSet<TransactionId> done = new HashSet<>();
+        for (TransactionId tid : adjacency.keySet()) {
+            if (done.contains(tid))
+                continue;
+            List<TransactionId> cycle = findCycle(tid, adjacency, done);
+            if (cycle != null)
+                return cycle;
+        }
+        return null;
+    }
+
+    private HashMap<TransactionId, Set<TransactionId>> adjacency() {
+        HashMap<TransactionId, Set<TransactionId>> adjacency = new HashMap<>();
+        for (Map<TransactionId, Set<TransactionId>> waits : edgesByPage.values()) {
+            for (Map.Entry<TransactionId, Set<TransactionId>> e : waits.entrySet())
+                adjacency.computeIfAbsent(e.getKey(), k -> new HashSet<>()).addAll(e.getValue());
+        }
+        return adjacency;
+    }
+
+    /**
+     * Iterative depth-first search from start. Nodes whose subtree has been
+     * fully explored are added to done and never revisited.
+     */
+    private static List<TransactionId> findCycle(TransactionId start,
+            HashMap<TransactionId, Set<TransactionId>> adjacency, HashSet<TransactionId> done) {
+        ArrayList<TransactionId> path = new ArrayList<>();
+        HashMap<TransactionId, Integer> onPath = new HashMap<>();
+        ArrayList<Iterator<TransactionId>> pending = new ArrayList<>();
+        path.add(start);
+        onPath.put(start, 0);
+        pending.add(successors(start, adjacency));
+        while (!path.isEmpty()) {
+            Iterator<TransactionId> it = pending.get(pending.size() - 1);
+            if (!it.hasNext()) {
+                TransactionId finished = path.remove(path.size() - 1);
+                pending.remove(pending.size() - 1);
+                onPath.remove(finished);
+                done.add(finished);
+                continue;
+            }
+            TransactionId next = it.next();
+            Integer index = onPath.get(next);
+            if (index != null)
+                return new ArrayList<>(path.subList(index, path.size()));
+            if (done.contains(next))
+                continue;
+            onPath.put(next, path.size());
+            path.add(next);
+            pending.add(successors(next, adjacency));
+        }
+        return null;
+    }
+
+    private static Iterator<TransactionId> successors(TransactionId tid,
+            HashMap<TransactionId, Set<TransactionId>> adjacency) {
+        Set<TransactionId> out = adjacency.get(tid);
+        if (out == null)
+            return Collections.<TransactionId>emptySet().iterator();
+        return out.iterator();
+    }
+}
@@ -3,12 +3,19 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -176,6 +183,266 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /** Drain it into a map from group to aggregate value. */
+  private static HashMap<Field, Integer> groups(OpIterator it) throws Exception {
+    HashMap<Field, Integer> result = new HashMap<Field, Integer>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(null, result.put(t.getField(0), ((IntField) t.getField(1)).getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * Aggregates with more groups than fit in the memory budget spill the
+   * tuples of the later groups and aggregate them afterwards, for both
+   * int and string aggregates and group-by fields
+   */
+  @Test public void spill() throws Exception {
+    ArrayList<Tuple> ints = new ArrayList<Tuple>();
+    ArrayList<Tuple> strings = new ArrayList<Tuple>();
+    TupleDesc stringTd = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.STRING_TYPE });
+    HashMap<Field, Integer> sums = new HashMap<Field, Integer>();
+    HashMap<Field, Integer> counts = new HashMap<Field, Integer>();
+    for (int i = 0; i < 20000; i++) {
+      int key = (i * 7919) % 5000;
+      ints.add(Utility.getHeapTuple(new int[] { key, i }));
+      Integer sum = sums.get(new IntField(key));
+      sums.put(new IntField(key), (sum == null ? 0 : sum) + i);
+
+      Tuple t = new Tuple(stringTd);
+      t.setField(0, new StringField("k" + key % 3000, Type.STRING_LEN));
+      t.setField(1, new StringField("v" + i, Type.STRING_LEN));
+      strings.add(t);
+      Integer count = counts.get(t.getField(0));
+      counts.put(t.getField(0), (count == null ? 0 : count) + 1);
+    }
+
+    IntegerAggregator intAgg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    intAgg.setMemoryBudget(4096);
+    for (Tuple t : ints)
+      intAgg.mergeTupleIntoGroup(t);
+    assertTrue(intAgg.hasSpilled());
+    OpIterator it = intAgg.iterator();
+    it.open();
+    assertEquals(sums, groups(it));
+    it.rewind();
+    assertEquals(sums, groups(it));
+    it.close();
+    intAgg.close();
+
+    StringAggregator stringAgg = new StringAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+    stringAgg.setMemoryBudget(4096);
+    for (Tuple t : strings)
+      stringAgg.mergeTupleIntoGroup(t);
+    assertTrue(stringAgg.hasSpilled());
+    it = stringAgg.iterator();
+    it.open();
+    assertEquals(counts, groups(it));
+    it.close();
+    stringAgg.close();
+
+    // and through the operator
+    Aggregate op = new Aggregate(new TupleIterator(Utility.getTupleDesc(2), ints), 1, 0,
+        Aggregator.Op.SUM);
+    op.setMemoryBudget(4096);
+    op.open();
+    assertEquals(sums, groups(op));
+    op.close();
+  }
+
+  /** Drain it into a map from the first n fields to the rest. */
+  private static HashMap<List<Integer>, List<Integer>> groups(OpIterator it, int n)
+      throws Exception {
+    HashMap<List<Integer>, List<Integer>> result = new HashMap<List<Integer>, List<Integer>>();
+    while (it.hasNext()) {
+      ArrayList<Integer> t = SystemTestUtil.tupleToList(it.next());
+      assertEquals(null, result.put(t.subList(0, n), t.subList(n, t.size())));
+    }
+    return result;
+  }
+
+  /**
+   * Several aggregates over two group-by fields are computed in one pass,
+   * in memory and after spilling
+   */
+  @Test public void multiAggregate() throws Exception {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    HashMap<List<Integer>, long[]> stats = new HashMap<List<Integer>, long[]>();
+    for (int i = 0; i < 20000; i++) {
+      int a = (i * 7919) % 100;
+      int b = (i * 104729) % 37;
+      int v = (i * 31) % 1000 - 500;
+      tuples.add(Utility.getHeapTuple(new int[] { a, b, v }));
+      List<Integer> key = Arrays.asList(a, b);
+      long[] s = stats.get(key);
+      if (s == null)
+        stats.put(key, s = new long[] { 0, 0, Long.MAX_VALUE, Long.MIN_VALUE });
+      s[0]++;
+      s[1] += v;
+      s[2] = Math.min(s[2], v);
+      s[3] = Math.max(s[3], v);
+    }
+    HashMap<List<Integer>, List<Integer>> expected = new HashMap<List<Integer>, List<Integer>>();
+    for (List<Integer> key : stats.keySet()) {
+      long[] s = stats.get(key);
+      expected.put(key, Arrays.asList((int) s[0], (int) s[1], (int) s[2], (int) s[3],
+          (int) (s[1] / s[0])));
+    }
+
+    int[] gfields = { 0, 1 };
+    int[] afields = { 2, 2, 2, 2, 2 };
+    Aggregator.Op[] ops = { Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MIN,
+        Aggregator.Op.MAX, Aggregator.Op.AVG };
+    for (long budget : new long[] { Aggregator.DEFAULT_MEMORY_BUDGET, 4096 }) {
+      Aggregate op = new Aggregate(new TupleIterator(Utility.getTupleDesc(3), tuples),
+          afields, gfields, ops);
+      op.setMemoryBudget(budget);
+      assertEquals(7, op.getTupleDesc().numFields());
+      op.open();
+      assertEquals(expected, groups(op, 2));
+      op.rewind();
+      assertEquals(expected, groups(op, 2));
+      op.close();
+    }
+
+    // without grouping there is a single tuple
+    Aggregate op = new Aggregate(new TupleIterator(Utility.getTupleDesc(3), tuples),
+        new int[] { 2, 0 }, new int[0], new Aggregator.Op[] { Aggregator.Op.COUNT,
+        Aggregator.Op.MAX });
+    op.open();
+    assertTrue(op.hasNext());
+    assertEquals(Arrays.asList(20000, 99), SystemTestUtil.tupleToList(op.next()));
+    assertTrue(!op.hasNext());
+    op.close();
+  }
+
+  /**
+   * SUM_COUNT aggregates of parts of the input, combined by SC_AVG, give
+   * the AVG of the whole input
+   */
+  @Test public void sumCountAverage() throws Exception {
+    ArrayList<Tuple> first = new ArrayList<Tuple>();
+    ArrayList<Tuple> second = new ArrayList<Tuple>();
+    scan1.open();
+    for (int i = 0; scan1.hasNext(); i++)
+      (i % 2 == 0 ? first : second).add(scan1.next());
+
+    ArrayList<Tuple> partials = new ArrayList<Tuple>();
+    for (ArrayList<Tuple> part : Arrays.asList(first, second)) {
+      Aggregate partial = new Aggregate(new TupleIterator(Utility.getTupleDesc(2), part),
+          1, 0, Aggregator.Op.SUM_COUNT);
+      assertEquals(3, partial.getTupleDesc().numFields());
+      partial.open();
+      while (partial.hasNext())
+        partials.add(partial.next());
+      partial.close();
+    }
+
+    Aggregate op = new Aggregate(new TupleIterator(partials.get(0).getTupleDesc(), partials),
+        1, 0, Aggregator.Op.SC_AVG);
+    op.open();
+    avg.open();
+    TestUtil.matchAllTuples(avg, op);
+    op.close();
+  }
+
+  /**
+   * Strings can be grouped by and counted next to int aggregates
+   */
+  @Test public void multiAggregateStrings() throws Exception {
+    MultiAggregator agg = new MultiAggregator(new int[] { 0, 1 },
+        new Type[] { Type.STRING_TYPE, Type.INT_TYPE }, new int[] { 0, 1 },
+        new Type[] { Type.STRING_TYPE, Type.INT_TYPE },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM });
+    scan3.open();
+    while (scan3.hasNext())
+      agg.mergeTupleIntoGroup(scan3.next());
+    OpIterator it = agg.iterator();
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int b = ((IntField) t.getField(1)).getValue();
+      assertEquals(new IntField(1), t.getField(2));
+      assertEquals(new IntField(b), t.getField(3));
+      n++;
+    }
+    assertEquals(7, n);
+    it.close();
+  }
+
+  /**
+   * Groups whose combined hashes collide cannot be split by partitioning:
+   * past AggregateSpill.MAX_DEPTH they are aggregated in memory, however
+   * small the budget.
+   */
+  @Test(timeout = 30000) public void collidingGroupsSpill() throws Exception {
+    MultiAggregator agg = new MultiAggregator(new int[] { 0, 1 },
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, new int[] { 1 },
+        new Type[] { Type.INT_TYPE }, new Aggregator.Op[] { Aggregator.Op.COUNT });
+    agg.setMemoryBudget(1);
+    int groups = 5000;
+    for (int i = 0; i < groups; i++)
+      for (int j = 0; j < 2; j++)
+        // 31 * i + (-31 * i) is 0 for every group
+        agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { i, -31 * i }));
+    assertTrue(agg.hasSpilled());
+    OpIterator it = agg.iterator();
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      assertEquals(new IntField(2), it.next().getField(2));
+      n++;
+    }
+    assertEquals(groups, n);
+    it.close();
+    agg.close();
+  }
+
+  /**
+   * Only COUNT applies to string fields
+   */
+  @Test(expected = IllegalArgumentException.class) public void multiAggregateStringSum() {
+    new MultiAggregator(new int[0], new Type[0], new int[] { 0 },
+        new Type[] { Type.STRING_TYPE }, new Aggregator.Op[] { Aggregator.Op.SUM });
+  }
+
+  /**
+   * Queries with several aggregates and group-by fields are parsed and
+   * planned into a single Aggregate
+   */
+  @Test public void parseMultiAggregate() throws Exception {
+    ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 1000, 10, null, rows, "c");
+    Database.getCatalog().addTable(table, "multiagg");
+    TableStats.setTableStats("multiagg", new TableStats(table.getId(), 19));
+    TransactionId tid = new TransactionId();
+    HashMap<List<Integer>, List<Integer>> expected = new HashMap<List<Integer>, List<Integer>>();
+    for (ArrayList<Integer> r : rows) {
+      List<Integer> key = r.subList(0, 2);
+      List<Integer> agg = expected.get(key);
+      if (agg == null)
+        expected.put(key, Arrays.asList(1, r.get(2), r.get(2)));
+      else
+        expected.put(key, Arrays.asList(agg.get(0) + 1, agg.get(1) + r.get(2),
+            Math.max(agg.get(2), r.get(2))));
+    }
+
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT t.c0, t.c1, COUNT(*), SUM(t.c2), MAX(t.c2) FROM multiagg t "
+        + "GROUP BY t.c0, t.c1;");
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    OpIterator agg = ((Project) plan).getChildren()[0];
+    assertTrue(agg instanceof Aggregate);
+    assertEquals(2, ((Aggregate) agg).groupFields().length);
+    assertEquals(3, ((Aggregate) agg).aggregateOps().length);
+    plan.open();
+    assertEquals(expected, groups(plan, 2));
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Checks the batch operators against their tuple-at-a-time counterparts.
+ */
+public class BatchOperatorTest extends SimpleDbTestBase {
+
+    private HeapFile left;
+    private HeapFile right;
+    private TransactionId tid;
+
+    /**
+     * Set up two tables spanning several pages, with values small enough for
+     * joins and groups to have several matches.
+     */
+    @Before public void setUp() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(3, 3000, 50, null, null);
+        right = SystemTestUtil.createRandomHeapFile(2, 500, 50, null, null);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static ArrayList<ArrayList<Integer>> collect(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return tuples;
+    }
+
+    private void check(OpIterator expected, BatchOpIterator actual) throws Exception {
+        SystemTestUtil.matchTuples(new BatchToTupleIterator(actual), collect(expected));
+    }
+
+    /**
+     * Unit test for BatchSeqScan: every tuple of the table, across pages.
+     */
+    @Test public void seqScan() throws Exception {
+        BatchSeqScan scan = new BatchSeqScan(tid, left.getId(), "l");
+        assertEquals(new SeqScan(tid, left.getId(), "l").getTupleDesc(), scan.getTupleDesc());
+        check(new SeqScan(tid, left.getId(), "l"), scan);
+
+        // batches stop after the last page, and rewind starts over
+        scan.open();
+        int rows = 0;
+        ColumnBatch b;
+        while ((b = scan.nextBatch()) != null)
+            rows += b.numRows();
+        assertEquals(3000, rows);
+        assertNull(scan.nextBatch());
+        scan.rewind();
+        assertEquals(ColumnBatch.DEFAULT_CAPACITY, scan.nextBatch().numRows());
+        scan.close();
+    }
+
+    /**
+     * Unit test for BatchFilter, stacked to exercise an existing selection.
+     */
+    @Test public void filter() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(20));
+            Predicate q = new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(7));
+            check(new Filter(q, new Filter(p, new SeqScan(tid, left.getId(), ""))),
+                    new BatchFilter(q, new BatchFilter(p, new BatchSeqScan(tid, left.getId(), ""))));
+        }
+    }
+
+    /**
+     * Unit test for BatchProject.
+     */
+    @Test public void project() throws Exception {
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10));
+        check(new Project(fields, types, new Filter(p, new SeqScan(tid, left.getId(), ""))),
+                new BatchProject(fields, types,
+                        new BatchFilter(p, new BatchSeqScan(tid, left.getId(), ""))));
+    }
+
+    /**
+     * Unit test for BatchHashEquiJoin; the output spans many batches.
+     */
+    @Test public void hashEquiJoin() throws Exception {
+        JoinPredicate jp = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        check(new HashEquiJoin(jp, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r")),
+                new BatchHashEquiJoin(jp, new BatchSeqScan(tid, left.getId(), "l"),
+                        new BatchSeqScan(tid, right.getId(), "r")));
+    }
+
+    /**
+     * Unit test for BatchAggregate, with and without grouping.
+     */
+    @Test public void aggregate() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = collect(new SeqScan(tid, left.getId(), ""));
+        Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.AVG };
+        for (Aggregator.Op op : ops) {
+            check(new Aggregate(new SeqScan(tid, left.getId(), ""), 2, 0, op),
+                    new BatchAggregate(new BatchSeqScan(tid, left.getId(), ""), 2, 0, op));
+
+            // Aggregate cannot be built without grouping, so work the
+            // expected value out by hand
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE, sum = 0;
+            for (ArrayList<Integer> row : rows) {
+                min = Math.min(min, row.get(2));
+                max = Math.max(max, row.get(2));
+                sum += row.get(2);
+            }
+            int expected = op == Aggregator.Op.MIN ? min : op == Aggregator.Op.MAX ? max
+                    : op == Aggregator.Op.SUM ? sum : op == Aggregator.Op.COUNT ? rows.size()
+                    : sum / rows.size();
+            ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+            result.add(new ArrayList<Integer>(Arrays.asList(expected)));
+            SystemTestUtil.matchTuples(new BatchToTupleIterator(new BatchAggregate(
+                    new BatchSeqScan(tid, left.getId(), ""), 2, Aggregator.NO_GROUPING, op)),
+                    result);
+        }
+    }
+
+    /**
+     * Unit test for the adapters: a tuple operator under a batch operator
+     * under a tuple operator.
+     */
+    @Test public void adapters() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(25));
+        Predicate q = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(30));
+        check(new Filter(q, new Filter(p, new SeqScan(tid, left.getId(), ""))),
+                new TupleToBatchIterator(new Filter(q, new BatchToTupleIterator(
+                        new BatchFilter(p, new TupleToBatchIterator(
+                                new SeqScan(tid, left.getId(), "")))))));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchOperatorTest.class);
+    }
+}
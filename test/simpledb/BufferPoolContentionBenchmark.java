@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Contention benchmark for BufferPool.getPage. Drives random page requests
+ * from 1 to 64 threads against a single-shard pool and a sharded pool of the
+ * same size, and prints the throughput of each.
+ * <p>
+ * Run with <code>ant runbenchmark -Dbenchmark=BufferPoolContentionBenchmark</code>.
+ * Optional arguments: the table size in pages, the pool size in pages and
+ * the measurement time per configuration in milliseconds.
+ */
+public class BufferPoolContentionBenchmark {
+
+    private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+    public static void main(String[] args) throws Exception {
+        int tablePages = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+        Database.reset();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * tablePages, null, null);
+        int numPages = f.numPages();
+        System.out.println("table of " + numPages + " pages, pool of " + poolPages + " pages");
+        System.out.printf("%8s %16s %16s%n", "threads", "1 shard ops/s", "sharded ops/s");
+        for (int threads : THREADS) {
+            double single = run(new BufferPool(poolPages, 1, null), f, numPages, threads, millis);
+            double sharded = run(new BufferPool(poolPages), f, numPages, threads, millis);
+            System.out.printf("%8d %16.0f %16.0f%n", threads, single, sharded);
+        }
+    }
+
+    private static double run(final BufferPool bp, final HeapFile f, final int numPages,
+            int threads, long millis) throws Exception {
+        // warm the pool so the measurement is dominated by the page table
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < numPages; i++)
+            bp.getPage(warm, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(warm);
+
+        final AtomicLong ops = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long deadline[] = new long[1];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            futures.add(pool.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    Random rand = new Random(seed);
+                    TransactionId tid = new TransactionId();
+                    PageId[] pids = new PageId[numPages];
+                    for (int i = 0; i < numPages; i++)
+                        pids[i] = new HeapPageId(f.getId(), i);
+                    start.await();
+                    long count = 0;
+                    while (System.nanoTime() < deadline[0]) {
+                        for (int i = 0; i < 1000; i++)
+                            bp.getPage(tid, pids[rand.nextInt(numPages)], Permissions.READ_ONLY);
+                        count += 1000;
+                    }
+                    bp.transactionComplete(tid);
+                    ops.addAndGet(count);
+                    return null;
+                }
+            }));
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1000000L;
+        start.countDown();
+        for (Future<?> future : futures)
+            future.get();
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        return ops.get() / (elapsed / 1e9);
+    }
+}
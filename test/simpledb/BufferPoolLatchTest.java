@@ -0,0 +1,104 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolLatchTest extends SimpleDbTestBase {
+
+    /** A file whose reads of page 1 wait until released, counting them. */
+    private static class SlowFile extends HeapFile {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger slowReads = new AtomicInteger();
+
+        SlowFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            if (pid.getPageNumber() == 1) {
+                slowReads.incrementAndGet();
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private SlowFile file;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        file = new SlowFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        // a single shard, so every page shares one latch
+        bp = new BufferPool(10, new ClockEvictionPolicy(10));
+    }
+
+    /**
+     * A page being read from disk holds up neither hits on its shard nor
+     * other misses, and a second request for it waits for the same read.
+     */
+    @Test(timeout = 20000) public void readOutsideLatch() throws Exception {
+        final HeapPageId slow = new HeapPageId(file.getId(), 1);
+        HeapPageId hit = new HeapPageId(file.getId(), 0);
+        bp.getPage(new TransactionId(), hit, Permissions.READ_ONLY);
+
+        final Page[] got = new Page[2];
+        Thread[] readers = new Thread[2];
+        for (int i = 0; i < 2; i++) {
+            final int id = i;
+            readers[i] = new Thread(() -> {
+                try {
+                    got[id] = bp.getPage(new TransactionId(), slow, Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        readers[0].start();
+        assertTrue(file.reading.await(10, TimeUnit.SECONDS));
+        readers[1].start();
+
+        // while page 1 is being read: a hit and another miss go through
+        TransactionId tid = new TransactionId();
+        assertSame(bp.getPage(tid, hit, Permissions.READ_ONLY),
+                bp.getPage(tid, hit, Permissions.READ_ONLY));
+        bp.getPage(tid, new HeapPageId(file.getId(), 2), Permissions.READ_ONLY);
+        assertFalse(bp.prefetchPage(slow));
+
+        file.release.countDown();
+        for (Thread t : readers)
+            t.join();
+        assertEquals(1, file.slowReads.get());
+        assertSame(got[0], got[1]);
+        assertSame(got[0], bp.getPage(tid, slow, Permissions.READ_ONLY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolLatchTest.class);
+    }
+}
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 
 import org.junit.After;
 import org.junit.Before;
@@ -116,6 +117,40 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
         }
     }
     
+    /**
+     * A batch insert that fails partway leaves nothing behind once its
+     * transaction aborts, including on the pages it already filled.
+     */
+    @Test public void abortMidBatch() throws Exception {
+        final int failAt = 504 * 2 + 10;
+        Iterator<Tuple> tuples = new Iterator<Tuple>() {
+            private int n = 0;
+
+            public boolean hasNext() {
+                return true;
+            }
+
+            public Tuple next() {
+                if (n == failAt)
+                    throw new IllegalStateException("failed");
+                return Utility.getHeapTuple(n++, 2);
+            }
+        };
+        try {
+            Database.getBufferPool().insertTuples(tid, empty.getId(), tuples);
+            fail("expected the batch to fail");
+        } catch (IllegalStateException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = empty.iterator(reader);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+    }
+
     @Test public void handleManyDirtyPages() throws Exception {
     	HeapFileDuplicates hfd = new HeapFileDuplicates(empty.getFile(), empty.getTupleDesc(), 10);
     	Database.getCatalog().addTable(hfd, SystemTestUtil.getUUID());
@@ -0,0 +1,137 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final EvictionPolicy.Evictable ANY = pid -> true;
+
+    private static PageId page(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy.chooseVictim(): a page referenced
+     * since the last sweep gets a second chance.
+     */
+    @Test public void clockSecondChance() {
+        EvictionPolicy policy = new ClockEvictionPolicy(3);
+        for (int i = 0; i < 3; i++)
+            policy.pageAdded(page(i));
+
+        // the first sweep clears all bits, page 0 is the first to go
+        assertEquals(page(0), policy.chooseVictim(ANY));
+        policy.pageRemoved(page(0));
+        policy.pageAdded(page(3));
+
+        // page 1 was referenced again, so page 2 is the victim
+        policy.pageAccessed(page(1));
+        assertEquals(page(2), policy.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LRUKEvictionPolicy.chooseVictim(): pages referenced fewer
+     * than K times go before pages with a reuse history.
+     */
+    @Test public void lruKPrefersPagesWithoutHistory() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(4, 2);
+        policy.pageAdded(page(0));
+        policy.pageAccessed(page(0));
+        policy.pageAdded(page(1));
+        policy.pageAccessed(page(1));
+        policy.pageAdded(page(2));
+        policy.pageAdded(page(3));
+
+        assertEquals(page(2), policy.chooseVictim(ANY));
+        policy.pageRemoved(page(2));
+        assertEquals(page(3), policy.chooseVictim(ANY));
+        policy.pageRemoved(page(3));
+        assertEquals(page(0), policy.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LRUKEvictionPolicy: history survives eviction.
+     */
+    @Test public void lruKRetainsHistory() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(4, 2);
+        policy.pageAdded(page(0));
+        policy.pageAdded(page(1));
+        policy.pageRemoved(page(0));
+        policy.pageAdded(page(2));
+
+        // page 0 comes back with its second reference and outlives page 1
+        policy.pageAdded(page(0));
+        policy.pageRemoved(page(2));
+        assertEquals(page(1), policy.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for TwoQEvictionPolicy: pages seen twice are promoted to Am
+     * and survive a scan.
+     */
+    @Test public void twoQScanResistance() {
+        // a pool of three pages, one of them reserved for A1in
+        EvictionPolicy policy = new TwoQEvictionPolicy(1, 4);
+        policy.pageAdded(page(0));
+        policy.pageRemoved(page(0));
+        // re-read while remembered in A1out: goes to Am
+        policy.pageAdded(page(0));
+        policy.pageAdded(page(1));
+        policy.pageAdded(page(2));
+
+        for (int i = 3; i < 10; i++) {
+            PageId victim = policy.chooseVictim(ANY);
+            assertTrue(!victim.equals(page(0)));
+            policy.pageRemoved(victim);
+            policy.pageAdded(page(i));
+        }
+    }
+
+    /**
+     * Unit test for EvictionPolicy.chooseVictim(): the evictable callback is
+     * honoured by every policy.
+     */
+    @Test public void skipsPinnedPages() {
+        for (EvictionPolicy policy : policies(3)) {
+            for (int i = 0; i < 3; i++)
+                policy.pageAdded(page(i));
+            assertEquals(page(1), policy.chooseVictim(pid -> pid.equals(page(1))));
+            assertNull(policy.chooseVictim(pid -> false));
+        }
+    }
+
+    /**
+     * Unit test for BufferPool.getPage(): a table larger than the buffer pool
+     * can be scanned with every policy.
+     */
+    @Test public void scanLargerThanPool() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, tuples);
+        for (String name : new String[] { "clock", "lruk", "2q" }) {
+            Database.resetBufferPool(3, BufferPool.newEvictionPolicy(name, 3));
+            SystemTestUtil.matchTuples(f, tuples);
+        }
+    }
+
+    private static List<EvictionPolicy> policies(int numPages) {
+        return Arrays.asList(new ClockEvictionPolicy(numPages),
+                new LRUKEvictionPolicy(numPages), new TwoQEvictionPolicy(numPages));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,348 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** n tuples {i, i % keys} for i from start. */
+    private static TupleIterator tuples(int start, int n, int keys) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = start; i < start + n; i++)
+            tuples.add(Utility.getHeapTuple(new int[] { i, i % keys }));
+        return new TupleIterator(Utility.getTupleDesc(2), tuples);
+    }
+
+    /** Drain it, sorted since exchanges return tuples in any order. */
+    private static List<String> drain(OpIterator it) throws Exception {
+        ArrayList<String> out = new ArrayList<String>();
+        while (it.hasNext())
+            out.add(SystemTestUtil.tupleToList(it.next()).toString());
+        Collections.sort(out);
+        return out;
+    }
+
+    /**
+     * The queue keeps batches in order and holds at most its capacity.
+     */
+    @Test public void batchQueue() {
+        BatchQueue q = new BatchQueue(4);
+        List<List<Tuple>> batches = new ArrayList<List<Tuple>>();
+        for (int i = 0; i < 4; i++) {
+            batches.add(new ArrayList<Tuple>());
+            assertTrue(q.offer(batches.get(i)));
+        }
+        assertTrue(!q.offer(new ArrayList<Tuple>()));
+        for (int i = 0; i < 4; i++)
+            assertTrue(q.poll() == batches.get(i));
+        assertNull(q.poll());
+        assertTrue(q.offer(batches.get(0)));
+        assertTrue(q.poll() == batches.get(0));
+    }
+
+    /**
+     * Several threads putting and taking at once lose and duplicate nothing.
+     */
+    @Test public void batchQueueConcurrent() throws Exception {
+        final BatchQueue q = new BatchQueue(8);
+        final int threads = 4, perThread = 20000;
+        final AtomicLong taken = new AtomicLong();
+        Thread[] producers = new Thread[threads], consumers = new Thread[threads];
+        final Tuple[] tuples = new Tuple[threads * perThread];
+        for (int i = 0; i < tuples.length; i++)
+            tuples[i] = Utility.getHeapTuple(i, 1);
+        for (int t = 0; t < threads; t++) {
+            final int first = t * perThread;
+            producers[t] = new Thread(() -> {
+                for (int i = first; i < first + perThread; i++)
+                    q.put(Collections.singletonList(tuples[i]), () -> false);
+            });
+            consumers[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++)
+                        taken.addAndGet(((IntField) q.take().get(0).getField(0)).getValue());
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        for (int t = 0; t < threads; t++) {
+            producers[t].start();
+            consumers[t].start();
+        }
+        for (int t = 0; t < threads; t++) {
+            producers[t].join();
+            consumers[t].join();
+        }
+        long n = tuples.length;
+        assertEquals(n * (n - 1) / 2, taken.get());
+        assertNull(q.poll());
+    }
+
+    /**
+     * Gather returns every tuple of every input; rewinding runs them again.
+     */
+    @Test public void gather() throws Exception {
+        ArrayList<String> expected = new ArrayList<String>();
+        OpIterator all = tuples(0, 3000, 7);
+        all.open();
+        while (all.hasNext())
+            expected.add(SystemTestUtil.tupleToList(all.next()).toString());
+        Collections.sort(expected);
+
+        Gather g = new Gather(tuples(0, 1000, 7), tuples(1000, 1, 7), tuples(1001, 1999, 7),
+                tuples(0, 0, 7));
+        g.open();
+        assertEquals(expected, drain(g));
+        g.rewind();
+        assertEquals(expected, drain(g));
+        g.close();
+    }
+
+    /**
+     * Hash repartitioning sends all tuples with the same key to the same
+     * output, and broadcasting sends all tuples to every output.
+     */
+    @Test public void repartition() throws Exception {
+        OpIterator[] inputs = { tuples(0, 5000, 100), tuples(5000, 5000, 100) };
+        Repartition[] parts = Repartition.hash(inputs, 1, 4);
+        OpIterator[] counts = new OpIterator[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            counts[i] = new Aggregate(parts[i], 0, 1, Aggregator.Op.COUNT);
+        Gather g = new Gather(counts);
+        g.open();
+        HashMap<Integer, Integer> keys = new HashMap<Integer, Integer>();
+        while (g.hasNext()) {
+            Tuple t = g.next();
+            // a key counted by two outputs would show up twice
+            assertNull(keys.put(((IntField) t.getField(0)).getValue(),
+                    ((IntField) t.getField(1)).getValue()));
+        }
+        g.close();
+        assertEquals(100, keys.size());
+        for (int count : keys.values())
+            assertEquals(100, count);
+
+        inputs = new OpIterator[] { tuples(0, 5000, 100), tuples(5000, 5000, 100) };
+        parts = Repartition.broadcast(inputs, 3);
+        for (int i = 0; i < parts.length; i++)
+            counts[i] = new Aggregate(parts[i], 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        g = new Gather(Arrays.copyOf(counts, 3));
+        g.open();
+        assertEquals(Arrays.asList("[10000]", "[10000]", "[10000]"), drain(g));
+        g.close();
+    }
+
+    /**
+     * A partitioned hash join returns the same tuples as a serial one.
+     */
+    @Test public void partitionedJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        OpIterator serial = new HashEquiJoin(p, tuples(0, 2000, 300), tuples(0, 3000, 500));
+        serial.open();
+        List<String> expected = drain(serial);
+        serial.close();
+
+        Gather parallel = HashEquiJoin.partitioned(p, tuples(0, 2000, 300),
+                tuples(0, 3000, 500), 4);
+        assertEquals(serial.getTupleDesc(), parallel.getTupleDesc());
+        parallel.open();
+        assertEquals(expected, drain(parallel));
+        parallel.close();
+    }
+
+    /**
+     * Closing an exchange before the end stops its producers, and it can be
+     * opened again.
+     */
+    @Test public void closeEarly() throws Exception {
+        Gather g = new Gather(tuples(0, 100000, 7), tuples(0, 100000, 7));
+        for (int i = 0; i < 5; i++) {
+            g.open();
+            for (int j = 0; j < 10; j++)
+                g.next();
+            g.close();
+        }
+        g.open();
+        assertEquals(200000, drain(g).size());
+        g.close();
+    }
+
+    /**
+     * A failure in a producer is rethrown by the output.
+     */
+    @Test public void producerFailure() throws Exception {
+        final OpIterator child = tuples(0, 10000, 7);
+        OpIterator failing = new Operator() {
+            private static final long serialVersionUID = 1L;
+            private int n;
+
+            public void open() throws DbException, TransactionAbortedException {
+                child.open();
+                n = 0;
+                super.open();
+            }
+
+            protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+                if (++n == 5000)
+                    throw new DbException("failed");
+                return child.hasNext() ? child.next() : null;
+            }
+
+            public void rewind() {
+            }
+
+            public TupleDesc getTupleDesc() {
+                return child.getTupleDesc();
+            }
+
+            public OpIterator[] getChildren() {
+                return new OpIterator[] { child };
+            }
+
+            public void setChildren(OpIterator[] children) {
+            }
+        };
+        Gather g = new Gather(failing, tuples(0, 10000, 7));
+        g.open();
+        try {
+            drain(g);
+            fail("expected the failure of the producer");
+        } catch (DbException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        g.close();
+    }
+
+    /** Stats that report the size of a table, for the cost model. */
+    private static TableStats stats(HeapFile f, final int tuples) {
+        final int pages = f.numPages();
+        return new TableStats(f.getId(), 1000) {
+            @Override public int totalTuples() {
+                return tuples;
+            }
+
+            @Override public double estimateScanCost() {
+                return pages * 1000;
+            }
+
+            @Override public int estimateTableCardinality(double selectivityFactor) {
+                return (int) (tuples * selectivityFactor);
+            }
+        };
+    }
+
+    /**
+     * With parallelism, large equality joins are planned as partitioned
+     * hash joins.
+     */
+    @Test public void plan() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 2000, 200, null, rows, "c");
+        HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, rows, "c");
+        Database.getCatalog().addTable(t1, "ex1");
+        Database.getCatalog().addTable(t2, "ex2");
+        TableStats.setTableStats("ex1", stats(t1, 2000));
+        TableStats.setTableStats("ex2", stats(t2, 3000));
+        String query = "SELECT * FROM ex1 a, ex2 b WHERE a.c0 = b.c1 AND a.c1 < 100;";
+        Parser p = new Parser();
+
+        OpIterator serial = p.generateLogicalPlan(tid, query).physicalPlan(tid,
+                TableStats.getStatsMap(), false);
+        serial.open();
+        List<String> expected = drain(serial);
+        serial.close();
+        assertTrue(expected.size() > 0);
+
+        LogicalPlan.setParallelism(4);
+        LogicalPlan lp = p.generateLogicalPlan(tid, query);
+        OpIterator plan;
+        try {
+            plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        } finally {
+            LogicalPlan.setParallelism(1);
+        }
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Gather);
+        OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan).contains("gather(4)"));
+        plan.open();
+        assertEquals(expected, drain(plan));
+        plan.close();
+    }
+
+    /**
+     * The cost model partitions a join only when it pays for starting the
+     * partitions.
+     */
+    @Test public void partitionedJoinCost() {
+        int n = 4;
+        // tiny inputs: a nested loop is cheaper than starting the workers
+        assertTrue(JoinOptimizer.partitionedJoinCost(10, 10, 1, 1, n)
+                > JoinOptimizer.nestedLoopJoinCost(10, 10, 1, 1));
+        // large inputs: partitions beat both serial joins
+        assertTrue(JoinOptimizer.partitionedJoinCost(100000, 100000, 1000, 1000, n)
+                < JoinOptimizer.sortMergeJoinCost(100000, 100000, 1000, 1000, false, false));
+        // presorted inputs merge for less
+        assertTrue(JoinOptimizer.partitionedJoinCost(100000, 100000, 1000, 1000, n)
+                > JoinOptimizer.sortMergeJoinCost(100000, 100000, 1000, 1000, true, true));
+    }
+
+    /**
+     * A partitioned join never becomes the inner of a nested-loop Join,
+     * which would run its exchanges again for every block of the outer.
+     */
+    @Test public void partitionedJoinNotInner() throws Exception {
+        HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 100, 20, null, null, "c");
+        HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 100, 20, null, null, "c");
+        Database.getCatalog().addTable(t1, "inner1");
+        Database.getCatalog().addTable(t2, "inner2");
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Gather inner = HashEquiJoin.partitioned(p, new SeqScan(tid, t1.getId(), "b"),
+                new SeqScan(tid, t2.getId(), "c"), 4);
+        OpIterator outer = new SeqScan(tid, t1.getId(), "a");
+
+        OpIterator j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "a.c1",
+                "b.c1", Predicate.Op.EQUALS), outer, inner);
+        assertTrue(j instanceof SortMergeJoin);
+        j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "a.c1", "b.c1",
+                Predicate.Op.NOT_EQUALS), outer, inner);
+        assertTrue(j instanceof Join);
+        assertTrue(((Join) j).getChildren()[1] instanceof OrderBy);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> leftTuples = new ArrayList<ArrayList<Integer>>();
+    private ArrayList<ArrayList<Integer>> rightTuples = new ArrayList<ArrayList<Integer>>();
+    private HeapFile left;
+    private HeapFile right;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(2, 2000, 200, null, leftTuples);
+        right = SystemTestUtil.createRandomHeapFile(3, 1000, 200, null, rightTuples);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static ArrayList<ArrayList<Integer>> expected(
+            ArrayList<ArrayList<Integer>> l, int f1, ArrayList<ArrayList<Integer>> r, int f2) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : l) {
+            for (ArrayList<Integer> t2 : r) {
+                if (t1.get(f1).equals(t2.get(f2))) {
+                    ArrayList<Integer> t = new ArrayList<Integer>(t1);
+                    t.addAll(t2);
+                    result.add(t);
+                }
+            }
+        }
+        return result;
+    }
+
+    private HashEquiJoin join(long budget) {
+        HashEquiJoin j = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+        j.setMemoryBudget(budget);
+        return j;
+    }
+
+    /**
+     * The build side fits in memory.
+     */
+    @Test public void inMemory() throws Exception {
+        SystemTestUtil.matchTuples(join(HashEquiJoin.DEFAULT_MEMORY_BUDGET),
+                expected(leftTuples, 1, rightTuples, 0));
+    }
+
+    /**
+     * The build side is about ten times the budget, so partitions are
+     * spilled and joined in a second pass.
+     */
+    @Test public void spill() throws Exception {
+        SystemTestUtil.matchTuples(join(2000 * 72 / 10),
+                expected(leftTuples, 1, rightTuples, 0));
+    }
+
+    /**
+     * A tiny budget forces every level of partitioning and then the chunked
+     * join.
+     */
+    @Test public void tinyBudget() throws Exception {
+        SystemTestUtil.matchTuples(join(500), expected(leftTuples, 1, rightTuples, 0));
+    }
+
+    /**
+     * Every build tuple has the same key, so partitioning cannot split it.
+     */
+    @Test public void skew() throws Exception {
+        HashMap<Integer, Integer> spec = new HashMap<Integer, Integer>();
+        spec.put(1, 7);
+        left = SystemTestUtil.createRandomHeapFile(2, 1000, 200, spec, leftTuples);
+        rightTuples.get(0).set(0, 7);
+        right = SystemTestUtil.createRandomHeapFile(3, 0, null, null);
+        ArrayList<ArrayList<Integer>> r = new ArrayList<ArrayList<Integer>>();
+        r.add(rightTuples.get(0));
+        r.add(rightTuples.get(1));
+        for (ArrayList<Integer> t : r) {
+            Tuple tup = new Tuple(right.getTupleDesc());
+            for (int i = 0; i < t.size(); i++)
+                tup.setField(i, new IntField(t.get(i)));
+            Database.getBufferPool().insertTuple(tid, right.getId(), tup);
+        }
+        SystemTestUtil.matchTuples(join(1000 * 72 / 4), expected(leftTuples, 1, r, 0));
+    }
+
+    /**
+     * rewind() after a join that spilled starts over and produces the same
+     * tuples.
+     */
+    @Test public void rewind() throws Exception {
+        for (long budget : new long[] { HashEquiJoin.DEFAULT_MEMORY_BUDGET, 2000 * 72 / 10 }) {
+            HashEquiJoin j = join(budget);
+            j.open();
+            while (j.hasNext())
+                j.next();
+            j.rewind();
+            ArrayList<ArrayList<Integer>> again = new ArrayList<ArrayList<Integer>>();
+            while (j.hasNext())
+                again.add(SystemTestUtil.tupleToList(j.next()));
+            j.close();
+            SystemTestUtil.matchTuples(TestUtil.createTupleList(5, flatten(again)),
+                    expected(leftTuples, 1, rightTuples, 0));
+        }
+    }
+
+    private static int[] flatten(ArrayList<ArrayList<Integer>> tuples) {
+        int[] out = new int[tuples.size() * 5];
+        int i = 0;
+        for (ArrayList<Integer> t : tuples)
+            for (int v : t)
+                out[i++] = v;
+        return out;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
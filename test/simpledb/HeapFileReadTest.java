@@ -77,6 +77,31 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through a memory mapping: pages match
+     * the ones read with a system call, and pages appended after the file was
+     * mapped are visible.
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertArrayEquals(hf.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+
+        HeapPageId next = new HeapPageId(hf.getId(), 1);
+        HeapPage page = new HeapPage(next, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        mapped.writePage(page);
+        assertEquals(2, mapped.numPages());
+        assertEquals(503, ((HeapPage) mapped.readPage(next)).getNumEmptySlots());
+
+        try {
+            mapped.readPage(new HeapPageId(hf.getId(), 2));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
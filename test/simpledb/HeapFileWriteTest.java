@@ -4,6 +4,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 
@@ -43,6 +45,55 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuples(): pages are filled one after the
+     * other and each modified page is returned once.
+     */
+    @Test public void insertTuples() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 2 + 1; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        ArrayList<Page> pages = empty.insertTuples(tid, tuples.iterator());
+
+        assertEquals(3, empty.numPages());
+        assertEquals(3, pages.size());
+        for (int i = 0; i < pages.size(); ++i)
+            assertEquals(i, pages.get(i).getId().getPageNumber());
+        assertEquals(503, ((HeapPage) pages.get(2)).getNumEmptySlots());
+        assertEquals(pages.get(1).getId(), tuples.get(504).getRecordId().getPageId());
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() with the free space map: room made
+     * by a delete is reused, full pages are skipped, and the map survives
+     * reopening the file.
+     */
+    @Test public void reuseFreedSlot() throws Exception {
+        for (int i = 0; i < 504 * 3; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(3, empty.numPages());
+
+        Tuple victim = null;
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        for (int i = 0; i < 504 + 7; ++i)
+            victim = it.next();
+        it.close();
+        assertEquals(1, victim.getRecordId().getPageId().getPageNumber());
+        Database.getBufferPool().deleteTuple(tid, victim);
+
+        Tuple t = Utility.getHeapTuple(42, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(3, empty.numPages());
+        assertEquals(victim.getRecordId(), t.getRecordId());
+
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        FreeSpaceMap map = new FreeSpaceMap(reopened.getFile());
+        assertEquals(-1, map.nextFree(0, reopened.numPages()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -99,6 +99,26 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate)
+     */
+    @Test public void testIteratorWithPredicate() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        int threshold = EXAMPLE_VALUES[0][1];
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(threshold));
+        Iterator<Tuple> it = page.iterator(p);
+
+        for (int[] values : EXAMPLE_VALUES) {
+            if (values[1] > threshold)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple tup = it.next();
+            assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -120,6 +140,40 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Readers decoding the same page at once all see complete tuples, and
+     * the same tuple for a slot.
+     */
+    @Test public void concurrentIterators() throws Exception {
+        for (int round = 0; round < 100; round++) {
+            final HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+            int readers = 4;
+            final List<List<Tuple>> seen = new ArrayList<List<Tuple>>();
+            Thread[] threads = new Thread[readers];
+            for (int r = 0; r < readers; r++) {
+                final List<Tuple> tuples = new ArrayList<Tuple>();
+                seen.add(tuples);
+                threads[r] = new Thread(() -> {
+                    Iterator<Tuple> it = page.iterator();
+                    while (it.hasNext())
+                        tuples.add(it.next());
+                });
+            }
+            for (Thread t : threads)
+                t.start();
+            for (Thread t : threads)
+                t.join();
+            for (List<Tuple> tuples : seen) {
+                assertEquals(EXAMPLE_VALUES.length, tuples.size());
+                for (int i = 0; i < tuples.size(); i++) {
+                    assertTrue(tuples.get(i) == seen.get(0).get(i));
+                    IntField f = (IntField) tuples.get(i).getField(1);
+                    assertEquals(EXAMPLE_VALUES[i][1], f.getValue());
+                }
+            }
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -85,6 +85,24 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the image is the page as it was
+     * before the first change, until setBeforeImage() is called.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertEquals(free - 2, page.getBeforeImage().getNumEmptySlots());
+        page.deleteTuple(page.iterator().next());
+        assertEquals(free - 2, page.getBeforeImage().getNumEmptySlots());
+        assertEquals(free - 1, page.getNumEmptySlots());
+    }
+
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
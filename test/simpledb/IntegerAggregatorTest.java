@@ -178,6 +178,57 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Running sums and averages are kept in longs, so they are exact even
+   * when the intermediate sum does not fit in an int
+   */
+  @Test public void noOverflow() throws Exception {
+    int big = Integer.MAX_VALUE - 10;
+    OpIterator values = TestUtil.createTupleList(width1,
+        new int[] { 1, big, 1, big, 1, -big, 2, big, 2, big - 20 });
+    IntegerAggregator sum = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    IntegerAggregator avg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    values.open();
+    while (values.hasNext()) {
+      Tuple t = values.next();
+      sum.mergeTupleIntoGroup(t);
+      avg.mergeTupleIntoGroup(t);
+    }
+    OpIterator it = avg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, big / 3, 2, big - 10 }), it);
+
+    // a final sum that does not fit in an INT_TYPE field is an error
+    it = sum.iterator();
+    it.open();
+    assertEquals(new IntField(big), it.next().getField(1));
+    try {
+      it.next();
+      throw new Exception("overflowing SUM was returned");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Many groups, more than the initial capacity of the group table, come
+   * out in the order they were first seen
+   */
+  @Test public void manyGroups() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    for (int i = 0; i < 30000; i++)
+      agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { (i * 7919) % 10000 - 5000, i }));
+    OpIterator it = agg.iterator();
+    it.open();
+    for (int i = 0; i < 10000; i++) {
+      Tuple t = it.next();
+      assertEquals(new IntField((i * 7919) % 10000 - 5000), t.getField(0));
+      assertEquals(new IntField(3), t.getField(1));
+    }
+    assertEquals(false, it.hasNext());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,94 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinHashTableTest extends SimpleDbTestBase {
+
+    private static ArrayList<Integer> matches(JoinHashTable table, Field key, int field) {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (int row = table.first(key); row != JoinHashTable.NONE; row = table.next(row))
+            values.add(((IntField) table.getField(row, field)).getValue());
+        Collections.sort(values);
+        return values;
+    }
+
+    /**
+     * Unit test for IntJoinHashTable: duplicate and negative keys, missing
+     * keys, and growth well past the initial capacity.
+     */
+    @Test public void intKeys() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        JoinHashTable table = JoinHashTable.create(td, 0);
+        assertTrue(table instanceof IntJoinHashTable);
+        // key i % 1000 - 500, value i
+        for (int i = 0; i < 5000; i++)
+            table.add(Utility.getHeapTuple(new int[] { i % 1000 - 500, i }));
+        assertEquals(5000, table.size());
+
+        for (int k = -500; k < 500; k += 37) {
+            ArrayList<Integer> expected = new ArrayList<Integer>();
+            for (int i = k + 500; i < 5000; i += 1000)
+                expected.add(i);
+            assertEquals(expected, matches(table, new IntField(k), 1));
+        }
+        assertEquals(JoinHashTable.NONE, table.first(new IntField(500)));
+        assertEquals(JoinHashTable.NONE, table.first(new IntField(Integer.MIN_VALUE)));
+
+        Tuple t = table.getTuple(1234);
+        assertEquals(new IntField(234 - 500), t.getField(0));
+        assertEquals(new IntField(1234), t.getField(1));
+    }
+
+    /**
+     * Unit test for FieldJoinHashTable, used for string keys.
+     */
+    @Test public void stringKeys() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        JoinHashTable table = JoinHashTable.create(td, 0);
+        assertTrue(table instanceof FieldJoinHashTable);
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("k" + (i % 7), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            table.add(t);
+        }
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 3; i < 300; i += 7)
+            expected.add(i);
+        assertEquals(expected, matches(table, new StringField("k3", Type.STRING_LEN), 1));
+        assertEquals(JoinHashTable.NONE, table.first(new StringField("k7", Type.STRING_LEN)));
+    }
+
+    /**
+     * The int table takes less memory than the general one for the same
+     * rows, although both keep the rows' Tuples.
+     */
+    @Test public void memoryUsed() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        JoinHashTable ints = new IntJoinHashTable(td, 0);
+        JoinHashTable fields = new FieldJoinHashTable(td, 0);
+        for (int i = 0; i < 10000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, i });
+            ints.add(t);
+            fields.add(t);
+        }
+        assertTrue(ints.memoryUsed() < fields.memoryUsed());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinHashTableTest.class);
+    }
+}
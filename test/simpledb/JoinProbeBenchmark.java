@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Probe benchmark for the hash tables of HashEquiJoin. Builds a table of
+ * two-int rows and probes it with random keys, producing the concatenated
+ * output tuple of every match as HashEquiJoin does, with the HashMap of
+ * ArrayLists the join used before {@link JoinHashTable}, with a
+ * {@link FieldJoinHashTable} and with an {@link IntJoinHashTable}; prints
+ * the probes per second of each, with and without building the output.
+ * <p>
+ * Run with <code>ant runbenchmark -Dbenchmark=JoinProbeBenchmark</code>.
+ * Optional arguments: the number of build rows, the number of distinct
+ * keys and the number of probes.
+ */
+public class JoinProbeBenchmark {
+
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int buildRows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : 250000;
+        int probes = args.length > 2 ? Integer.parseInt(args[2]) : 2000000;
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        TupleDesc combo = TupleDesc.merge(td, td);
+        Random rand = new Random(0);
+        ArrayList<Tuple> build = new ArrayList<Tuple>();
+        for (int i = 0; i < buildRows; i++)
+            build.add(Utility.getHeapTuple(new int[] { i % keys, i }));
+        // half the probes miss
+        Tuple[] probe = new Tuple[probes];
+        for (int i = 0; i < probes; i++)
+            probe[i] = Utility.getHeapTuple(new int[] { rand.nextInt(keys * 2), i });
+
+        HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+        for (Tuple t : build) {
+            ArrayList<Tuple> list = map.get(t.getField(0));
+            if (list == null)
+                map.put(t.getField(0), list = new ArrayList<Tuple>());
+            list.add(t);
+        }
+        JoinHashTable field = new FieldJoinHashTable(td, 0);
+        JoinHashTable ints = new IntJoinHashTable(td, 0);
+        for (Tuple t : build) {
+            field.add(t);
+            ints.add(t);
+        }
+
+        System.out.println(buildRows + " build rows, " + keys + " keys, " + probes + " probes");
+        System.out.println("best of " + ROUNDS + " rounds, millions of probes per second");
+        System.out.printf("%20s %10s %10s %10s%n", "", "HashMap", "Field", "Int");
+        double[][] best = new double[2][3];
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int output = 0; output < 2; output++) {
+                long[] sums = new long[3];
+                for (int k = 0; k < 3; k++) {
+                    long start = System.nanoTime();
+                    if (k == 0)
+                        sums[k] = probeMap(map, probe, combo, output == 1);
+                    else
+                        sums[k] = probeTable(k == 1 ? field : ints, probe, combo, output == 1);
+                    double rate = probes / ((System.nanoTime() - start) / 1e3);
+                    best[output][k] = Math.max(best[output][k], rate);
+                }
+                if (sums[0] != sums[1] || sums[0] != sums[2])
+                    throw new AssertionError("tables disagree");
+            }
+        }
+        System.out.printf("%20s %10.2f %10.2f %10.2f%n", "lookup only", best[0][0],
+                best[0][1], best[0][2]);
+        System.out.printf("%20s %10.2f %10.2f %10.2f%n", "with output tuples", best[1][0],
+                best[1][1], best[1][2]);
+    }
+
+    private static Tuple concat(TupleDesc combo, Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(combo);
+        for (int i = 0; i < 2; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < 2; i++)
+            t.setField(2 + i, t2.getField(i));
+        return t;
+    }
+
+    private static long probeMap(HashMap<Object, ArrayList<Tuple>> map, Tuple[] probe,
+            TupleDesc combo, boolean output) {
+        long sum = 0;
+        for (Tuple t2 : probe) {
+            ArrayList<Tuple> list = map.get(t2.getField(0));
+            if (list == null)
+                continue;
+            for (Tuple t1 : list)
+                sum += output ? ((IntField) concat(combo, t1, t2).getField(1)).getValue() : 1;
+        }
+        return sum;
+    }
+
+    private static long probeTable(JoinHashTable table, Tuple[] probe, TupleDesc combo,
+            boolean output) {
+        long sum = 0;
+        for (Tuple t2 : probe) {
+            for (int row = table.first(t2.getField(0)); row != JoinHashTable.NONE;
+                    row = table.next(row))
+                sum += output ? ((IntField) concat(combo, table.getTuple(row), t2).getField(1))
+                        .getValue() : 1;
+        }
+        return sum;
+    }
+}
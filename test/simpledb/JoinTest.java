@@ -3,6 +3,8 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -105,6 +107,42 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join with outer blocks smaller than child1: the result is
+   * the same and child2 is scanned once per block.
+   */
+  @Test public void blocks() throws Exception {
+    final int[] rewinds = { 0 };
+    ArrayList<Tuple> inner = new ArrayList<Tuple>();
+    scan2.open();
+    while (scan2.hasNext())
+      inner.add(scan2.next());
+    scan2.close();
+    OpIterator counted = new TupleIterator(scan2.getTupleDesc(), inner) {
+      private static final long serialVersionUID = 1L;
+
+      public void rewind() {
+        rewinds[0]++;
+        super.rewind();
+      }
+    };
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Join op = new Join(pred, scan1, counted);
+    // room for two of the four outer tuples per block
+    op.setMemoryBudget(2 * (scan1.getTupleDesc().getSize() + 64) - 1);
+    op.open();
+    gtJoin.open();
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    assertEquals(11, n);
+    assertEquals(1, rewinds[0]);
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,190 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private LockManager lm;
+    private PageId p0;
+    private TransactionId tid1, tid2, tid3;
+
+    @Before public void createLockManager() {
+        lm = new LockManager(LockManager.VictimPolicy.YOUNGEST);
+        p0 = new HeapPageId(1, 0);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /**
+     * Starts a thread that acquires a lock and counts down the returned latch
+     * once the lock is granted.
+     */
+    private CountDownLatch acquireInBackground(final TransactionId tid, final PageId pid,
+            final boolean exclusive) {
+        final CountDownLatch granted = new CountDownLatch(1);
+        new Thread() {
+            public void run() {
+                try {
+                    lm.acquire(tid, pid, exclusive);
+                    granted.countDown();
+                } catch (TransactionAbortedException e) {
+                    // the latch stays up
+                }
+            }
+        }.start();
+        return granted;
+    }
+
+    /**
+     * Unit test for LockManager.acquire(): shared locks are compatible.
+     */
+    @Test public void sharedLocks() throws Exception {
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid2, p0, false);
+        assertTrue(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+        assertFalse(lm.holdsExclusive(tid1, p0));
+    }
+
+    /**
+     * Unit test for LockManager.acquire(): the only reader upgrades in place.
+     */
+    @Test public void upgrade() throws Exception {
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid1, p0, true);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+        assertEquals(1, lm.pagesLockedBy(tid1).size());
+    }
+
+    /**
+     * Unit test for LockManager.release(): a parked waiter is handed the lock
+     * as soon as it is released, and an upgrade goes before queued writers.
+     */
+    @Test public void releaseWakesWaiters() throws Exception {
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid2, p0, false);
+        CountDownLatch writer = acquireInBackground(tid3, p0, true);
+        CountDownLatch upgrade = acquireInBackground(tid1, p0, true);
+        assertFalse(upgrade.await(50, TimeUnit.MILLISECONDS));
+
+        lm.releaseAll(tid2);
+        assertTrue(upgrade.await(1, TimeUnit.SECONDS));
+        assertFalse(writer.await(50, TimeUnit.MILLISECONDS));
+
+        lm.releaseAll(tid1);
+        assertTrue(writer.await(1, TimeUnit.SECONDS));
+        assertTrue(lm.holdsExclusive(tid3, p0));
+    }
+
+    /**
+     * Unit test for LockManager.acquire(): a reader queues behind a waiting
+     * writer instead of starving it.
+     */
+    @Test public void readerQueuesBehindWriter() throws Exception {
+        lm.acquire(tid1, p0, false);
+        CountDownLatch writer = acquireInBackground(tid2, p0, true);
+        Thread.sleep(50);
+        CountDownLatch reader = acquireInBackground(tid3, p0, false);
+        assertFalse(reader.await(50, TimeUnit.MILLISECONDS));
+
+        lm.releaseAll(tid1);
+        assertTrue(writer.await(1, TimeUnit.SECONDS));
+        lm.releaseAll(tid2);
+        assertTrue(reader.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Unit test for deadlock detection: the youngest transaction of a cycle
+     * is aborted as soon as the cycle closes, and the other one proceeds.
+     */
+    @Test public void youngestVictim() throws Exception {
+        PageId p1 = new HeapPageId(1, 1);
+        lm.acquire(tid1, p0, true);
+        lm.acquire(tid2, p1, true);
+        CountDownLatch older = acquireInBackground(tid1, p1, true);
+        Thread.sleep(50);
+
+        long start = System.currentTimeMillis();
+        try {
+            lm.acquire(tid2, p0, true);
+            fail("expected the youngest transaction to be aborted");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        lm.releaseAll(tid2);
+        assertTrue(older.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Unit test for deadlock detection with the FEWEST_LOCKS policy: the
+     * transaction that holds less is aborted even if it is the oldest.
+     */
+    @Test public void fewestLocksVictim() throws Exception {
+        lm = new LockManager(LockManager.VictimPolicy.FEWEST_LOCKS);
+        PageId p1 = new HeapPageId(1, 1);
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquire(tid1, p0, true);
+        lm.acquire(tid2, p1, true);
+        lm.acquire(tid2, p2, true);
+        CountDownLatch younger = acquireInBackground(tid2, p0, true);
+        Thread.sleep(50);
+
+        try {
+            lm.acquire(tid1, p1, true);
+            fail("expected the transaction with fewer locks to be aborted");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseAll(tid1);
+        assertTrue(younger.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Unit test for deadlock detection with the LEAST_LOG policy: the
+     * transaction with the fewest exclusive locks is aborted, although it
+     * is the oldest and holds more locks in all.
+     */
+    @Test public void leastLogVictim() throws Exception {
+        lm = new LockManager(LockManager.VictimPolicy.LEAST_LOG);
+        PageId p1 = new HeapPageId(1, 1);
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquire(tid1, p0, true);
+        for (int i = 3; i < 6; i++)
+            lm.acquire(tid1, new HeapPageId(1, i), false);
+        lm.acquire(tid2, p1, true);
+        lm.acquire(tid2, p2, true);
+        CountDownLatch younger = acquireInBackground(tid2, p0, true);
+        Thread.sleep(50);
+
+        try {
+            lm.acquire(tid1, p1, true);
+            fail("expected the transaction with fewer exclusive locks to be aborted");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        lm.releaseAll(tid1);
+        assertTrue(younger.await(1, TimeUnit.SECONDS));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
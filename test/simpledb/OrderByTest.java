@@ -0,0 +1,167 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(3, 3000, 20, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private ArrayList<ArrayList<Integer>> expected(final int[] fields, final boolean[] asc) {
+        ArrayList<ArrayList<Integer>> sorted = new ArrayList<ArrayList<Integer>>(tuples);
+        Collections.sort(sorted, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < fields.length; i++) {
+                    int c = a.get(fields[i]).compareTo(b.get(fields[i]));
+                    if (c != 0)
+                        return asc[i] ? c : -c;
+                }
+                return 0;
+            }
+        });
+        return sorted;
+    }
+
+    /** Check that it returns the expected tuples in order of the sort fields. */
+    private static void assertSorted(OpIterator it, ArrayList<ArrayList<Integer>> expected,
+            int[] fields) throws Exception {
+        int n = 0;
+        while (it.hasNext()) {
+            ArrayList<Integer> t = SystemTestUtil.tupleToList(it.next());
+            for (int f : fields)
+                assertEquals(expected.get(n).get(f), t.get(f));
+            n++;
+        }
+        assertEquals(expected.size(), n);
+    }
+
+    private OrderBy orderBy(int[] fields, boolean[] asc, long budget) {
+        OrderBy o = new OrderBy(fields, asc, new SeqScan(tid, table.getId(), "t"));
+        o.setMemoryBudget(budget);
+        return o;
+    }
+
+    /**
+     * Sort on several fields with mixed directions, in memory.
+     */
+    @Test public void multipleKeys() throws Exception {
+        int[] fields = { 1, 0, 2 };
+        boolean[] asc = { false, true, false };
+        OrderBy o = orderBy(fields, asc, OrderBy.DEFAULT_MEMORY_BUDGET);
+        o.open();
+        assertSorted(o, expected(fields, asc), fields);
+        assertEquals(0, o.numRuns());
+        o.close();
+        // every tuple is returned, not just the sort fields
+        SystemTestUtil.matchTuples(orderBy(fields, asc, OrderBy.DEFAULT_MEMORY_BUDGET), tuples);
+    }
+
+    /**
+     * A small budget writes the input out as sorted runs and merges them.
+     */
+    @Test public void external() throws Exception {
+        int[] fields = { 2, 1 };
+        boolean[] asc = { true, false };
+        OrderBy o = orderBy(fields, asc, 3000 * 76 / 10);
+        o.open();
+        assertTrue(o.numRuns() >= 10);
+        assertSorted(o, expected(fields, asc), fields);
+        o.close();
+        SystemTestUtil.matchTuples(orderBy(fields, asc, 3000 * 76 / 10), tuples);
+    }
+
+    /**
+     * More runs than can be merged at once need an extra merge pass.
+     */
+    @Test public void multiPassMerge() throws Exception {
+        int[] fields = { 0 };
+        boolean[] asc = { false };
+        OrderBy o = orderBy(fields, asc, 76 * 20);
+        o.open();
+        // 150 runs of 20 tuples merged into 3 longer runs
+        assertEquals(3, o.numRuns());
+        assertSorted(o, expected(fields, asc), fields);
+        o.close();
+    }
+
+    /**
+     * rewind() and a second open() produce the same tuples again.
+     */
+    @Test public void rewindAndReopen() throws Exception {
+        int[] fields = { 1 };
+        boolean[] asc = { true };
+        for (long budget : new long[] { OrderBy.DEFAULT_MEMORY_BUDGET, 3000 * 76 / 4 }) {
+            OrderBy o = orderBy(fields, asc, budget);
+            o.open();
+            assertSorted(o, expected(fields, asc), fields);
+            o.rewind();
+            assertSorted(o, expected(fields, asc), fields);
+            o.close();
+            o.open();
+            assertSorted(o, expected(fields, asc), fields);
+            o.close();
+        }
+    }
+
+    /**
+     * Unit test for LoserTree: inputs of different lengths, including empty
+     * ones, and equal tuples come out in input order.
+     */
+    @Test public void loserTree() throws Exception {
+        int[][] runs = { { 1, 4, 4, 9 }, {}, { 2, 3, 4 }, { 0 }, { 5, 6, 7, 8, 10 } };
+        List<DbFileIterator> inputs = new ArrayList<DbFileIterator>();
+        for (int r = 0; r < runs.length; r++) {
+            TupleSpillFile f = new TupleSpillFile(Utility.getTupleDesc(2));
+            for (int v : runs[r])
+                f.add(Utility.getHeapTuple(new int[] { v, r }));
+            inputs.add(f.iterator());
+        }
+        LoserTree tree = new LoserTree(inputs, new TupleComparator(0, true));
+        tree.open();
+        int[][] expected = { { 0, 3 }, { 1, 0 }, { 2, 2 }, { 3, 2 }, { 4, 0 }, { 4, 0 },
+                { 4, 2 }, { 5, 4 }, { 6, 4 }, { 7, 4 }, { 8, 4 }, { 9, 0 }, { 10, 4 } };
+        for (int pass = 0; pass < 2; pass++) {
+            for (int[] e : expected) {
+                assertTrue(tree.hasNext());
+                Tuple t = tree.next();
+                assertEquals(new IntField(e[0]), t.getField(0));
+                assertEquals(new IntField(e[1]), t.getField(1));
+            }
+            assertTrue(!tree.hasNext());
+            tree.rewind();
+        }
+        tree.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,221 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, tuples, "c");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static ArrayList<ArrayList<Integer>> sorted(ArrayList<ArrayList<Integer>> rows) {
+        Collections.sort(rows, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+        return rows;
+    }
+
+    /** Drain it, sorted since parallel scans return tuples in any order. */
+    private static ArrayList<ArrayList<Integer>> drain(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext())
+            out.add(SystemTestUtil.tupleToList(it.next()));
+        return sorted(out);
+    }
+
+    /**
+     * Morsels hand out every page exactly once.
+     */
+    @Test public void morsels() {
+        Morsels m = new Morsels(50, 16);
+        assertEquals(0, m.claim());
+        assertEquals(16, m.end(0));
+        assertEquals(16, m.claim());
+        assertEquals(32, m.claim());
+        assertEquals(48, m.claim());
+        assertEquals(50, m.end(48));
+        assertEquals(-1, m.claim());
+        assertEquals(-1, new Morsels(0, 16).claim());
+    }
+
+    /**
+     * A parallel scan returns every tuple of the table once, whatever the
+     * number of workers and the size of the morsels.
+     */
+    @Test public void scan() throws Exception {
+        assertTrue(table.numPages() > Morsels.DEFAULT_PAGES);
+        ArrayList<ArrayList<Integer>> expected = sorted(new ArrayList<ArrayList<Integer>>(tuples));
+        for (int workers : new int[] { 1, 2, 8 }) {
+            for (int morselPages : new int[] { 1, 16, 1000 }) {
+                ParallelScan ps = new ParallelScan(tid, table.getId(), "t", workers,
+                        scan -> scan, morselPages);
+                ps.open();
+                assertEquals(expected, drain(ps));
+                ps.close();
+            }
+        }
+    }
+
+    /**
+     * Each worker runs the pipeline over its morsels; rewinding scans again.
+     */
+    @Test public void pipeline() throws Exception {
+        final Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(1) < 300)
+                expected.add(new ArrayList<Integer>(t.subList(1, 3)));
+        sorted(expected);
+
+        final TupleDesc td = Utility.getTupleDesc(3);
+        ParallelScan ps = new ParallelScan(tid, table.getId(), "t", 4,
+                scan -> new Project(new ArrayList<Integer>(Arrays.asList(1, 2)),
+                        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, new Filter(p, scan)));
+        assertEquals(2, ps.getTupleDesc().numFields());
+        assertEquals(td.getFieldType(1), ps.getTupleDesc().getFieldType(0));
+        ps.open();
+        assertEquals(expected, drain(ps));
+        ps.rewind();
+        assertEquals(expected, drain(ps));
+        ps.close();
+    }
+
+    /**
+     * Closing a scan before it is finished stops the workers, and the
+     * scan can be opened again.
+     */
+    @Test public void closeEarly() throws Exception {
+        ParallelScan ps = new ParallelScan(tid, table.getId(), "t", 8, scan -> scan, 1);
+        for (int i = 0; i < 5; i++) {
+            ps.open();
+            for (int j = 0; j < 10; j++)
+                ps.next();
+            ps.close();
+        }
+        ps.open();
+        assertEquals(tuples.size(), drain(ps).size());
+        ps.close();
+    }
+
+    /**
+     * Single-table queries scan and filter in parallel once the parallelism
+     * is above one.
+     */
+    @Test public void plan() throws Exception {
+        Database.getCatalog().addTable(table, "pscan");
+        TableStats.setTableStats("pscan", new TableStats(table.getId(), 19));
+        int count = 0;
+        long sum = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) > 500) {
+                count++;
+                sum += t.get(2);
+            }
+        }
+        String query = "SELECT COUNT(*), SUM(t.c2) FROM pscan t WHERE t.c0 > 500;";
+        Parser p = new Parser();
+
+        OpIterator plan = p.generateLogicalPlan(tid, query).physicalPlan(tid,
+                TableStats.getStatsMap(), false);
+        assertTrue(((Operator) ((Operator) plan).getChildren()[0]).getChildren()[0] instanceof Filter);
+
+        LogicalPlan.setParallelism(4);
+        LogicalPlan lp = p.generateLogicalPlan(tid, query);
+        try {
+            plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        } finally {
+            LogicalPlan.setParallelism(1);
+        }
+        OpIterator scan = ((Operator) ((Operator) plan).getChildren()[0]).getChildren()[0];
+        assertTrue(scan instanceof ParallelScan);
+        assertEquals(4, ((ParallelScan) scan).getNumWorkers());
+        OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan).contains("parallel(4 workers)"));
+        plan.open();
+        ArrayList<ArrayList<Integer>> result = drain(plan);
+        plan.close();
+        assertEquals(1, result.size());
+        assertEquals(count, (int) result.get(0).get(0));
+        assertEquals(sum, (long) result.get(0).get(1));
+    }
+
+    /**
+     * With parallelism, GROUP BY queries are aggregated in two phases:
+     * partial aggregates in every worker, combined by a final Aggregate,
+     * with the same result as aggregating serially.
+     */
+    @Test public void parallelAggregate() throws Exception {
+        Database.getCatalog().addTable(table, "pagg");
+        TableStats.setTableStats("pagg", new TableStats(table.getId(), 19));
+        Parser p = new Parser();
+        String[] queries = {
+            "SELECT t.c0, COUNT(t.c1), SUM(t.c1), AVG(t.c2), MIN(t.c2), MAX(t.c1) "
+                + "FROM pagg t WHERE t.c1 < 700 GROUP BY t.c0;",
+            "SELECT AVG(t.c2), COUNT(*) FROM pagg t;",
+            "SELECT t.c1, AVG(t.c2) FROM pagg t GROUP BY t.c1;",
+        };
+        for (String query : queries) {
+            OpIterator serial = p.generateLogicalPlan(tid, query).physicalPlan(tid,
+                    TableStats.getStatsMap(), false);
+            serial.open();
+            ArrayList<ArrayList<Integer>> expected = drain(serial);
+            serial.close();
+
+            LogicalPlan.setParallelism(4);
+            OpIterator plan;
+            try {
+                plan = p.generateLogicalPlan(tid, query).physicalPlan(tid,
+                        TableStats.getStatsMap(), false);
+            } finally {
+                LogicalPlan.setParallelism(1);
+            }
+            OpIterator agg = ((Operator) plan).getChildren()[0];
+            assertTrue(agg instanceof Aggregate);
+            OpIterator scan = ((Aggregate) agg).getChildren()[0];
+            assertTrue(scan instanceof ParallelScan);
+            assertTrue(((ParallelScan) scan).getChildren()[0] instanceof Aggregate);
+            plan.open();
+            assertEquals(expected, drain(plan));
+            plan.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
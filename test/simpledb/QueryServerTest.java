@@ -0,0 +1,213 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryServerTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    private QueryService service;
+    private QueryServer server;
+
+    @Before public void setUp() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(table, "srv");
+        TableStats.setTableStats("srv", new TableStats(table.getId(), 19));
+        service = new QueryService();
+        server = new QueryServer(0, service);
+        server.start();
+    }
+
+    @After public void tearDown() throws Exception {
+        server.close();
+        service.shutdown();
+    }
+
+    private static List<String> sorted(List<String> rows) {
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private List<String> expected(int below) {
+        ArrayList<String> rows = new ArrayList<String>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) < below)
+                rows.add(t.toString());
+        return sorted(rows);
+    }
+
+    /**
+     * Several clients run statements at once, one after another on each
+     * connection, and get back every row with its schema.
+     */
+    @Test public void queries() throws Exception {
+        int clients = 8;
+        final Throwable[] errors = new Throwable[clients];
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            final int id = c;
+            threads[c] = new Thread(() -> {
+                try (QueryClient client = new QueryClient("localhost", server.getPort())) {
+                    for (int q = 0; q < 5; q++) {
+                        int below = (id * 5 + q) * 25;
+                        final ArrayList<String> rows = new ArrayList<String>();
+                        int n = client.execute("SELECT * FROM srv t WHERE t.c0 < " + below + ";",
+                                t -> {
+                                    assertEquals("t.c0", t.getTupleDesc().getFieldName(0));
+                                    rows.add(SystemTestUtil.tupleToList(t).toString());
+                                });
+                        assertEquals(rows.size(), n);
+                        assertEquals(expected(below), sorted(rows));
+                    }
+                } catch (Throwable e) {
+                    errors[id] = e;
+                }
+            });
+            threads[c].start();
+        }
+        for (int c = 0; c < clients; c++) {
+            threads[c].join();
+            if (errors[c] != null)
+                throw new AssertionError(errors[c]);
+        }
+    }
+
+    /**
+     * Failed statements are reported, and the connection can go on.
+     */
+    @Test public void errors() throws Exception {
+        try (QueryClient client = new QueryClient("localhost", server.getPort())) {
+            try {
+                client.execute("SELECT * FROM nosuchtable t;", t -> { });
+                fail("expected the statement to fail");
+            } catch (DbException e) {
+            }
+            assertEquals(1, client.execute("INSERT INTO srv VALUES (1, 2);", t -> { }));
+            assertEquals(0, client.execute("SELECT * FROM srv t WHERE t.c0 < 0;", t -> { }));
+            // the schema comes even without rows
+            assertEquals("t.c0", client.getResultTupleDesc().getFieldName(0));
+        }
+    }
+
+    /**
+     * Rows too wide for BATCH_ROWS of them to fit in a frame are sent in
+     * smaller batches.
+     */
+    @Test public void wideRows() throws Exception {
+        ArrayList<ArrayList<Integer>> wide = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(600, 30, 1000,
+                Collections.singletonMap(0, 1), wide, "w");
+        Database.getCatalog().addTable(table, "wide");
+        // every pair matches, and a joined row is 4800 bytes
+        assertTrue(QueryServer.BATCH_ROWS * 2 * table.getTupleDesc().getSize()
+                > QueryServer.MAX_FRAME);
+        final ArrayList<String> rows = new ArrayList<String>();
+        try (QueryClient client = new QueryClient("localhost", server.getPort())) {
+            assertEquals(wide.size() * wide.size(), client.execute(
+                    "SELECT * FROM wide a, wide b WHERE a.w0 = b.w0;",
+                    t -> rows.add(SystemTestUtil.tupleToList(t).toString())));
+        }
+        ArrayList<String> expected = new ArrayList<String>();
+        for (ArrayList<Integer> a : wide) {
+            for (ArrayList<Integer> b : wide) {
+                ArrayList<Integer> t = new ArrayList<Integer>(a);
+                t.addAll(b);
+                expected.add(t.toString());
+            }
+        }
+        assertEquals(sorted(expected), sorted(rows));
+    }
+
+    /**
+     * A client can cancel its running statement.
+     */
+    @Test public void cancel() throws Exception {
+        try (final QueryClient client = new QueryClient("localhost", server.getPort())) {
+            final CountDownLatch first = new CountDownLatch(1);
+            final CountDownLatch cancelled = new CountDownLatch(1);
+            Thread canceller = new Thread(() -> {
+                try {
+                    first.await();
+                    client.cancel();
+                    cancelled.countDown();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            canceller.start();
+            try {
+                // far more rows than the socket buffers hold, so the
+                // statement is still running when cancelled
+                client.execute("SELECT * FROM srv a, srv b WHERE a.c0 < b.c0;", t -> {
+                    first.countDown();
+                    try {
+                        cancelled.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                fail("expected the statement to be cancelled");
+            } catch (DbException e) {
+                assertTrue(e.getMessage().contains("cancelled"));
+            }
+            canceller.join();
+            assertEquals(tuples.size(), client.execute("SELECT * FROM srv t;", t -> { }));
+        }
+    }
+
+    /**
+     * Closing the server closes its connections and cancels their running
+     * statements.
+     */
+    @Test public void close() throws Exception {
+        try (final QueryClient client = new QueryClient("localhost", server.getPort())) {
+            final CountDownLatch first = new CountDownLatch(1);
+            Thread closer = new Thread(() -> {
+                try {
+                    first.await();
+                    server.close();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            closer.start();
+            try {
+                client.execute("SELECT * FROM srv a, srv b WHERE a.c0 < b.c0;", t -> {
+                    first.countDown();
+                });
+                fail("expected the connection to be closed");
+            } catch (IOException e) {
+            }
+            closer.join();
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (service.getAvailablePages() < service.getMemoryPages()
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(service.getMemoryPages(), service.getAvailablePages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryServerTest.class);
+    }
+}
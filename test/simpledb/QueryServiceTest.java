@@ -0,0 +1,211 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryServiceTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    private QueryService service;
+
+    @Before public void setUp() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10000, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(table, "qs");
+        TableStats.setTableStats("qs", new TableStats(table.getId(), 19));
+        service = new QueryService();
+    }
+
+    @After public void tearDown() {
+        service.shutdown();
+    }
+
+    /**
+     * Many queries run at once, each returning its own result.
+     */
+    @Test public void concurrentQueries() throws Exception {
+        int n = 100;
+        QueryService.Execution[] runs = new QueryService.Execution[n];
+        AtomicLong[] sums = new AtomicLong[n];
+        for (int i = 0; i < n; i++) {
+            final AtomicLong sum = sums[i] = new AtomicLong();
+            runs[i] = service.submit("SELECT * FROM qs t WHERE t.c0 < " + (i * 10) + ";",
+                    t -> sum.addAndGet(((IntField) t.getField(1)).getValue()));
+        }
+        for (int i = 0; i < n; i++) {
+            int count = 0;
+            long sum = 0;
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(0) < i * 10) {
+                    count++;
+                    sum += t.get(1);
+                }
+            }
+            assertEquals(count, runs[i].await());
+            assertEquals(sum, sums[i].get());
+            assertTrue(runs[i].isDone());
+        }
+        assertEquals(service.getMemoryPages(), service.getAvailablePages());
+    }
+
+    /**
+     * Hundreds of scans run at once: each reserves only the page it reads.
+     */
+    @Test public void lightweightQueries() throws Exception {
+        int n = 300;
+        final CountDownLatch all = new CountDownLatch(n);
+        QueryService.Execution[] runs = new QueryService.Execution[n];
+        for (int i = 0; i < n; i++) {
+            final boolean[] first = { true };
+            runs[i] = service.submit("SELECT * FROM qs t;", t -> {
+                if (first[0]) {
+                    first[0] = false;
+                    all.countDown();
+                    try {
+                        all.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        assertTrue(all.await(30, TimeUnit.SECONDS));
+        for (QueryService.Execution e : runs)
+            assertEquals(tuples.size(), e.await());
+    }
+
+    /**
+     * A plan reserves the memory budgets of its operators and a page per
+     * scan.
+     */
+    @Test public void estimatePages() throws Exception {
+        TransactionId tid = new TransactionId();
+        int table = Database.getCatalog().getTableId("qs");
+        OpIterator scan = new SeqScan(tid, table, "a");
+        assertEquals(1, QueryService.estimatePages(scan));
+
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                scan, new SeqScan(tid, table, "b"));
+        int pageSize = BufferPool.getPageSize();
+        join.setMemoryBudget(100 * pageSize);
+        assertEquals(102, QueryService.estimatePages(join));
+        OrderBy sort = new OrderBy(0, true, join);
+        sort.setMemoryBudget(10 * pageSize);
+        assertEquals(112, QueryService.estimatePages(sort));
+
+        // a two-phase parallel aggregate runs a partial Aggregate and a scan
+        // in every worker, and a final Aggregate over them
+        LogicalPlan.setParallelism(4);
+        OpIterator plan;
+        try {
+            plan = new Parser().generateLogicalPlan(tid,
+                    "SELECT t.c0, SUM(t.c1) FROM qs t GROUP BY t.c0;").physicalPlan(tid,
+                    TableStats.getStatsMap(), false);
+        } finally {
+            LogicalPlan.setParallelism(1);
+        }
+        long aggPages = Aggregator.DEFAULT_MEMORY_BUDGET / pageSize;
+        assertEquals(4 * (aggPages + 1) + aggPages, QueryService.estimatePages(plan));
+    }
+
+    /**
+     * A query waits for admission while the running ones hold all pages.
+     */
+    @Test public void admission() throws Exception {
+        service = new QueryService(4);
+        final CountDownLatch first = new CountDownLatch(1), release = new CountDownLatch(1);
+        QueryService.Execution blocking = service.submit("SELECT * FROM qs t;", 3, t -> {
+            first.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+        assertEquals(1, service.getAvailablePages());
+        QueryService.Execution waiting = service.submit("SELECT * FROM qs t;", 2, t -> { });
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        assertNull(waiting.getTransactionId());
+        release.countDown();
+        assertEquals(tuples.size(), blocking.await());
+        assertEquals(tuples.size(), waiting.await());
+        assertEquals(4, service.getAvailablePages());
+    }
+
+    /**
+     * Cancelling interrupts a running query, aborting its transaction and
+     * freeing its pages; cancelling a waiting query keeps it from starting.
+     */
+    @Test public void cancel() throws Exception {
+        service = new QueryService(2);
+        final CountDownLatch first = new CountDownLatch(1);
+        QueryService.Execution running = service.submit("SELECT * FROM qs t;", 2, t -> {
+            first.countDown();
+            LockSupport.parkNanos(100000);
+        });
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+        QueryService.Execution waiting = service.submit("SELECT * FROM qs t;", t -> { });
+        waiting.cancel();
+        running.cancel();
+        for (QueryService.Execution e : new QueryService.Execution[] { running, waiting }) {
+            try {
+                e.await();
+                fail("expected the query to be cancelled");
+            } catch (CancellationException ex) {
+            }
+            assertTrue(e.isCancelled());
+        }
+        assertTrue(running.getRowCount() < tuples.size());
+        assertNull(waiting.getTransactionId());
+        assertEquals(2, service.getAvailablePages());
+
+        // the locks of the cancelled query are gone
+        QueryService.Execution insert = service.submit("INSERT INTO qs VALUES (1, 2);",
+                t -> { });
+        assertEquals(1, insert.await());
+    }
+
+    /**
+     * Errors in a statement are reported by await.
+     */
+    @Test public void failure() throws Exception {
+        try {
+            service.submit("SELECT * FROM nosuchtable t;", t -> { }).await();
+            fail("expected the query to fail");
+        } catch (ParsingException e) {
+        }
+        try {
+            service.submit("COMMIT;", t -> { }).await();
+            fail("expected the statement to be refused");
+        } catch (ParsingException e) {
+        }
+        assertEquals(service.getMemoryPages(), service.getAvailablePages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryServiceTest.class);
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    /**
+     * Set up a table of 10 pages.
+     */
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+    }
+
+    /**
+     * Unit test for BufferPool.prefetchPage(): the page is loaded without
+     * taking a lock, and only once.
+     */
+    @Test public void prefetchPage() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(hf.getId(), 3);
+        assertTrue(bp.prefetchPage(pid));
+        assertFalse(bp.prefetchPage(pid));
+
+        TransactionId tid = new TransactionId();
+        assertFalse(bp.holdsLock(tid, pid));
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for ReadAhead.pageAccessed(): after two consecutive pages the
+     * following pages are read in the background, and random access
+     * prefetches nothing.
+     */
+    @Test public void sequentialAccess() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        ReadAhead ra = new ReadAhead(hf.getId(), hf.numPages());
+
+        ra.pageAccessed(5);
+        ra.pageAccessed(0);
+        assertTrue(ReadAhead.awaitIdle(10000));
+        assertTrue(bp.prefetchPage(new HeapPageId(hf.getId(), 1)));
+
+        ra.pageAccessed(1);
+        assertTrue(ReadAhead.awaitIdle(10000));
+        for (int p = 2; p < 2 + ReadAhead.MIN_WINDOW; p++)
+            assertFalse(bp.prefetchPage(new HeapPageId(hf.getId(), p)));
+    }
+
+    /**
+     * Unit test for ReadAhead.window(): the window stays within bounds.
+     */
+    @Test public void window() throws Exception {
+        ReadAhead ra = new ReadAhead(hf.getId(), hf.numPages());
+        int k = ra.window(new BufferPool(1000));
+        assertTrue(k >= ReadAhead.MIN_WINDOW && k <= ReadAhead.MAX_WINDOW);
+        assertEquals(1, ra.window(new BufferPool(3)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
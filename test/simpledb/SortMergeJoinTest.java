@@ -0,0 +1,135 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> leftTuples = new ArrayList<ArrayList<Integer>>();
+    private ArrayList<ArrayList<Integer>> rightTuples = new ArrayList<ArrayList<Integer>>();
+    private HeapFile left;
+    private HeapFile right;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        left = SystemTestUtil.createRandomHeapFile(2, 150, 40, null, leftTuples);
+        right = SystemTestUtil.createRandomHeapFile(3, 100, 40, null, rightTuples);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private ArrayList<ArrayList<Integer>> expected(JoinPredicate p) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : leftTuples) {
+            for (ArrayList<Integer> t2 : rightTuples) {
+                if (new IntField(t1.get(p.getField1())).compare(p.getOperator(),
+                        new IntField(t2.get(p.getField2())))) {
+                    ArrayList<Integer> t = new ArrayList<Integer>(t1);
+                    t.addAll(t2);
+                    result.add(t);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Unit test for SortMergeJoin with every supported operator over
+     * unsorted inputs with duplicate keys.
+     */
+    @Test public void allOperators() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            if (!SortMergeJoin.supports(op))
+                continue;
+            JoinPredicate p = new JoinPredicate(1, op, 2);
+            SystemTestUtil.matchTuples(new SortMergeJoin(p,
+                    new SeqScan(tid, left.getId(), "l"),
+                    new SeqScan(tid, right.getId(), "r")), expected(p));
+        }
+    }
+
+    /**
+     * rewind() produces the same tuples again.
+     */
+    @Test public void rewind() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+                Predicate.Op.LESS_THAN }) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            SortMergeJoin j = new SortMergeJoin(p, new SeqScan(tid, left.getId(), "l"),
+                    new SeqScan(tid, right.getId(), "r"));
+            j.open();
+            int n = 0;
+            while (j.hasNext()) {
+                j.next();
+                n++;
+            }
+            j.rewind();
+            int again = 0;
+            while (j.hasNext()) {
+                j.next();
+                again++;
+            }
+            j.close();
+            assertEquals(expected(p).size(), n);
+            assertEquals(n, again);
+        }
+    }
+
+    /**
+     * Unit test for SortMergeJoin.isSortedOn().
+     */
+    @Test public void isSortedOn() throws Exception {
+        OpIterator scan = new SeqScan(tid, left.getId(), "l");
+        assertFalse(SortMergeJoin.isSortedOn(scan, 0));
+        OrderBy asc = new OrderBy(1, true, scan);
+        assertTrue(SortMergeJoin.isSortedOn(asc, 1));
+        assertFalse(SortMergeJoin.isSortedOn(asc, 0));
+        assertFalse(SortMergeJoin.isSortedOn(new OrderBy(1, false, scan), 1));
+        assertTrue(SortMergeJoin.isSortedOn(new Filter(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(3)), asc), 1));
+    }
+
+    /**
+     * The optimizer picks SortMergeJoin when both inputs are already sorted
+     * on the join fields, and the nested-loop Join otherwise.
+     */
+    @Test public void instantiateJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 2);
+        OpIterator l = new SeqScan(tid, left.getId(), "l");
+        OpIterator r = new SeqScan(tid, right.getId(), "r");
+        assertFalse(JoinOptimizer.useSortMergeJoin(p, l, r));
+        assertTrue(JoinOptimizer.useSortMergeJoin(p, new OrderBy(1, true, l),
+                new OrderBy(2, true, r)));
+        assertFalse(JoinOptimizer.useSortMergeJoin(new JoinPredicate(1,
+                Predicate.Op.NOT_EQUALS, 2), new OrderBy(1, true, l), new OrderBy(2, true, r)));
+
+        // a presorted join costs less than sorting
+        assertTrue(JoinOptimizer.sortMergeJoinCost(10000, 10000, 100, 100, true, true)
+                < JoinOptimizer.sortMergeJoinCost(10000, 10000, 100, 100, false, false));
+        // large inputs favor sort-merge over nested loops
+        assertTrue(JoinOptimizer.sortMergeJoinCost(100000, 100000, 1000, 1000, false, false)
+                < JoinOptimizer.nestedLoopJoinCost(100000, 100000, 1000, 1000));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
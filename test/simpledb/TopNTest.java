@@ -0,0 +1,129 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    private HeapFile table;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(3, 2000, 30, null, tuples, "c");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static ArrayList<ArrayList<Integer>> drain(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext())
+            out.add(SystemTestUtil.tupleToList(it.next()));
+        return out;
+    }
+
+    /** The first n tuples of the stable sort OrderBy produces. */
+    private ArrayList<ArrayList<Integer>> expected(int[] fields, boolean[] asc, int n)
+            throws Exception {
+        OpIterator o = new Limit(n, new OrderBy(fields, asc,
+                new SeqScan(tid, table.getId(), "t")));
+        o.open();
+        ArrayList<ArrayList<Integer>> out = drain(o);
+        o.close();
+        return out;
+    }
+
+    /**
+     * TopN returns exactly what OrderBy followed by Limit returns, in the
+     * same order, including which of several equal tuples make the cut.
+     */
+    @Test public void matchesOrderByLimit() throws Exception {
+        int[][] fields = { { 0 }, { 1, 2 }, { 2, 0 } };
+        boolean[][] asc = { { false }, { true, false }, { false, true } };
+        for (int k = 0; k < fields.length; k++) {
+            for (int n : new int[] { 0, 1, 50, 1999, 2000, 5000 }) {
+                TopN t = new TopN(fields[k], asc[k], n, new SeqScan(tid, table.getId(), "t"));
+                t.open();
+                ArrayList<ArrayList<Integer>> result = drain(t);
+                t.close();
+                assertEquals(Math.min(n, 2000), result.size());
+                assertEquals(expected(fields[k], asc[k], n), result);
+            }
+        }
+    }
+
+    /**
+     * rewind() returns the same tuples again.
+     */
+    @Test public void rewind() throws Exception {
+        TopN t = new TopN(new int[] { 1 }, new boolean[] { true }, 20,
+                new SeqScan(tid, table.getId(), "t"));
+        t.open();
+        ArrayList<ArrayList<Integer>> first = drain(t);
+        t.rewind();
+        assertEquals(first, drain(t));
+        t.close();
+    }
+
+    /**
+     * Unit test for Limit without an ORDER BY.
+     */
+    @Test public void limit() throws Exception {
+        Limit l = new Limit(7, new SeqScan(tid, table.getId(), "t"));
+        l.open();
+        assertEquals(new ArrayList<ArrayList<Integer>>(tuples.subList(0, 7)), drain(l));
+        l.rewind();
+        assertEquals(7, drain(l).size());
+        l.close();
+    }
+
+    /**
+     * LIMIT is parsed, and ORDER BY ... LIMIT is planned as a TopN.
+     */
+    @Test public void parseLimit() throws Exception {
+        Database.getCatalog().addTable(table, "topn");
+        TableStats.setTableStats("topn", new TableStats(table.getId(), 19));
+        Parser p = new Parser();
+
+        LogicalPlan lp = p.generateLogicalPlan(tid,
+                "SELECT * FROM topn t ORDER BY t.c1 DESC, t.c0 LIMIT 50;");
+        assertEquals(50, lp.getLimit());
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(plan.getClass() == Project.class);
+        OpIterator top = ((Project) plan).getChildren()[0];
+        assertTrue(top instanceof TopN);
+        assertEquals(50, ((TopN) top).getLimit());
+        plan.open();
+        assertEquals(expected(new int[] { 1, 0 }, new boolean[] { false, true }, 50),
+                drain(plan));
+        plan.close();
+
+        lp = p.generateLogicalPlan(tid, "select * from topn t limit 3;");
+        plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Project) plan).getChildren()[0] instanceof Limit);
+
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM topn t ORDER BY t.c0;");
+        assertEquals(LogicalPlan.NO_LIMIT, lp.getLimit());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}